@@ -177,6 +177,112 @@ def location_to_flux(x, c):
 
     return B[0], B[1], B[2]
 
+# Mapping from location axes to axes of coil cylindrical coordinate system, the same
+# mapping is used back from coil to location axes
+coil_axes = [[0, 1, 2], [1, 2, 0], [0, 2, 1]]
+
+def location_to_flux_jac(x, c):
+    coil_id = c % len(coil_order)
+    axes = coil_axes[coil_id]
+    center = [x1, y1, z1]
+
+    xd = x[axes[0]] - center[axes[0]]
+    yd = x[axes[1]] - center[axes[1]]
+    zd = x[axes[2]] - center[axes[2]]
+
+    ac = a[coil_id]
+    rc = (xd**2 + yd**2)**0.5
+    rc_const = U0 * I0[coil_id] / (2.0 * pi)
+
+    s = (rc + ac)**2 + zd**2
+    d = (rc - ac)**2 + zd**2
+    m = (4.0 * ac * rc) / s
+
+    # Taylor expansion of K(k) and E(k) elliptical integrals and their derivatives
+    kofkc = pi / 2.0 + (pi / 8.0) * m + 9.0 * (pi / 128.0) * m**2
+    eofkc = pi / 2.0 - (pi / 8.0) * m - 3.0 * (pi / 128.0) * m**2
+    dkofkc = pi / 8.0 + (9.0 * pi / 64.0) * m
+    deofkc = -pi / 8.0 - (3.0 * pi / 64.0) * m
+
+    # Partial derivatives of the common terms with respect to rc and zd
+    s_rc, s_zd = 2.0 * (rc + ac), 2.0 * zd
+    d_rc, d_zd = 2.0 * (rc - ac), 2.0 * zd
+    m_rc, m_zd = 4.0 * ac / s - m * s_rc / s, -m * s_zd / s
+    n_rc, n_zd = 2.0 * rc, 2.0 * zd
+
+    n1 = rc**2 + ac**2 + zd**2
+    n2 = rc**2 - ac**2 + zd**2
+
+    p = -kofkc + eofkc * n1 / d
+    q = kofkc - eofkc * n2 / d
+
+    p_rc = -dkofkc * m_rc + deofkc * m_rc * n1 / d + eofkc * (n_rc * d - n1 * d_rc) / d**2
+    p_zd = -dkofkc * m_zd + deofkc * m_zd * n1 / d + eofkc * (n_zd * d - n1 * d_zd) / d**2
+    q_rc = dkofkc * m_rc - deofkc * m_rc * n2 / d - eofkc * (n_rc * d - n2 * d_rc) / d**2
+    q_zd = dkofkc * m_zd - deofkc * m_zd * n2 / d - eofkc * (n_zd * d - n2 * d_zd) / d**2
+
+    try:
+        # Radical component divided by rc, so Bx = g * xd and By = g * yd
+        g = rc_const * zd / (rc**2 * s**0.5) * p
+        g_rc = g * (-2.0 / rc - 0.5 * s_rc / s) + rc_const * zd / (rc**2 * s**0.5) * p_rc
+        g_zd = rc_const / (rc**2 * s**0.5) * (p + zd * p_zd - 0.5 * zd * p * s_zd / s)
+        u_rc, v_rc = xd / rc, yd / rc
+    except ZeroDivisionError:
+        # Radical component vanishes on the coil axis
+        g = g_rc = g_zd = u_rc = v_rc = 0.0
+
+    bz = rc_const / s**0.5 * q
+    bz_rc = rc_const / s**0.5 * q_rc - 0.5 * bz * s_rc / s
+    bz_zd = rc_const / s**0.5 * q_zd - 0.5 * bz * s_zd / s
+
+    local_flux = [g * xd, g * yd, bz]
+    local_jac = [[g + xd * g_rc * u_rc, xd * g_rc * v_rc, xd * g_zd],
+                 [yd * g_rc * u_rc, g + yd * g_rc * v_rc, yd * g_zd],
+                 [bz_rc * u_rc, bz_rc * v_rc, bz_zd]]
+
+    # Swap the coil axes back to location axes for both rows and columns
+    flux = [0.0, 0.0, 0.0]
+    flux_jac = [[0.0, 0.0, 0.0], [0.0, 0.0, 0.0], [0.0, 0.0, 0.0]]
+
+    for i in range(3):
+        flux[axes[i]] = local_flux[i] * 1e7
+        for j in range(3):
+            flux_jac[axes[i]][axes[j]] = local_jac[i][j] * 1e7
+
+    ca, sa = math.cos(x[3]), math.sin(x[3])
+    cb, sb = math.cos(x[4]), math.sin(x[4])
+    cg, sg = math.cos(x[5]), math.sin(x[5])
+
+    rot = [[cb * cg, sa * sb * cg - ca * sg, ca * sb * cg + sa * sg],
+           [cb * sg, sa * sb * sg + ca * cg, ca * sb * sg - sa * cg],
+           [-sb, sa * cb, ca * cb]]
+    # Derivatives of rotation matrix with respect to alpha, beta and gamma
+    rot_d = [[[0.0, ca * sb * cg + sa * sg, -sa * sb * cg + ca * sg],
+              [0.0, ca * sb * sg - sa * cg, -sa * sb * sg - ca * cg],
+              [0.0, ca * cb, -sa * cb]],
+             [[-sb * cg, sa * cb * cg, ca * cb * cg],
+              [-sb * sg, sa * cb * sg, ca * cb * sg],
+              [-cb, -sa * sb, -ca * sb]],
+             [[-cb * sg, -sa * sb * sg - ca * cg, -ca * sb * sg + sa * cg],
+              [cb * cg, sa * sb * cg - ca * sg, ca * sb * cg + sa * sg],
+              [0.0, 0.0, 0.0]]]
+
+    jac = [[0.0] * 6 for _ in range(3)]
+
+    for i in range(3):
+        for j in range(3):
+            jac[i][j] = sum(rot[i][k] * flux_jac[k][j] for k in range(3))
+        for j in range(3):
+            jac[i][3 + j] = sum(rot_d[j][i][k] * flux[k] for k in range(3))
+
+    # Same as magnetic values, drop invalid values on the coil axis
+    for i in range(3):
+        for j in range(6):
+            if not math.isfinite(jac[i][j]):
+                jac[i][j] = 0.0
+
+    return jac
+
 def objective_func(x, bx0, by0, bz0, bx1, by1, bz1, bx2, by2, bz2):
     Bx0, By0, Bz0 = location_to_flux(x, coil_order[0])
     Bx1, By1, Bz1 = location_to_flux(x, coil_order[1])
@@ -186,17 +292,32 @@ def objective_func(x, bx0, by0, bz0, bx1, by1, bz1, bx2, by2, bz2):
         Bx1 - bx1, By1 - by1, Bz1 - bz1, \
         Bx2 - bx2, By2 - by2, Bz2 - bz2]
 
-def get_location_data(bx0, by0, bz0, bx1, by1, bz1, bx2, by2, bz2):
+def objective_jac(x, *args):
+    # Measured values are constant so the Jacobian of residuals is the model Jacobian
+    return np.array(location_to_flux_jac(x, coil_order[0]) + \
+        location_to_flux_jac(x, coil_order[1]) + \
+        location_to_flux_jac(x, coil_order[2]))
+
+def get_location_data(bx0, by0, bz0, bx1, by1, bz1, bx2, by2, bz2, prior = None):
     bounds = [[-0.5, -0.5, -0.5, -pi, -pi, -pi], [0.5, 0.5, 0.5, pi, pi, pi]]
+
+    if prior is None:
+        # Initial values of guess
+        # x0 = [0.0, 0.0, 0.5, 0.0, 0.0, 0.0]
+        x0 = [0.1, 0.1, 0.1, pi / 10.0, pi / 10.0, pi /10.0]
+        # x0 = [0.0, 0.0, 0.0, pi / 10.0, pi / 10.0, pi /10.0]
+    else:
+        # Warm start from last location, which must be kept within bounds
+        x0 = np.clip(np.array(list(prior), dtype = float), bounds[0], bounds[1])
+
     result = least_squares(objective_func,
-                           # Initial values of guess
-                           # x0 = [0.0, 0.0, 0.5, 0.0, 0.0, 0.0],
-                           x0 = [0.1, 0.1, 0.1, pi / 10.0, pi / 10.0, pi /10.0],
-                           # x0 = [0.0, 0.0, 0.0, pi / 10.0, pi / 10.0, pi /10.0],
+                           x0 = x0,
                            # Use Levenberg-Marquardt algorithm
                            # method = 'lm', \
                            # Use Trust Region Reflective algorithm
                            method = 'trf', \
+                           # Use closed-form Jacobian instead of finite differences
+                           jac = objective_jac, \
                            # Enable debug print
                            # verbose = 1, \
                            # Levenberg-Marquardt algorithm does not support boundary check
@@ -208,7 +329,39 @@ def get_location_data(bx0, by0, bz0, bx1, by1, bz1, bx2, by2, bz2):
 
     # print(result)
 
-    return result.x
+    # Append residual norm to location result for detection of bad solution
+    return np.append(result.x, np.linalg.norm(result.fun))
+
+# Maximum residual norm relative to norm of magnetic data for a location to be
+# accepted as initial guess of next location
+residual_ratio_warm_start = 0.1
+
+def get_location_data_batch(values, count):
+    # Magnetic data of frames flattened as [bx0, by0, bz0, ..., bz2] for each frame
+    frames = np.asarray(values, dtype = float)[:count * 9].reshape(count, 9)
+    results = np.full((count, 7), np.nan)
+    prior = None
+
+    for i in range(count):
+        # Each frame starts from location of the previous frame, fall back to a cold
+        # start if residuals blow up
+        limit = residual_ratio_warm_start * np.linalg.norm(frames[i])
+
+        try:
+            result = get_location_data(*frames[i], prior = prior)
+
+            if prior is not None and not result[6] <= limit:
+                result = get_location_data(*frames[i])
+        except ValueError as e:
+            print('failed to solve frame', i, ':', e)
+            prior = None
+            continue
+
+        results[i] = result
+        prior = result[:6] if result[6] <= limit else None
+
+    # Flatten as [px, py, pz, ax, ay, az, residual] for each frame
+    return results.reshape(-1)
 
 def get_magnetic_data(px, py, pz, ax, ay, az, coil_id):
     return location_to_flux([px, py, pz, ax, ay, az], coil_id)
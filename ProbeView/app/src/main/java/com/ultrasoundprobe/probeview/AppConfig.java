@@ -1,13 +1,28 @@
 package com.ultrasoundprobe.probeview;
 
+import com.ultrasoundprobe.probeview.device.coil.SampleAccumulator;
+
 public class AppConfig {
     // Enable debug output or not for software module
     public static final boolean CoilSwitchDebug = true;
     public static final boolean NavigationAlgorithmDebug = true;
+    // Log magnetic data and location of every solve of navigation algorithm or not,
+    // this takes strings and objects on each solve, disable this in normal operation
+    public static final boolean NavigationSolveDebug = false;
 
     // Run navigation algorithm test or not, disable this in normal operation
     public static final boolean NavigationAlgorithmTest = false;
 
+    // Request binary frames from coil and probe devices on connection or not, devices
+    // not taking the request keep sending text frames
+    public static final boolean DeviceBinaryFrames = true;
+
+    // Run callbacks of the device service on a thread of their own instead of the
+    // Bluetooth thread or not, and number of pending callbacks kept once the app falls
+    // behind, the oldest data is dropped beyond it
+    public static final boolean DeviceCallbackExecutor = true;
+    public static final int DeviceCallbackCapacity = 256;
+
     // Specify ready time of coil switch after some switches were turned on
     // to sample IMU data
     public static final int CoilControlSwitchOnReadyTime = 500;
@@ -17,6 +32,54 @@ public class AppConfig {
     // Specify a timeout for coil state changed to its desire state, retry
     // will enforce after this timeout has occurred
     public static final int CoilControlSwitchTimeout = 200;
+    // Sample IMU data once magnetic data settles after a coil switch or not, the
+    // ready time of coil switch is the upper bound of settle time then
+    public static final boolean CoilControlAdaptiveReadyTime = true;
+    // Specify number of latest samples of magnetic data and threshold of the sum
+    // of their variances of all axes for magnetic data to be settled
+    public static final int CoilControlSettleWindow = 4;
+    public static final double CoilControlSettleThreshold = 4.0;
+    // Specify number of samples of IMU data taken for each coil state once it is
+    // ready, and statistic of the samples: Mean, TrimmedMean or Median
+    public static final int CoilControlSampleCount = 4;
+    public static final SampleAccumulator.Statistic CoilControlSampleStatistic =
+            SampleAccumulator.Statistic.Mean;
+    // Run algorithm after every active coil state with the latest IMU data of the
+    // other coil states, instead of once after all coil states, or not
+    public static final boolean CoilControlRollingUpdate = true;
+    // Specify sequence of coil states in a coil cycle out of "C1", "C2", "C3" and
+    // "OFF", each coil takes the first all-off state after it as background, such
+    // as "C1,OFF,C2,OFF,C3,OFF" or "C1,C2,C3,OFF" with one shared all-off state
+    public static final String CoilControlSequence = "C1,OFF,C2,OFF,C3,OFF";
+    // Specify number of coil cycles between those taking all-off states, all-off
+    // states are skipped in other coil cycles
+    public static final int CoilControlOffInterval = 1;
+    // Drive coil switches by a timer at a fixed period of each coil state and tag
+    // samples of IMU data by their timestamps, instead of switching on arrival of IMU
+    // data, or not
+    public static final boolean CoilControlScheduler = false;
+    // Specify period of each coil state driven by the timer, and time after each coil
+    // switch before samples of IMU data are taken
+    public static final int CoilControlStepPeriod = 100;
+    public static final int CoilControlSettleGuard = 50;
+    // Upload the coil sequence to the coil device once to cycle by itself and report
+    // each coil state, instead of a request for each coil switch, or not, the timer
+    // drives coil switches instead if the coil device does not report coil states
+    public static final boolean CoilControlFirmwareSequence = false;
+
+    // Limit time of navigation algorithm by the period of IMU data or not
+    public static final boolean NavigationAdaptiveTimeBudget = true;
+
+    // Smooth locations from navigation algorithm by a Kalman tracker or not
+    public static final boolean NavigationLocationTracking = true;
+
+    // Estimate background of magnetic data over all samples of inactive coils, instead
+    // of the average of inactive coils of each coil cycle, or not
+    public static final boolean NavigationBackgroundEstimation = false;
+
+    // Run sample assembly, background removal, algorithm, tracking and view update
+    // in pipelined stages on their own threads or not
+    public static final boolean NavigationPipeline = false;
 
     // Hide coil object in 3D view or not
     public static final boolean CoilObject3dViewVisible = false;
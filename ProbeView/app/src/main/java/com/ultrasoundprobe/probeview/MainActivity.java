@@ -25,6 +25,7 @@ import android.view.MenuItem;
 
 import com.ultrasoundprobe.probeview.device.DeviceInfo;
 import com.ultrasoundprobe.probeview.device.DeviceService;
+import com.ultrasoundprobe.probeview.device.coil.CoilScheduler;
 import com.ultrasoundprobe.probeview.device.coil.CoilSwitch;
 import com.ultrasoundprobe.probeview.device.power.PowerControl;
 import com.ultrasoundprobe.probeview.dialog.DialogHelper;
@@ -54,6 +55,9 @@ public class MainActivity extends AppCompatActivity implements
     private DeviceService deviceService;
     private HostService hostService;
 
+    // Callback of the device service running on a thread of its own, or null for this
+    private DeviceService.AsyncServiceCallback deviceCallback;
+
     private Menu menu;
     private NavigationViewFragment navigationViewFragment;
     private NavigationInfoFragment navigationInfoFragment;
@@ -65,7 +69,10 @@ public class MainActivity extends AppCompatActivity implements
     private String scanImageUrl;
 
     private CoilSwitch coilSwitch;
-    private DeviceService.GpioData coilControl;
+    private CoilScheduler coilScheduler;
+    // Snapshot of the latest coil states, replaced as a whole and never changed in place
+    // so that threads reading it see the states of one notification
+    private volatile DeviceService.GpioData coilControl;
 
     private PowerControl powerControl;
     private String powerControlAddress;
@@ -85,6 +92,8 @@ public class MainActivity extends AppCompatActivity implements
         scanImageView = findViewById(R.id.imageview_scan_image);
 
         coilSwitch = new CoilSwitch();
+        coilScheduler = new CoilScheduler(coilSwitch);
+        coilScheduler.setFirmwareSequence(AppConfig.CoilControlFirmwareSequence);
         coilControl = new DeviceService.GpioData();
         powerControl = new PowerControl();
 
@@ -121,6 +130,7 @@ public class MainActivity extends AppCompatActivity implements
         // Log.d(TAG, "onDestroy()");
 
         powerControl.stop();
+        coilScheduler.stop();
 
         unbindService(this);
     }
@@ -249,6 +259,26 @@ public class MainActivity extends AppCompatActivity implements
         surfaceInterface = navigationView.getSurfaceInterface();
         dataConvert = navigationView.getDataConvert();
 
+        // Assemble coil cycles from samples of IMU data in the navigation pipeline
+        navigationView.setSampleAssembler((value, gpioData, timestamp, frame) -> {
+            DeviceService.ImuData[] values = getImuDataFromCoilSwitch(
+                    gpioData, value, timestamp);
+
+            if (values == null)
+                return false;
+
+            long[] times = coilSwitch.getImuDataTimes();
+
+            frame.setImuData(coilSwitch.getImuDataFromActiveCoils(values),
+                    coilSwitch.getImuDataFromInactiveCoils(values));
+            frame.setSampleTimes(coilSwitch.getTimesFromActiveCoils(times),
+                    coilSwitch.getTimesFromInactiveCoils(times));
+            frame.setVariances(coilSwitch.getVariancesFromActiveCoils(
+                    coilSwitch.getImuDataVariances()));
+
+            return true;
+        });
+
         setRemoteAlgoBackend();
 
         // Load detection surface of a model for navigation demo
@@ -316,24 +346,45 @@ public class MainActivity extends AppCompatActivity implements
             // GPIO data from coil device
             DeviceService.GpioData gpioData = (DeviceService.GpioData)data;
 
-            coilControl.gpio1 = gpioData.gpio1;
-            coilControl.gpio2 = gpioData.gpio2;
-            coilControl.gpio3 = gpioData.gpio3;
+            coilControl = new DeviceService.GpioData(
+                    gpioData.gpio1, gpioData.gpio2, gpioData.gpio3);
+
+            // Coil state from coil device cycling through the uploaded sequence
+            if (gpioData instanceof DeviceService.CoilStateData)
+                coilScheduler.onCoilStateReceived((DeviceService.CoilStateData)gpioData,
+                        ((DeviceService.ExtraData)extra).sampleTime);
+
+            // Data is reused by the next notification before the UI thread gets to it
+            DeviceService.GpioData gpioDataUi =
+                    (DeviceService.GpioData)DeviceService.copyData(gpioData);
 
-            runOnUiThread(() -> updateGpioDataUi(gpioData));
+            runOnUiThread(() -> updateGpioDataUi(gpioDataUi));
         } else if (deviceInfo.getType() == DeviceInfo.DeviceType.Probe) {
             // IMU data from probe device
             DeviceService.ImuData imuData = (DeviceService.ImuData)data;
             // Extra data from probe device
             DeviceService.ExtraData extraData = (DeviceService.ExtraData)extra;
+            // Copy of IMU data for the UI thread, same as above
+            DeviceService.ImuData imuDataUi =
+                    (DeviceService.ImuData)DeviceService.copyData(imuData);
+
+            // Leave coil switch and algorithm to the navigation pipeline, which copies
+            // the sample along with current coil states
+            if (navigationView != null && navigationView.isPipelineEnabled()) {
+                runOnUiThread(() -> updateImuDataUi(imuDataUi));
+
+                powerControl.start(extraData);
+
+                if (!navigationView.postImuSample(imuData, coilControl, extraData.sampleTime))
+                    Log.e(TAG, "Cannot post IMU data");
+                return;
+            }
+
             // Get IMU data associated with coil switch
-            DeviceService.ImuData[] values = coilSwitch.getImuDataFromCoilSwitch(
-                    deviceService,
-                    getConnectedDeviceAddress(DeviceInfo.DeviceType.Coil),
-                    coilControl,
-                    imuData);
+            DeviceService.ImuData[] values = getImuDataFromCoilSwitch(
+                    coilControl, imuData, extraData.sampleTime);
 
-            runOnUiThread(() -> updateImuDataUi(imuData));
+            runOnUiThread(() -> updateImuDataUi(imuDataUi));
 
             powerControl.start(extraData);
 
@@ -343,7 +394,9 @@ public class MainActivity extends AppCompatActivity implements
 
             if (navigationView != null && !navigationView.updateImuData(
                     coilSwitch.getImuDataFromActiveCoils(values),
-                    coilSwitch.getImuDataFromInactiveCoils(values)))
+                    coilSwitch.getImuDataFromInactiveCoils(values),
+                    coilSwitch.getTimesFromActiveCoils(coilSwitch.getImuDataTimes()),
+                    coilSwitch.getCycleTime()))
                 Log.e(TAG, "Cannot update IMU data");
         }
     }
@@ -351,12 +404,19 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     public void onDeviceConnected(DeviceInfo deviceInfo) {
         Log.d(TAG, deviceInfo.getDescription() + " connected");
+
+        // Drive coil switches by the scheduler from now on
+        if (deviceInfo.getType() == DeviceInfo.DeviceType.Coil && AppConfig.CoilControlScheduler)
+            coilScheduler.start(deviceService, deviceInfo.getAddress());
     }
 
     @Override
     public void onDeviceDisconnected(DeviceInfo deviceInfo) {
         Log.d(TAG, deviceInfo.getDescription() + " disconnected");
 
+        if (deviceInfo.getType() == DeviceInfo.DeviceType.Coil)
+            coilScheduler.stop();
+
         runOnUiThread(() -> {
             DialogHelper.dismissProgressDialog();
             updateActionBarUi();
@@ -465,8 +525,14 @@ public class MainActivity extends AppCompatActivity implements
 
                         // Reset coil switch
                         coilSwitch.resetCoilControl();
+                        // Drop last location from previous coil session
+                        if (dataConvert != null)
+                            dataConvert.resetPriorLocation();
                         // Enable debug output
                         coilSwitch.setDebug(AppConfig.CoilSwitchDebug);
+                        coilScheduler.setDebug(AppConfig.CoilSwitchDebug);
+                        // Update location on every active coil state
+                        coilSwitch.setRollingUpdate(AppConfig.CoilControlRollingUpdate);
                     }
                 }
             });
@@ -492,15 +558,25 @@ public class MainActivity extends AppCompatActivity implements
             return;
 
         if (enable) {
-            if (!deviceService.registerCallback(this))
+            // Keep coil switching and UI updates off the Bluetooth thread
+            if (AppConfig.DeviceCallbackExecutor && deviceCallback == null)
+                deviceCallback = new DeviceService.AsyncServiceCallback(this,
+                        AppConfig.DeviceCallbackCapacity);
+
+            if (!deviceService.registerCallback(getDeviceCallback()))
                 Log.e(TAG, "Failed to register callback for " +
                         DeviceService.class.getName());
 
             deviceService.setTimerInterval(10);
         } else {
-            if (!deviceService.unregisterCallback(this))
+            if (!deviceService.unregisterCallback(getDeviceCallback()))
                 Log.e(TAG, "Failed to unregister callback for " +
                         DeviceService.class.getName());
+
+            if (deviceCallback != null) {
+                deviceCallback.quit();
+                deviceCallback = null;
+            }
         }
 
         deviceService.enableTimer(enable && AppConfig.NavigationAlgorithmTest);
@@ -523,6 +599,10 @@ public class MainActivity extends AppCompatActivity implements
         }
     }
 
+    private DeviceService.ServiceCallback getDeviceCallback() {
+        return deviceCallback != null ? deviceCallback : this;
+    }
+
     private String getConnectedDeviceAddress(DeviceInfo.DeviceType type) {
         if (deviceService == null)
             return null;
@@ -542,6 +622,21 @@ public class MainActivity extends AppCompatActivity implements
         return address;
     }
 
+    // Get IMU data associated with coil switch, from the scheduler once it drives coil
+    // switches by its timer, or from coil switch driven by arrival of IMU data
+    private DeviceService.ImuData[] getImuDataFromCoilSwitch(DeviceService.GpioData gpioData,
+                                                            DeviceService.ImuData imuData,
+                                                            long timestamp) {
+        if (coilScheduler.isRunning())
+            return coilScheduler.getImuDataFromCoilSwitch(gpioData, imuData, timestamp);
+
+        return coilSwitch.getImuDataFromCoilSwitch(
+                deviceService,
+                getConnectedDeviceAddress(DeviceInfo.DeviceType.Coil),
+                gpioData,
+                imuData);
+    }
+
     private void setRemoteAlgoBackend() {
         if (dataConvert == null || hostService == null)
             return;
@@ -0,0 +1,181 @@
+package com.ultrasoundprobe.probeview.callback;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+// Callbacks of a listener run on a thread of its own, so that the thread of a service
+// posting them returns at once whatever the listener does. Pending callbacks are
+// bounded by a capacity, the oldest droppable one is dropped for a new one once the
+// listener falls behind, and a pending callback with a key is replaced by a later one
+// of the same key
+public class CallbackExecutor {
+    private static final String TAG = "CallbackExecutor";
+
+    // Number of dropped callbacks between logs
+    private static final int DROP_LOG_INTERVAL = 100;
+
+    private static class Task {
+        public final Object key;
+        public final boolean isDroppable;
+        public Runnable runnable;
+
+        public Task(Object key, boolean isDroppable, Runnable runnable) {
+            this.key = key;
+            this.isDroppable = isDroppable;
+            this.runnable = runnable;
+        }
+    }
+
+    private final String name;
+    private final int capacity;
+    private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+
+    private Thread thread = null;
+    private boolean isRunning = false;
+
+    private long executedCount = 0;
+    private long droppedCount = 0;
+    private long coalescedCount = 0;
+    private int maxQueueDepth = 0;
+
+    public CallbackExecutor(String name, int capacity) {
+        this.name = name;
+        this.capacity = capacity;
+    }
+
+    // Start the thread once, an executor is not started again after it quits
+    public synchronized void start() {
+        if (thread != null)
+            return;
+
+        isRunning = true;
+        thread = new Thread(this::run, name);
+        thread.start();
+    }
+
+    // Stop the thread once the running callback returns, pending callbacks are dropped
+    public synchronized void quit() {
+        isRunning = false;
+        tasks.clear();
+        notifyAll();
+    }
+
+    // Post a callback which is dropped if the listener falls behind, return false if
+    // the executor is not running
+    public boolean execute(Runnable runnable) {
+        return post(null, true, runnable);
+    }
+
+    // Same as above, a pending callback of the same key is replaced, such as a timer
+    // tick or the latest scan result of a device
+    public boolean execute(Object key, Runnable runnable) {
+        return post(key, true, runnable);
+    }
+
+    // Post a callback which is never dropped nor replaced, such as a connection event
+    public boolean executeReliably(Runnable runnable) {
+        return post(null, false, runnable);
+    }
+
+    public synchronized long getExecutedCount() {
+        return executedCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public synchronized int getQueueDepth() {
+        return tasks.size();
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return name + ": depth " + tasks.size() + "/" + maxQueueDepth +
+                ", executed " + executedCount +
+                ", dropped " + droppedCount +
+                ", coalesced " + coalescedCount;
+    }
+
+    private synchronized boolean post(Object key, boolean isDroppable, Runnable runnable) {
+        if (!isRunning)
+            return false;
+
+        if (key != null) {
+            for (Task task : tasks) {
+                if (key.equals(task.key)) {
+                    task.runnable = runnable;
+                    coalescedCount++;
+                    return true;
+                }
+            }
+        }
+
+        // Make room by the oldest droppable callback, callbacks which are never
+        // dropped may go beyond the capacity
+        if (isDroppable && tasks.size() >= capacity) {
+            Iterator<Task> iterator = tasks.iterator();
+
+            while (iterator.hasNext()) {
+                if (iterator.next().isDroppable) {
+                    iterator.remove();
+
+                    if (droppedCount++ % DROP_LOG_INTERVAL == 0)
+                        Log.w(TAG, "Listener falls behind, " + this);
+                    break;
+                }
+            }
+        }
+
+        tasks.add(new Task(key, isDroppable, runnable));
+
+        if (tasks.size() > maxQueueDepth)
+            maxQueueDepth = tasks.size();
+
+        notifyAll();
+
+        return true;
+    }
+
+    private synchronized Runnable take() throws InterruptedException {
+        while (isRunning && tasks.isEmpty())
+            wait();
+
+        if (!isRunning)
+            return null;
+
+        executedCount++;
+
+        return tasks.poll().runnable;
+    }
+
+    private void run() {
+        while (true) {
+            Runnable runnable;
+
+            try {
+                runnable = take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (runnable == null)
+                break;
+
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                Log.e(TAG, name + " failed to run callback: " + e.getMessage());
+            }
+        }
+    }
+}
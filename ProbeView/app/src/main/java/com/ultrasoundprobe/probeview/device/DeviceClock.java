@@ -0,0 +1,50 @@
+package com.ultrasoundprobe.probeview.device;
+
+// Map device times of binary frames from a device to local time of System.nanoTime(),
+// by the offset between the clocks of the frame delayed least on its way, as the link
+// only ever delays arrival of a frame, less the latency of the link taken as half the
+// least round trip of an acknowledged write to the device if there is any
+public class DeviceClock {
+    // Drift allowed between the clocks, the offset is raised by this fraction of the
+    // time since the last frame so that it follows a device clock running slow
+    private static final double CLOCK_DRIFT = 1e-4;
+
+    // Device time of the last frame as sent and extended beyond 32 bits, in
+    // microseconds, -1 before the first frame
+    private long lastFrameTime = -1;
+    private long deviceTime;
+    private long arrivalTime;
+    private long offset;
+    private long roundTrip = -1;
+
+    public synchronized void reset() {
+        lastFrameTime = -1;
+        roundTrip = -1;
+    }
+
+    // Take the time of a write to the device until it is acknowledged in nanoseconds,
+    // not that of a write without response, which completes once it is sent
+    public synchronized void updateRoundTrip(long time) {
+        if (time >= 0 && (roundTrip < 0 || time < roundTrip))
+            roundTrip = time;
+    }
+
+    // Local time of a 32-bit device time in microseconds of a frame arriving at a time
+    // of System.nanoTime(), never later than its arrival
+    public synchronized long getLocalTime(long frameTime, long arrivalTime) {
+        if (lastFrameTime < 0) {
+            deviceTime = frameTime;
+            offset = arrivalTime - deviceTime * 1000;
+        } else {
+            deviceTime += (frameTime - lastFrameTime) & 0xffffffffL;
+            offset = Math.min(
+                    offset + (long)((arrivalTime - this.arrivalTime) * CLOCK_DRIFT),
+                    arrivalTime - deviceTime * 1000);
+        }
+
+        lastFrameTime = frameTime;
+        this.arrivalTime = arrivalTime;
+
+        return deviceTime * 1000 + offset - (roundTrip < 0 ? 0 : roundTrip / 2);
+    }
+}
@@ -29,14 +29,18 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import com.ultrasoundprobe.probeview.AppConfig;
+import com.ultrasoundprobe.probeview.callback.CallbackExecutor;
 import com.ultrasoundprobe.probeview.format.InputOutputFormatter;
+import com.ultrasoundprobe.probeview.format.NotificationParser;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class DeviceService extends Service {
     private static final String TAG = "DeviceService";
@@ -59,14 +63,22 @@ public class DeviceService extends Service {
     private static final String DEVICE_NAME_FILTER_PROBE = "ASTRI_Probe";
     private static final String DEVICE_SERVICE_UUID_FILTER = DEVICE_SERVICE_UUID_UART;
 
-    // Maximum Transmission Unit for data transfer between host and device
-    private static final int DEVICE_REQUEST_MTU = 64;
+    // Maximum Transmission Unit for data transfer between host and device, the largest
+    // one the stack allows so that a notification carries a batch of samples
+    private static final int DEVICE_REQUEST_MTU = 517;
+
+    // Delay and number of attempts to send a write while GATT is busy with another
+    // operation, and latency of a write in milliseconds to warn about
+    private static final int WRITE_RETRY_DELAY = 10;
+    private static final int WRITE_RETRY_LIMIT = 20;
+    private static final int WRITE_LATENCY_WARNING = 100;
 
     private enum ConnectionState {
         CHANNEL_DISCONNECTED,
         CHANNEL_CONNECTED,
         SERVICE_DISCOVERED,
         NOTIFICATION_ENABLED,
+        FRAME_FORMAT_REQUESTED,
         DATA_TRANSFER_ENABLED
     }
 
@@ -74,19 +86,31 @@ public class DeviceService extends Service {
         public BluetoothGatt gatt;
         public ConnectionState connectionState;
         public BluetoothGattCharacteristic characteristicTransfer;
-        public boolean waitCharacteristicTransferResponse;
+        public final DeviceWriteQueue writeQueue = new DeviceWriteQueue();
+        public final DeviceClock deviceClock = new DeviceClock();
+
+        // Device info and data of notifications reused for each notification
+        public DeviceInfo deviceInfo;
+        public final NotificationParser parser = new NotificationParser();
+        public final ImuData imuData = new ImuData(0, 0, 0, 0, 0, 0);
+        public final ExtraData extraData = new ExtraData();
+        public final GpioData gpioData = new GpioData();
+        public final CoilStateData coilStateData = new CoilStateData(0, 0, 0,
+                false, false, false);
 
         public DeviceStruct() {
             connectionState = ConnectionState.CHANNEL_DISCONNECTED;
-            waitCharacteristicTransferResponse = false;
         }
     }
 
-    private final Map<String, DeviceStruct> deviceMaps = new HashMap<>();
+    // Devices by address, changed by GATT callbacks and read by writes from any thread
+    private final Map<String, DeviceStruct> deviceMaps = new ConcurrentHashMap<>();
 
     private ServiceBinder serviceBinder;
-    private List<ServiceCallback> serviceCallbacks;
-    private final Object serviceCallbackMutex = new Object();
+    // Registry of callbacks copied on write, so that callbacks are dispatched from any
+    // thread without a lock while a listener registers or unregisters
+    private final CopyOnWriteArrayList<ServiceCallback> serviceCallbacks =
+            new CopyOnWriteArrayList<>();
 
     private Handler handler;
     private Runnable runnable;
@@ -102,6 +126,8 @@ public class DeviceService extends Service {
     private final FPS coilDataCountPerSecond = new FPS();
     private final FPS probeDataCountPerSecond = new FPS();
 
+    // Data of onDataReceived() is reused for the next notification of the device, so
+    // it is copied if it is kept beyond the call
     public interface ServiceCallback {
         void onScanResult(DeviceInfo deviceInfo, int rssi);
         void onDataReceived(DeviceInfo deviceInfo, Object data, Object extra);
@@ -110,6 +136,97 @@ public class DeviceService extends Service {
         void onTimerExpired(DeviceInfo deviceInfo);
     }
 
+    // Callback running the callbacks of a listener on a thread of its own, so that a
+    // slow listener does not hold up the Bluetooth thread, data of each notification is
+    // copied as it is reused, data is dropped from the oldest once the listener falls
+    // behind by the capacity, only the latest scan result of each device and the latest
+    // timer tick are kept, and coil states and connection events are never dropped
+    public static class AsyncServiceCallback implements ServiceCallback {
+        private static final Object TIMER_KEY = new Object();
+
+        private final ServiceCallback callback;
+        private final CallbackExecutor executor;
+
+        public AsyncServiceCallback(ServiceCallback callback, int capacity) {
+            this.callback = callback;
+
+            executor = new CallbackExecutor(TAG + "Callback", capacity);
+            executor.start();
+        }
+
+        // Stop the thread of the listener once it is unregistered
+        public void quit() {
+            executor.quit();
+        }
+
+        @Override
+        public void onScanResult(DeviceInfo deviceInfo, int rssi) {
+            executor.execute(deviceInfo.getAddress(),
+                    () -> callback.onScanResult(deviceInfo, rssi));
+        }
+
+        @Override
+        public void onDataReceived(DeviceInfo deviceInfo, Object data, Object extra) {
+            Object dataCopy = copyData(data);
+            Object extraCopy = copyData(extra);
+
+            // A coil state confirms a coil switch of the coil device, which is not
+            // reported again, so it is never dropped
+            if (data instanceof CoilStateData)
+                executor.executeReliably(
+                        () -> callback.onDataReceived(deviceInfo, dataCopy, extraCopy));
+            else
+                executor.execute(
+                        () -> callback.onDataReceived(deviceInfo, dataCopy, extraCopy));
+        }
+
+        @Override
+        public void onDeviceConnected(DeviceInfo deviceInfo) {
+            executor.executeReliably(() -> callback.onDeviceConnected(deviceInfo));
+        }
+
+        @Override
+        public void onDeviceDisconnected(DeviceInfo deviceInfo) {
+            executor.executeReliably(() -> callback.onDeviceDisconnected(deviceInfo));
+        }
+
+        @Override
+        public void onTimerExpired(DeviceInfo deviceInfo) {
+            executor.execute(TIMER_KEY, () -> callback.onTimerExpired(deviceInfo));
+        }
+    }
+
+    // Copy of data or extra data of onDataReceived() to keep beyond the call, such as
+    // for a callback posted to another thread
+    public static Object copyData(Object data) {
+        if (data instanceof ImuData) {
+            ImuData value = (ImuData)data;
+
+            return new ImuData(value.mx, value.my, value.mz,
+                    value.gx, value.gy, value.gz);
+        } else if (data instanceof CoilStateData) {
+            CoilStateData value = (CoilStateData)data;
+
+            return new CoilStateData(value.sequence, value.step, value.cycle,
+                    value.gpio1, value.gpio2, value.gpio3);
+        } else if (data instanceof GpioData) {
+            GpioData value = (GpioData)data;
+
+            return new GpioData(value.gpio1, value.gpio2, value.gpio3);
+        } else if (data instanceof ExtraData) {
+            ExtraData value = (ExtraData)data;
+            ExtraData copy = new ExtraData(value.powerDown);
+
+            copy.sequence = value.sequence;
+            copy.deviceTime = value.deviceTime;
+            copy.sampleTime = value.sampleTime;
+
+            return copy;
+        }
+
+        return data;
+    }
+
     public static class ImuData {
         public float mx, my, mz, gx, gy, gz;
 
@@ -161,15 +278,42 @@ public class DeviceService extends Service {
         }
     }
 
+    // Coil state switched by the coil device cycling through an uploaded sequence
+    public static class CoilStateData extends GpioData {
+        public long sequence;
+        public int step;
+        public int cycle;
+
+        public CoilStateData(long sequence, int step, int cycle,
+                             boolean gpio1, boolean gpio2, boolean gpio3) {
+            super(gpio1, gpio2, gpio3);
+
+            this.sequence = sequence;
+            this.step = step;
+            this.cycle = cycle;
+        }
+    }
+
     public static class ExtraData {
         public boolean powerDown;
+        // Sequence number and device time in microseconds of binary frames, -1 for
+        // text frames
+        public long sequence;
+        public long deviceTime;
+        // Time of System.nanoTime() the sample was taken, estimated from arrival of its
+        // notification and device times of samples batched in the notification, or the
+        // time a coil state was switched, estimated from its device time by the clock
+        // of the coil device or its arrival time for text frames
+        public long sampleTime;
 
         public ExtraData() {
-            powerDown = false;
+            this(false);
         }
 
         public ExtraData(boolean powerDown) {
             this.powerDown = powerDown;
+            sequence = -1;
+            deviceTime = -1;
         }
     }
 
@@ -220,7 +364,6 @@ public class DeviceService extends Service {
         Log.d(TAG, "onCreate()");
 
         serviceBinder = new ServiceBinder();
-        serviceCallbacks = new ArrayList<>();
 
         // Setup timer
         handler = new Handler();
@@ -229,12 +372,11 @@ public class DeviceService extends Service {
             public void run() {
                 long startTime = System.currentTimeMillis();
 
-                synchronized (serviceCallbackMutex) {
-                    for (ServiceCallback serviceCallback : serviceCallbacks) {
-                        if (serviceCallback == null)
-                            continue;
-
+                for (ServiceCallback serviceCallback : serviceCallbacks) {
+                    try {
                         serviceCallback.onTimerExpired(null);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to handle timer: " + e.getMessage());
                     }
                 }
 
@@ -288,44 +430,25 @@ public class DeviceService extends Service {
         return super.onUnbind(intent);
     }
 
-    public synchronized boolean registerCallback(ServiceCallback callback) {
-        if (serviceCallbacks.contains(callback))
-            return true;
-        else {
-            boolean ret;
-
-            synchronized (serviceCallbackMutex) {
-                ret = serviceCallbacks.add(callback);
-            }
-
-            if (!ret) {
-                Log.e(TAG, "Failed to register callback (" + callback + ")");
-                return false;
-            }
+    public boolean registerCallback(ServiceCallback callback) {
+        if (callback == null) {
+            Log.e(TAG, "Failed to register callback (" + callback + ")");
+            return false;
         }
 
+        // A callback registered before is kept as is
+        serviceCallbacks.addIfAbsent(callback);
+
         // Log.d(TAG, "Callback has been registered (" + callback + ")");
 
         return true;
     }
 
-    public synchronized boolean unregisterCallback(ServiceCallback callback) {
-        if (!serviceCallbacks.contains(callback)) {
+    public boolean unregisterCallback(ServiceCallback callback) {
+        if (!serviceCallbacks.remove(callback)) {
             Log.e(TAG, "Callback had not been registered before (" + callback + ")");
             return false;
         }
-        else {
-            boolean ret;
-
-            synchronized (serviceCallbackMutex) {
-                ret = serviceCallbacks.remove(callback);
-            }
-
-            if (!ret) {
-                Log.e(TAG, "Failed to unregister callback (" + callback + ")");
-                return false;
-            }
-        }
 
         // Log.d(TAG, "Callback has been unregistered (" + callback + ")");
 
@@ -481,43 +604,94 @@ public class DeviceService extends Service {
         deviceMaps.clear();
     }
 
+    // Queue a write to the device, it is sent once writes queued before it complete,
+    // return false if the device is not ready for data transfer
     public boolean writeDevice(String address, byte[] data) {
         if (!checkPermission())
             return false;
 
         DeviceStruct deviceStruct = getDeviceStruct(address);
 
-        if (deviceStruct == null || deviceStruct.characteristicTransfer == null ||
-            deviceStruct.waitCharacteristicTransferResponse)
+        if (deviceStruct == null || deviceStruct.characteristicTransfer == null)
             return false;
 
-        BluetoothGatt gatt = deviceStruct.gatt;
-        BluetoothDevice device = gatt.getDevice();
-        BluetoothGattCharacteristic characteristic = deviceStruct.characteristicTransfer;
+        if (getConnectionState(deviceStruct.gatt.getDevice()) !=
+                ConnectionState.DATA_TRANSFER_ENABLED)
+            return false;
+
+        return queueWrite(deviceStruct, data);
+    }
 
-        int properties = characteristic.getProperties();
+    private boolean queueWrite(DeviceStruct deviceStruct, byte[] data) {
+        int properties = deviceStruct.characteristicTransfer.getProperties();
 
         // Check properties for write attribute
         if ((properties & (BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE |
                 BluetoothGattCharacteristic.PROPERTY_WRITE)) == 0)
             return false;
 
-        if (getConnectionState(device) != ConnectionState.DATA_TRANSFER_ENABLED)
-            return false;
+        // A pending write of the same command is superseded, such as a coil switch
+        // requested before the previous one completes
+        deviceStruct.writeQueue.offer(data,
+                InputOutputFormatter.extractCommandName(data), System.nanoTime());
 
-        characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        sendNextWrite(deviceStruct);
 
-        if (!characteristic.setValue(data))
-            return false;
+        return true;
+    }
 
-        deviceStruct.waitCharacteristicTransferResponse = true;
+    private void sendNextWrite(DeviceStruct deviceStruct) {
+        DeviceWriteQueue.Command command = deviceStruct.writeQueue.next();
 
-        if (!gatt.writeCharacteristic(deviceStruct.characteristicTransfer)) {
-            deviceStruct.waitCharacteristicTransferResponse = false;
-            return false;
+        if (command == null)
+            return;
+
+        if (writeCharacteristic(deviceStruct, command.data))
+            return;
+
+        BluetoothDevice device = deviceStruct.gatt.getDevice();
+
+        // GATT fails a write while it is busy with another operation, such as a
+        // request of connection priority, so the write is sent again shortly
+        if (command.attempts < WRITE_RETRY_LIMIT) {
+            deviceStruct.writeQueue.retry(command);
+            handler.postDelayed(() -> sendNextWrite(deviceStruct), WRITE_RETRY_DELAY);
+            return;
         }
 
-        return true;
+        deviceStruct.writeQueue.discard(command);
+
+        Log.e(TAG, "Failed to write " + new String(command.data) +
+                " (address: " + device.getAddress() + ")");
+
+        // The device keeps sending text frames without the request for binary frames
+        if (getConnectionState(device) == ConnectionState.FRAME_FORMAT_REQUESTED) {
+            Log.e(TAG, "Failed to request binary frames" +
+                    " (address: " + device.getAddress() + ")");
+
+            enableDataTransfer(deviceStruct.gatt, ConnectionState.FRAME_FORMAT_REQUESTED);
+        }
+
+        sendNextWrite(deviceStruct);
+    }
+
+    private boolean writeCharacteristic(DeviceStruct deviceStruct, byte[] data) {
+        BluetoothGatt gatt = deviceStruct.gatt;
+        BluetoothGattCharacteristic characteristic = deviceStruct.characteristicTransfer;
+
+        // Write without response when the device takes it, so that a write completes
+        // once it is sent instead of a round trip for response, the stack still calls
+        // onCharacteristicWrite() for the next write in either way
+        if ((characteristic.getProperties() &
+                BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0)
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        else
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+
+        if (!characteristic.setValue(data))
+            return false;
+
+        return gatt.writeCharacteristic(characteristic);
     }
 
     public boolean checkPermission() {
@@ -536,16 +710,17 @@ public class DeviceService extends Service {
 
         BluetoothDevice device = gatt.getDevice();
         setConnectionState(device, null, ConnectionState.CHANNEL_DISCONNECTED);
+        deviceStruct.writeQueue.clear();
+        deviceStruct.deviceClock.reset();
         if (removeDeviceMap)
             removeDeviceStruct(device);
 
-        synchronized (serviceCallbackMutex) {
-            for (ServiceCallback serviceCallback : serviceCallbacks) {
-                if (serviceCallback == null)
-                    continue;
-
+        for (ServiceCallback serviceCallback : serviceCallbacks) {
+            try {
                 serviceCallback.onDeviceDisconnected(new DeviceInfo(
                         getDeviceType(device), device));
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to handle disconnection: " + e.getMessage());
             }
         }
 
@@ -578,6 +753,32 @@ public class DeviceService extends Service {
         return true;
     }
 
+    private void enableDataTransfer(BluetoothGatt gatt, ConnectionState expectedState) {
+        BluetoothDevice device = gatt.getDevice();
+
+        if (!setConnectionState(device, expectedState, ConnectionState.DATA_TRANSFER_ENABLED)) {
+            gatt.disconnect();
+            return;
+        }
+
+        if (getDeviceType(device) == DeviceInfo.DeviceType.Coil) {
+            coilDataCountPerSecond.start();
+        } else if (getDeviceType(device) == DeviceInfo.DeviceType.Probe) {
+            probeDataCountPerSecond.start();
+        }
+
+        // Last step configuration of device completed, the device can transmit
+        // data to host now
+        for (ServiceCallback serviceCallback : serviceCallbacks) {
+            try {
+                serviceCallback.onDeviceConnected(new DeviceInfo(
+                        getDeviceType(device), device));
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to handle connection: " + e.getMessage());
+            }
+        }
+    }
+
     private ConnectionState getConnectionState(BluetoothDevice device) {
         DeviceStruct deviceStruct = getDeviceStruct(device);
 
@@ -922,10 +1123,35 @@ public class DeviceService extends Service {
                 return;
             }
 
-            if (getConnectionState(device) != ConnectionState.DATA_TRANSFER_ENABLED)
-                return;
+            long time = System.nanoTime();
+            long latency = deviceStruct.writeQueue.complete(time);
+
+            // Only a write with response is acknowledged by the device, a round trip of
+            // the link, a write without response completes once it is sent
+            if (characteristic.getWriteType() ==
+                    BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT)
+                deviceStruct.deviceClock.updateRoundTrip(latency);
+
+            if (latency / 1000000 >= WRITE_LATENCY_WARNING)
+                Log.w(TAG, "Write completed in " + latency / 1000000 + "ms" +
+                        " (address: " + device.getAddress() +
+                        ", remaining: " + deviceStruct.writeQueue.size() + ")");
+
+            if (deviceStruct.writeQueue.signalReport(time)) {
+                Log.d(TAG, getDeviceType(device) + " write latency: average " +
+                        new DecimalFormat("0.0").format(
+                                deviceStruct.writeQueue.getAverageLatency()) + "ms" +
+                        ", maximum " + new DecimalFormat("0.0").format(
+                                deviceStruct.writeQueue.getMaximumLatency()) + "ms" +
+                        ", writes: " + deviceStruct.writeQueue.getWriteCount() +
+                        ", coalesced: " + deviceStruct.writeQueue.getCoalescedCount());
+            }
 
-            deviceStruct.waitCharacteristicTransferResponse = false;
+            // Response to the request for binary frames completes the connection
+            if (getConnectionState(device) == ConnectionState.FRAME_FORMAT_REQUESTED)
+                enableDataTransfer(gatt, ConnectionState.FRAME_FORMAT_REQUESTED);
+
+            sendNextWrite(deviceStruct);
         }
 
 
@@ -990,30 +1216,37 @@ public class DeviceService extends Service {
             Log.d(TAG, "MTU set to " + mtu +
                     " (address: " + device.getAddress() + ")");
 
-            if (!setConnectionState(device,
-                    ConnectionState.NOTIFICATION_ENABLED,
-                    ConnectionState.DATA_TRANSFER_ENABLED)) {
-                gatt.disconnect();
-                return;
-            }
-
-            if (getDeviceType(device) == DeviceInfo.DeviceType.Coil) {
-                coilDataCountPerSecond.start();
-            } else if (getDeviceType(device) == DeviceInfo.DeviceType.Probe) {
-                probeDataCountPerSecond.start();
-            }
+            // Shorten connection interval for a higher rate of notifications
+            if (!gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH))
+                Log.e(TAG, "Failed to request high connection priority" +
+                        " (address: " + device.getAddress() + ")");
 
-            synchronized (serviceCallbackMutex) {
-                // Last step configuration of device completed, the device can transmit
-                // data to host now
-                for (ServiceCallback serviceCallback : serviceCallbacks) {
-                    if (serviceCallback == null)
-                        continue;
+            DeviceStruct deviceStruct = getDeviceStruct(device);
 
-                    serviceCallback.onDeviceConnected(new DeviceInfo(
-                            getDeviceType(device), device));
+            // Request binary frames before data transfer, the device keeps sending text
+            // frames if it does not take the request
+            if (AppConfig.DeviceBinaryFrames && deviceStruct != null &&
+                    deviceStruct.characteristicTransfer != null) {
+                if (!setConnectionState(device,
+                        ConnectionState.NOTIFICATION_ENABLED,
+                        ConnectionState.FRAME_FORMAT_REQUESTED)) {
+                    gatt.disconnect();
+                    return;
                 }
+
+                if (queueWrite(deviceStruct, InputOutputFormatter
+                        .insertFrameFormatData(InputOutputFormatter.FRAME_VERSION)
+                        .getBytes()))
+                    return;
+
+                Log.e(TAG, "Failed to request binary frames" +
+                        " (address: " + device.getAddress() + ")");
+
+                enableDataTransfer(gatt, ConnectionState.FRAME_FORMAT_REQUESTED);
+                return;
             }
+
+            enableDataTransfer(gatt, ConnectionState.NOTIFICATION_ENABLED);
         }
 
         @Override
@@ -1028,70 +1261,124 @@ public class DeviceService extends Service {
                     UUID.fromString(DEVICE_CHARACTERISTIC_UUID_UART_TX).toString()))
                 return;
 
-            if (getConnectionState(device) != ConnectionState.DATA_TRANSFER_ENABLED)
+            DeviceStruct deviceStruct = getDeviceStruct(device);
+
+            if (deviceStruct == null)
+                return;
+
+            // Get received data, parsed from its bytes into data of the device
+            byte[] message = characteristic.getValue();
+
+            if (message == null)
+                return;
+
+            // Log.d(TAG, new String(message));
+
+            // Reply of the device to the request for binary frames
+            int frameVersion = deviceStruct.parser.parseFrameFormatData(message);
+
+            if (frameVersion >= 0) {
+                Log.d(TAG, "Frame format " + (frameVersion > 0 ?
+                        "binary version " + frameVersion : "text") +
+                        " (address: " + device.getAddress() + ")");
+                return;
+            }
+
+            if (deviceStruct.connectionState != ConnectionState.DATA_TRANSFER_ENABLED)
                 return;
 
-            // Get received data
-            String message = characteristic.getStringValue(0);
+            // Device type and name are looked up once for all notifications
+            if (deviceStruct.deviceInfo == null)
+                deviceStruct.deviceInfo = new DeviceInfo(getDeviceType(device), device);
 
-            // Log.d(TAG, message);
+            DeviceInfo deviceInfo = deviceStruct.deviceInfo;
 
-            if (getDeviceType(device) == DeviceInfo.DeviceType.Coil) {
+            if (deviceInfo.getType() == DeviceInfo.DeviceType.Coil) {
                 if (coilDataCountPerSecond.signalDataReceived()) {
                     Log.d(TAG, "Coil message count per second: " +
                             coilDataCountPerSecond.getValue());
                 }
 
-                List<String> args = InputOutputFormatter.extractGpioControlData(message);
+                GpioData gpioData;
 
-                if (args == null) {
-                    Log.e(TAG, "Failed to extract received data: " + message);
+                if (deviceStruct.parser.parseCoilStateData(message,
+                        deviceStruct.coilStateData)) {
+                    // Coil state switched by the coil device cycling by itself
+                    gpioData = deviceStruct.coilStateData;
+                } else if (deviceStruct.parser.parseGpioControlData(message,
+                        deviceStruct.gpioData)) {
+                    gpioData = deviceStruct.gpioData;
+                } else {
+                    Log.e(TAG, "Failed to extract received data: " + new String(message));
                     return;
                 }
 
-                synchronized (serviceCallbackMutex) {
-                    for (ServiceCallback serviceCallback : serviceCallbacks) {
-                        if (serviceCallback == null)
-                            continue;
-
-                        serviceCallback.onDataReceived(
-                                new DeviceInfo(getDeviceType(device), device),
-                                new GpioData(args.get(0).equals("1"),   // GPIO input 0
-                                        args.get(1).equals("1"),        // GPIO input 1
-                                        args.get(2).equals("1")),       // GPIO input 2
-                                null);
+                ExtraData extraData = deviceStruct.extraData;
+                long arrivalTime = System.nanoTime();
+
+                // Coil states of binary frames are switched at their device time, which
+                // is before their arrival by the latency of the link
+                boolean isFrame = InputOutputFormatter.isFrame(message, 0);
+
+                extraData.sequence = isFrame ?
+                        InputOutputFormatter.getFrameSequence(message, 0) : -1;
+                extraData.deviceTime = isFrame ?
+                        InputOutputFormatter.getFrameTime(message, 0) : -1;
+                extraData.sampleTime = extraData.deviceTime < 0 ? arrivalTime :
+                        deviceStruct.deviceClock.getLocalTime(extraData.deviceTime,
+                                arrivalTime);
+
+                for (ServiceCallback serviceCallback : serviceCallbacks) {
+                    try {
+                        serviceCallback.onDataReceived(deviceInfo,
+                                gpioData,       // GPIO states of coil switch
+                                extraData);     // Arrival time
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to handle received data: " + e.getMessage());
                     }
                 }
-            } else if (getDeviceType(device) == DeviceInfo.DeviceType.Probe) {
+            } else if (deviceInfo.getType() == DeviceInfo.DeviceType.Probe) {
                 if (probeDataCountPerSecond.signalDataReceived()) {
                     Log.d(TAG, "Probe message count per second: " +
                             probeDataCountPerSecond.getValue());
                 }
 
-                List<String> args = InputOutputFormatter.extractSensorData(message);
+                long arrivalTime = System.nanoTime();
+                int count = deviceStruct.parser.getSensorDataCount(message);
 
-                if (args == null) {
-                    Log.e(TAG, "Failed to extract received data: " + message);
+                if (count == 0) {
+                    Log.e(TAG, "Failed to extract received data: " + new String(message));
                     return;
                 }
 
-                synchronized (serviceCallbackMutex) {
-                    for (ServiceCallback serviceCallback : serviceCallbacks) {
-                        if (serviceCallback == null)
-                            continue;
+                // Samples batched in a notification are taken before its arrival by the
+                // device time after each of them up to the last one
+                long lastDeviceTime = InputOutputFormatter.isFrame(message, 0) ?
+                        InputOutputFormatter.getFrameTime(message,
+                                (count - 1) * InputOutputFormatter.SENSOR_FRAME_SIZE) : 0;
 
+                for (int i = 0; i < count; i++) {
+                    ExtraData extraData = deviceStruct.extraData;
+
+                    if (!deviceStruct.parser.parseSensorData(message, i,
+                            deviceStruct.imuData, extraData)) {
+                        Log.e(TAG, "Failed to extract sample " + i + " of " + count +
+                                " in received data");
+                        continue;
+                    }
+
+                    extraData.sampleTime = extraData.deviceTime < 0 ? arrivalTime :
+                            arrivalTime - ((lastDeviceTime - extraData.deviceTime) &
+                                    0xffffffffL) * 1000;
+
+                    for (ServiceCallback serviceCallback : serviceCallbacks) {
                         try {
-                            serviceCallback.onDataReceived(
-                                    new DeviceInfo(getDeviceType(device), device),
-                                    new ImuData(Float.parseFloat(args.get(0)),  // Magnetometer X
-                                            Float.parseFloat(args.get(1)),      // Magnetometer Y
-                                            Float.parseFloat(args.get(2)),      // Magnetometer Z
-                                            Float.parseFloat(args.get(3)),      // Accelerometer X
-                                            Float.parseFloat(args.get(4)),      // Accelerometer Y
-                                            Float.parseFloat(args.get(5))),     // Accelerometer Z
-                                    new ExtraData(args.get(6).equals("1")));    // Power down state
+                            serviceCallback.onDataReceived(deviceInfo,
+                                    deviceStruct.imuData,   // Magnetometer and accelerometer
+                                    extraData);             // Power down state
                         } catch (Exception e) {
-                            Log.e(TAG, "Invalid argument in received data: " + message);
+                            Log.e(TAG, "Failed to handle received data: " +
+                                    e.getMessage());
                         }
                     }
                 }
@@ -1106,13 +1393,12 @@ public class DeviceService extends Service {
 
             BluetoothDevice device = result.getDevice();
 
-            synchronized (serviceCallbackMutex) {
-                for (ServiceCallback serviceCallback : serviceCallbacks) {
-                    if (serviceCallback == null)
-                        continue;
-
+            for (ServiceCallback serviceCallback : serviceCallbacks) {
+                try {
                     serviceCallback.onScanResult(new DeviceInfo(
                             getDeviceType(device), device), result.getRssi());
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to handle scan result: " + e.getMessage());
                 }
             }
         }
@@ -0,0 +1,159 @@
+package com.ultrasoundprobe.probeview.device;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+// Queue of writes to a device, one write is in flight at a time as GATT takes one
+// operation at a time, and a pending write of a command is superseded by a later
+// write of the same command as each command sets a state of the device
+class DeviceWriteQueue {
+    // Period of latency statistics in nanoseconds
+    private static final long REPORT_PERIOD = 1000000000L;
+
+    static class Command {
+        final byte[] data;
+        final String name;
+        final long queueTime;
+        int attempts;
+
+        Command(byte[] data, String name, long queueTime) {
+            this.data = data;
+            this.name = name;
+            this.queueTime = queueTime;
+        }
+    }
+
+    private final ArrayDeque<Command> commands = new ArrayDeque<>();
+    private Command commandInFlight;
+
+    // Latency statistics of completed writes since the last report
+    private long reportTime = -1;
+    private int writeCount;
+    private int coalescedCount;
+    private long totalLatency;
+    private long maxLatency;
+
+    private float averageLatency;
+    private float maximumLatency;
+    private int reportedWriteCount;
+    private int reportedCoalescedCount;
+
+    // Queue a write of a command at a time of System.nanoTime(), a pending write of
+    // the same command is removed and the new write takes the end of the queue so that
+    // it keeps its order after other commands, a command without name is never
+    // superseded
+    synchronized void offer(byte[] data, String name, long time) {
+        if (name != null) {
+            Iterator<Command> iterator = commands.iterator();
+
+            while (iterator.hasNext()) {
+                if (name.equals(iterator.next().name)) {
+                    iterator.remove();
+                    coalescedCount++;
+                }
+            }
+        }
+
+        commands.add(new Command(data, name, time));
+    }
+
+    // Take the next write to send, null if a write is in flight or none is pending
+    synchronized Command next() {
+        if (commandInFlight != null || commands.isEmpty())
+            return null;
+
+        commandInFlight = commands.poll();
+        commandInFlight.attempts++;
+
+        return commandInFlight;
+    }
+
+    // Put back the write in flight which could not be sent, it is sent first again
+    // unless it is superseded meanwhile
+    synchronized void retry(Command command) {
+        if (commandInFlight != command)
+            return;
+
+        commandInFlight = null;
+
+        for (Command pending : commands) {
+            if (command.name != null && command.name.equals(pending.name)) {
+                coalescedCount++;
+                return;
+            }
+        }
+
+        commands.addFirst(command);
+    }
+
+    // Give up the write in flight which could not be sent
+    synchronized void discard(Command command) {
+        if (commandInFlight == command)
+            commandInFlight = null;
+    }
+
+    // Complete the write in flight at a time of System.nanoTime(), return its latency
+    // from being queued in nanoseconds, or -1 if no write is in flight
+    synchronized long complete(long time) {
+        if (commandInFlight == null)
+            return -1;
+
+        long latency = time - commandInFlight.queueTime;
+
+        commandInFlight = null;
+        writeCount++;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+
+        return latency;
+    }
+
+    // Return true once a report period with latency statistics of the period, taken
+    // by the getters below
+    synchronized boolean signalReport(long time) {
+        if (reportTime < 0)
+            reportTime = time;
+
+        if (time - reportTime < REPORT_PERIOD || writeCount == 0)
+            return false;
+
+        averageLatency = (float)totalLatency / writeCount / 1e6f;
+        maximumLatency = maxLatency / 1e6f;
+        reportedWriteCount = writeCount;
+        reportedCoalescedCount = coalescedCount;
+
+        reportTime = time;
+        writeCount = 0;
+        coalescedCount = 0;
+        totalLatency = 0;
+        maxLatency = 0;
+
+        return true;
+    }
+
+    // Average and maximum latency in milliseconds
+    synchronized float getAverageLatency() {
+        return averageLatency;
+    }
+
+    synchronized float getMaximumLatency() {
+        return maximumLatency;
+    }
+
+    synchronized int getWriteCount() {
+        return reportedWriteCount;
+    }
+
+    synchronized int getCoalescedCount() {
+        return reportedCoalescedCount;
+    }
+
+    synchronized int size() {
+        return commands.size() + (commandInFlight != null ? 1 : 0);
+    }
+
+    synchronized void clear() {
+        commands.clear();
+        commandInFlight = null;
+    }
+}
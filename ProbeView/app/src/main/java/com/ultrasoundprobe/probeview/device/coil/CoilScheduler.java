@@ -0,0 +1,417 @@
+package com.ultrasoundprobe.probeview.device.coil;
+
+import android.util.Log;
+
+import com.ultrasoundprobe.probeview.AppConfig;
+import com.ultrasoundprobe.probeview.device.DeviceService;
+import com.ultrasoundprobe.probeview.format.InputOutputFormatter;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Drive the coil sequence by a timer instead of arrival of IMU data, coil switches are
+// requested at a fixed period on a thread of their own, or the coil device cycles
+// through an uploaded sequence by itself and reports each coil state, and samples of
+// IMU data are tagged by the coil state scheduled at their timestamps and taken once
+// the confirmed coil switch settles
+public class CoilScheduler {
+    private static final String TAG = "CoilScheduler";
+
+    // Number of latest steps kept for samples tagged later than their arrival
+    private static final int HISTORY_LENGTH = 8;
+
+    // Number of coil cycles without any coil state from the coil device before the
+    // timer drives the coil sequence instead
+    private static final int FIRMWARE_TIMEOUT_CYCLES = 2;
+
+    // Link to the coil device, a connected coil device or a simulator of it
+    public interface CoilDevice {
+        boolean write(byte[] data);
+    }
+
+    private final CoilSwitch coilSwitch;
+    private final CoilSequence coilSequence;
+    private final int stepPeriod;
+    private final long coilControlStepPeriod;
+    private final long coilControlSettleGuard;
+    private final long coilControlSwitchTimeout;
+
+    private ScheduledExecutorService executor = null;
+    private CoilDevice coilDevice;
+    private boolean isDebug = false;
+    private boolean isFirmwareSequence = false;
+    private boolean isTimerEnabled = true;
+
+    // Steps scheduled so far with their coil states, cycles and start times in a ring,
+    // written by the scheduler thread or by coil states from the coil device, steps of
+    // coil states from the coil device are confirmed by them
+    private final int[] historyIndex = new int[HISTORY_LENGTH];
+    private final int[] historyCycle = new int[HISTORY_LENGTH];
+    private final long[] historyTime = new long[HISTORY_LENGTH];
+    private final boolean[] historyConfirmed = new boolean[HISTORY_LENGTH];
+    private long stepCount;
+    private boolean firmwareRunning;
+    private long lastSequence;
+
+    // Latest step with its coil switch confirmed by a sample, written by the thread
+    // tagging samples for the scheduler thread to retry those not confirmed
+    private volatile long confirmedStep;
+
+    // State of the scheduler thread
+    private int coilIndex;
+    private int coilCycle;
+    private long startTime;
+    private long maxLateness;
+
+    // State of the thread tagging samples, the step of samples in the accumulator
+    private final SampleAccumulator sampleAccumulator = new SampleAccumulator(
+            AppConfig.CoilControlSampleCount, AppConfig.CoilControlSampleStatistic);
+    private final SettleDetector settleDetector = new SettleDetector(
+            AppConfig.CoilControlSettleWindow, AppConfig.CoilControlSettleThreshold);
+    private long sampleStep;
+    private int sampleIndex;
+    private int sampleCycle;
+    private long sampleSwitchTime;
+    private long sampleTime;
+    private boolean sampleReady;
+    private boolean sampleStored;
+    private volatile boolean resetPending = false;
+
+    public CoilScheduler(CoilSwitch coilSwitch) {
+        this(coilSwitch, AppConfig.CoilControlStepPeriod, AppConfig.CoilControlSettleGuard);
+    }
+
+    // Period of each coil state and time after each coil switch before samples of IMU
+    // data are taken, in milliseconds
+    public CoilScheduler(CoilSwitch coilSwitch, int stepPeriod, int settleGuard) {
+        this.coilSwitch = coilSwitch;
+        this.coilSequence = coilSwitch.getCoilSequence();
+        this.stepPeriod = stepPeriod;
+        this.coilControlStepPeriod = stepPeriod * 1000000L;
+        this.coilControlSettleGuard = settleGuard * 1000000L;
+        // Coil switch not confirmed is requested again within the settle guard, so that
+        // the step still has time to settle after it
+        this.coilControlSwitchTimeout = Math.min(
+                AppConfig.CoilControlSwitchTimeout * 1000000L, coilControlSettleGuard / 2);
+    }
+
+    public void setDebug(boolean enable) {
+        isDebug = enable;
+    }
+
+    // Upload the coil sequence to the coil device on start so that it cycles by itself
+    // and reports each coil state, instead of a request for each coil switch
+    public synchronized void setFirmwareSequence(boolean enable) {
+        isFirmwareSequence = enable;
+    }
+
+    // Switch coils on the timer, or only on calls to switchCoil() and retrySwitch() as
+    // tests on a simulated clock do
+    synchronized void setTimerEnabled(boolean enable) {
+        isTimerEnabled = enable;
+    }
+
+    // Start the coil sequence from its first coil state
+    public synchronized void start(DeviceService deviceService, String connectedCoilAddress) {
+        start(data -> deviceService.writeDevice(connectedCoilAddress, data));
+    }
+
+    public synchronized void start(CoilDevice coilDevice) {
+        stop();
+
+        this.coilDevice = coilDevice;
+
+        coilIndex = -1;
+        coilCycle = 0;
+        stepCount = 0;
+        maxLateness = 0;
+        firmwareRunning = false;
+        confirmedStep = -1;
+
+        // IMU data of coil switch is reset by the thread tagging samples
+        resetPending = true;
+
+        executor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, TAG));
+
+        if (isFirmwareSequence && coilDevice.write(InputOutputFormatter
+                .insertCoilSequenceData(coilSequence, stepPeriod).getBytes())) {
+            firmwareRunning = true;
+
+            // Fall back to the timer if the coil device does not cycle by itself
+            executor.schedule(this::checkFirmwareSequence,
+                    FIRMWARE_TIMEOUT_CYCLES * coilSequence.getLength() * coilControlStepPeriod,
+                    TimeUnit.NANOSECONDS);
+
+            Log.d(TAG, "Upload coil sequence with " + stepPeriod + "ms for each coil state");
+            return;
+        }
+
+        startTimer();
+    }
+
+    public synchronized void stop() {
+        if (executor == null)
+            return;
+
+        executor.shutdownNow();
+        executor = null;
+
+        // Stop the coil device cycling by itself
+        if (firmwareRunning) {
+            firmwareRunning = false;
+            coilDevice.write(InputOutputFormatter
+                    .insertGpioControlData(false, false, false).getBytes());
+        }
+
+        Log.d(TAG, "Stop coil sequence");
+    }
+
+    public synchronized boolean isRunning() {
+        return executor != null;
+    }
+
+    // Take a coil state switched by the coil device cycling by itself, along with the
+    // time of System.nanoTime() it switched, as estimated from its device time, or its
+    // arrival time without one
+    public synchronized void onCoilStateReceived(DeviceService.CoilStateData state,
+                                                 long timestamp) {
+        if (!firmwareRunning)
+            return;
+
+        if (state.step < 0 || state.step >= coilSequence.getLength()) {
+            Log.e(TAG, "Invalid coil state " + state.step + " from coil device");
+            return;
+        }
+
+        // Samples of missing coil states are not taken as they are beyond the dwell
+        // time of the coil state before
+        if (isDebug && stepCount > 0 && state.sequence != lastSequence + 1)
+            Log.d(TAG, "Missing coil states from " + (lastSequence + 1) +
+                    " to " + (state.sequence - 1));
+
+        lastSequence = state.sequence;
+
+        addStep(state.step, state.cycle, timestamp, true);
+    }
+
+    // Tag a sample of IMU data by the coil state scheduled at its timestamp of
+    // System.nanoTime(), return IMU data of all coil states as CoilSwitch does once
+    // available, all calls are from one thread at a time
+    public DeviceService.ImuData[] getImuDataFromCoilSwitch(DeviceService.GpioData gpioData,
+                                                           DeviceService.ImuData imuData,
+                                                           long timestamp) {
+        if (resetPending) {
+            resetPending = false;
+            coilSwitch.resetCoilControl();
+            sampleAccumulator.reset();
+            sampleStep = -1;
+            sampleStored = false;
+        }
+
+        long step;
+        int index, cycle;
+        long time;
+        boolean confirmed;
+
+        synchronized (this) {
+            // Latest step started before the sample
+            step = stepCount - 1;
+
+            while (step >= 0 && step >= stepCount - HISTORY_LENGTH &&
+                    historyTime[(int)(step % HISTORY_LENGTH)] - timestamp > 0)
+                step--;
+
+            if (step < 0 || step < stepCount - HISTORY_LENGTH)
+                return null;
+
+            index = historyIndex[(int)(step % HISTORY_LENGTH)];
+            cycle = historyCycle[(int)(step % HISTORY_LENGTH)];
+            time = historyTime[(int)(step % HISTORY_LENGTH)];
+            confirmed = historyConfirmed[(int)(step % HISTORY_LENGTH)];
+        }
+
+        DeviceService.ImuData[] values = null;
+
+        // Samples of a new step complete the last step with the samples taken so far
+        if (step != sampleStep) {
+            values = storeImuData();
+
+            sampleAccumulator.reset();
+            settleDetector.reset();
+            sampleStep = step;
+            sampleIndex = index;
+            sampleCycle = cycle;
+            sampleSwitchTime = confirmed ? time : -1;
+            sampleReady = false;
+            sampleStored = false;
+        }
+
+        boolean[] gpioMap = coilSequence.getState(index);
+
+        // Samples before coil switch is confirmed by the coil device, or after the
+        // period of the step, are not taken, nor are those after the step is complete
+        if (timestamp - time >= coilControlStepPeriod || sampleStored ||
+                gpioMap[0] != gpioData.gpio1 ||
+                gpioMap[1] != gpioData.gpio2 ||
+                gpioMap[2] != gpioData.gpio3)
+            return values;
+
+        // Coil switch requested by the timer is confirmed by the first sample of its
+        // coil state, which is later than the request by the link to the coil device
+        if (sampleSwitchTime < 0) {
+            sampleSwitchTime = timestamp;
+            confirmedStep = step;
+
+            if (isDebug)
+                Log.d(TAG, "[Done] Switch to coil " + Arrays.toString(gpioMap) + " after " +
+                        (timestamp - time) / 1000 + "us");
+        }
+
+        if (!sampleReady) {
+            // Coil is ready once its IMU data settles, the settle guard after the
+            // confirmed switch is an upper bound then
+            if (AppConfig.CoilControlAdaptiveReadyTime && settleDetector.update(imuData)) {
+                // Samples of a settled window are settled as well
+                settleDetector.addTo(sampleAccumulator);
+                sampleReady = true;
+            } else if (timestamp - sampleSwitchTime >= coilControlSettleGuard) {
+                sampleAccumulator.add(imuData);
+                sampleReady = true;
+            } else
+                return values;
+
+            if (isDebug)
+                Log.d(TAG, "[Ready] Coil " + Arrays.toString(gpioMap) + " after " +
+                        (timestamp - sampleSwitchTime) / 1000 + "us");
+        } else
+            sampleAccumulator.add(imuData);
+
+        sampleTime = timestamp;
+
+        if (sampleAccumulator.isFull()) {
+            DeviceService.ImuData[] results = storeImuData();
+
+            if (results != null)
+                values = results;
+        }
+
+        return values;
+    }
+
+    private DeviceService.ImuData[] storeImuData() {
+        if (sampleStep < 0 || sampleStored || sampleAccumulator.getCount() == 0)
+            return null;
+
+        sampleStored = true;
+
+        boolean imuDataAvailable = coilSwitch.storeImuData(sampleIndex, sampleCycle,
+                sampleAccumulator, sampleTime);
+
+        if (isDebug)
+            Log.d(TAG, "[Stored] IMU data [" + coilSwitch.getImuData()[sampleIndex] +
+                    "] of " + sampleAccumulator.getCount() + " samples from coil " +
+                    Arrays.toString(coilSequence.getState(sampleIndex)));
+
+        return imuDataAvailable ? coilSwitch.getImuData() : null;
+    }
+
+    private synchronized void addStep(int index, int cycle, long time, boolean confirmed) {
+        int i = (int)(stepCount % HISTORY_LENGTH);
+
+        historyIndex[i] = index;
+        historyCycle[i] = cycle;
+        historyTime[i] = time;
+        historyConfirmed[i] = confirmed;
+        stepCount++;
+    }
+
+    private synchronized void checkFirmwareSequence() {
+        if (!firmwareRunning || stepCount > 0)
+            return;
+
+        Log.e(TAG, "No coil state from coil device, switch coils on request instead");
+
+        firmwareRunning = false;
+
+        startTimer();
+    }
+
+    private synchronized void startTimer() {
+        if (isTimerEnabled)
+            executor.scheduleAtFixedRate(() -> switchCoil(System.nanoTime()), 0,
+                    coilControlStepPeriod, TimeUnit.NANOSECONDS);
+
+        Log.d(TAG, "Start coil sequence with " + stepPeriod + "ms for each coil state");
+    }
+
+    // Request the coil switch of the next step at a time of System.nanoTime(), all calls
+    // are from the scheduler thread
+    void switchCoil(long time) {
+        // Next coil state of the sequence, skipping all-off states not taken in
+        // this cycle
+        do {
+            if (++coilIndex == coilSequence.getLength()) {
+                coilIndex = 0;
+                coilCycle++;
+            }
+        } while (coilSequence.isSkipped(coilIndex, coilCycle));
+
+        boolean[] gpioMap = coilSequence.getState(coilIndex);
+        String message = InputOutputFormatter.insertGpioControlData(
+                gpioMap[0],
+                gpioMap[1],
+                gpioMap[2]);
+
+        // Send a request for coil switch, the sequence moves on even if it fails and
+        // samples are not taken until the coil device confirms the switch
+        if (!coilDevice.write(message.getBytes()))
+            Log.e(TAG, "Cannot switch to coil " + Arrays.toString(gpioMap));
+
+        long count = stepCount;
+
+        addStep(coilIndex, coilCycle, time, false);
+
+        synchronized (this) {
+            // Request coil switch again if it is not confirmed in time
+            if (isTimerEnabled && executor != null)
+                executor.schedule(() -> retrySwitch(count), coilControlSwitchTimeout,
+                        TimeUnit.NANOSECONDS);
+        }
+
+        if (count == 0)
+            startTime = time;
+
+        // Lateness of the timer behind the deadline of the step
+        maxLateness = Math.max(maxLateness,
+                time - startTime - count * coilControlStepPeriod);
+
+        if (isDebug && coilIndex == 0) {
+            Log.d(TAG, "Cycle " + coilCycle + " started, maximum lateness " +
+                    maxLateness / 1000 + "us");
+            maxLateness = 0;
+        }
+    }
+
+    // Request the coil switch of a step again if it is still the latest step and no
+    // sample has confirmed it yet, as CoilSwitch does on timeout of a coil switch
+    void retrySwitch(long step) {
+        boolean[] gpioMap;
+
+        synchronized (this) {
+            if (executor == null || firmwareRunning || step != stepCount - 1 ||
+                    confirmedStep >= step)
+                return;
+
+            gpioMap = coilSequence.getState(historyIndex[(int)(step % HISTORY_LENGTH)]);
+        }
+
+        Log.e(TAG, "[Timeout] Switch to coil " + Arrays.toString(gpioMap) + ", try again");
+
+        if (!coilDevice.write(InputOutputFormatter.insertGpioControlData(
+                gpioMap[0], gpioMap[1], gpioMap[2]).getBytes()))
+            Log.e(TAG, "Cannot switch to coil " + Arrays.toString(gpioMap));
+    }
+}
@@ -0,0 +1,173 @@
+package com.ultrasoundprobe.probeview.device.coil;
+
+import java.util.Arrays;
+
+// Sequence of coil switch states in a coil cycle, such as "C1,OFF,C2,OFF,C3,OFF" with
+// an all-off state after each coil or "C1,C2,C3,OFF" with one all-off state shared by
+// all coils, along with slots of IMU data of active and inactive coils in the cycle
+public class CoilSequence {
+    public static final int COIL_COUNT = 3;
+
+    public static final String DEFAULT_SEQUENCE = "C1,OFF,C2,OFF,C3,OFF";
+
+    private static final String OFF_STATE = "OFF";
+    private static final String COIL_STATE = "C";
+
+    // GPIO states of coil switches of each step
+    private final boolean[][] states;
+    // Steps of IMU data of active coils in order of coils, and of inactive coils taken
+    // as background of each of them
+    private final int[] activeSlots;
+    private final int[] inactiveSlots;
+    // All-off states are taken every this number of cycles
+    private final int offInterval;
+
+    public CoilSequence(boolean[][] states, int[] activeSlots, int[] inactiveSlots,
+                        int offInterval) {
+        if (states.length == 0 || states.length > Integer.SIZE - 1)
+            throw new IllegalArgumentException("Invalid number of coil states " +
+                    states.length);
+        if (activeSlots.length != COIL_COUNT)
+            throw new IllegalArgumentException("Invalid number of active coils " +
+                    activeSlots.length);
+        if (offInterval < 1)
+            throw new IllegalArgumentException("Invalid interval of all-off state " +
+                    offInterval);
+
+        for (int slot : activeSlots) {
+            if (slot < 0 || slot >= states.length)
+                throw new IllegalArgumentException("Invalid slot of active coil " + slot);
+        }
+        for (int slot : inactiveSlots) {
+            if (slot < 0 || slot >= states.length)
+                throw new IllegalArgumentException("Invalid slot of inactive coil " + slot);
+        }
+
+        this.states = states;
+        this.activeSlots = activeSlots;
+        this.inactiveSlots = inactiveSlots;
+        this.offInterval = offInterval;
+    }
+
+    // Parse a sequence of "C1", "C2", "C3" and "OFF" separated by commas, each coil is
+    // taken once in a cycle and takes the first all-off state after it as background
+    public static CoilSequence parse(String sequence, int offInterval) {
+        String[] tokens = sequence.split(",");
+        boolean[][] states = new boolean[tokens.length][];
+        int[] activeSlots = new int[COIL_COUNT];
+        int[] inactiveSlots = new int[COIL_COUNT];
+        boolean hasOffState = false;
+
+        Arrays.fill(activeSlots, -1);
+
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i].trim().toUpperCase();
+
+            states[i] = new boolean[COIL_COUNT];
+
+            if (token.equals(OFF_STATE)) {
+                hasOffState = true;
+                continue;
+            }
+
+            int coil = -1;
+
+            if (token.startsWith(COIL_STATE)) {
+                try {
+                    coil = Integer.parseInt(token.substring(COIL_STATE.length())) - 1;
+                } catch (NumberFormatException e) {
+                    coil = -1;
+                }
+            }
+
+            if (coil < 0 || coil >= COIL_COUNT || activeSlots[coil] >= 0)
+                throw new IllegalArgumentException("Invalid coil state " + tokens[i] +
+                        " in sequence " + sequence);
+
+            states[i][coil] = true;
+            activeSlots[coil] = i;
+        }
+
+        for (int coil = 0; coil < COIL_COUNT; coil++) {
+            if (activeSlots[coil] < 0)
+                throw new IllegalArgumentException("Missing coil " + (coil + 1) +
+                        " in sequence " + sequence);
+
+            // First all-off state after the coil, wrapping around the cycle
+            for (int i = 1; hasOffState && i <= tokens.length; i++) {
+                int step = (activeSlots[coil] + i) % tokens.length;
+
+                if (isOffState(states[step])) {
+                    inactiveSlots[coil] = step;
+                    break;
+                }
+            }
+        }
+
+        return new CoilSequence(states, activeSlots,
+                hasOffState ? inactiveSlots : new int[0], offInterval);
+    }
+
+    public int getLength() {
+        return states.length;
+    }
+
+    public boolean[] getState(int step) {
+        return states[step];
+    }
+
+    public int getOffInterval() {
+        return offInterval;
+    }
+
+    public boolean isOffState(int step) {
+        return isOffState(states[step]);
+    }
+
+    // All-off states are skipped except in every interval of cycles
+    public boolean isSkipped(int step, int cycle) {
+        return isOffState(step) && cycle % offInterval != 0;
+    }
+
+    // Last step taken in a cycle
+    public boolean isLastStep(int step, int cycle) {
+        for (int i = step + 1; i < states.length; i++) {
+            if (!isSkipped(i, cycle))
+                return false;
+        }
+
+        return true;
+    }
+
+    public int[] getActiveSlots() {
+        return activeSlots;
+    }
+
+    // Empty for a sequence without all-off states
+    public int[] getInactiveSlots() {
+        return inactiveSlots;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < states.length; i++) {
+            if (i > 0)
+                builder.append(',');
+
+            builder.append(Arrays.toString(states[i]));
+        }
+
+        return builder + " (all-off every " + offInterval + " cycles)";
+    }
+
+    private static boolean isOffState(boolean[] state) {
+        for (boolean value : state) {
+            if (value)
+                return false;
+        }
+
+        return true;
+    }
+}
@@ -9,22 +9,24 @@ import com.ultrasoundprobe.probeview.format.InputOutputFormatter;
 import java.util.Arrays;
 
 public class CoilSwitch {
-    private static final String TAG = "CoilSelector";
-
-    private static final boolean[][] COIL_CONTROL_GPIO_MAP = {
-            { true, false, false },
-            { false, false, false },
-            { false, true, false },
-            { false, false, false },
-            { false, false, true },
-            { false, false, false }
-    };
+    private static final String TAG = "CoilSwitch";
+
     private static final int COIL_CONTROL_SWITCH_ON_READY_TIME =
             AppConfig.CoilControlSwitchOnReadyTime;
     private static final int COIL_CONTROL_SWITCH_OFF_READY_TIME =
             AppConfig.CoilControlSwitchOffReadyTime;
     private static final int COIL_CONTROL_SWITCH_TIMEOUT =
             AppConfig.CoilControlSwitchTimeout;
+    private static final boolean COIL_CONTROL_ADAPTIVE_READY_TIME =
+            AppConfig.CoilControlAdaptiveReadyTime;
+    private static final int COIL_CONTROL_SETTLE_WINDOW =
+            AppConfig.CoilControlSettleWindow;
+    private static final double COIL_CONTROL_SETTLE_THRESHOLD =
+            AppConfig.CoilControlSettleThreshold;
+    private static final int COIL_CONTROL_SAMPLE_COUNT =
+            AppConfig.CoilControlSampleCount;
+    private static final SampleAccumulator.Statistic COIL_CONTROL_SAMPLE_STATISTIC =
+            AppConfig.CoilControlSampleStatistic;
 
     private enum CoilControlState {
         CoilRequest,
@@ -32,27 +34,78 @@ public class CoilSwitch {
         Unknown
     }
 
+    private final CoilSequence coilSequence;
+
     private CoilControlState coilControlState;
     private long coilSwitchTime;
     private int coilIndex;
+    private int coilCycle;
 
     private boolean isDebug = false;
+    private boolean isRollingUpdate = false;
+
+    private final DeviceService.ImuData[] coilImuData;
+    // Time of System.nanoTime() when IMU data of each coil state was stored, and coil
+    // states with IMU data stored since reset in bits
+    private final long[] coilImuDataTime;
+    private int coilImuDataMask;
+    // Variance of the mean of magnetic data [mx, my, mz] of each coil state
+    private final double[][] coilImuDataVariance;
+
+    // Coil is ready once its IMU data settles, the ready time is an upper bound then
+    private final SettleDetector settleDetector = new SettleDetector(
+            COIL_CONTROL_SETTLE_WINDOW, COIL_CONTROL_SETTLE_THRESHOLD);
 
-    private final DeviceService.ImuData[] coilImuData = new DeviceService.ImuData[
-            COIL_CONTROL_GPIO_MAP.length];
+    // IMU data of a coil state is the statistic of samples once the coil is ready
+    private final SampleAccumulator sampleAccumulator = new SampleAccumulator(
+            COIL_CONTROL_SAMPLE_COUNT, COIL_CONTROL_SAMPLE_STATISTIC);
+    private boolean coilReady;
 
     public CoilSwitch() {
+        this(getDefaultSequence());
+    }
+
+    public CoilSwitch(CoilSequence sequence) {
+        coilSequence = sequence;
+        coilImuData = new DeviceService.ImuData[sequence.getLength()];
+        coilImuDataTime = new long[sequence.getLength()];
+        coilImuDataVariance = new double[sequence.getLength()][3];
+
+        Log.d(TAG, "Coil sequence " + sequence);
+
         resetCoilControl();
     }
 
+    private static CoilSequence getDefaultSequence() {
+        try {
+            return CoilSequence.parse(AppConfig.CoilControlSequence,
+                    AppConfig.CoilControlOffInterval);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, e.getMessage() + ", use default coil sequence");
+            return CoilSequence.parse(CoilSequence.DEFAULT_SEQUENCE, 1);
+        }
+    }
+
+    public CoilSequence getCoilSequence() {
+        return coilSequence;
+    }
+
     public void setDebug(boolean enable) {
         isDebug = enable;
     }
 
+    // Return IMU data after every active coil state with the latest IMU data of the
+    // other states, instead of once after all coil states
+    public void setRollingUpdate(boolean enable) {
+        isRollingUpdate = enable;
+    }
+
     public void resetCoilControl() {
         coilControlState = CoilControlState.Unknown;
         coilSwitchTime = 0;
         coilIndex = 0;
+        coilCycle = 0;
+        coilImuDataMask = 0;
     }
 
     public DeviceService.ImuData[] getImuDataFromCoilSwitch(DeviceService deviceService,
@@ -62,7 +115,7 @@ public class CoilSwitch {
         boolean imuDataAvailable = false;
 
         if (coilControlState == CoilControlState.CoilRequest) {
-            boolean[] gpioMap = COIL_CONTROL_GPIO_MAP[coilIndex - 1];
+            boolean[] gpioMap = coilSequence.getState(coilIndex - 1);
             // All coil switches turned to what we want?
             boolean coilSwitched = (gpioMap[0] == gpioData.gpio1) &&
                     (gpioMap[1] == gpioData.gpio2) &&
@@ -77,6 +130,9 @@ public class CoilSwitch {
 
                 coilSwitchTime = System.currentTimeMillis();
                 coilControlState = CoilControlState.CoilSwitchTime;
+                coilReady = false;
+                settleDetector.reset();
+                sampleAccumulator.reset();
             } else {
                 if (coilSwitchTime >= 0 && (System.currentTimeMillis() - coilSwitchTime) >=
                         COIL_CONTROL_SWITCH_TIMEOUT) {
@@ -92,25 +148,41 @@ public class CoilSwitch {
         }
 
         if (coilControlState == CoilControlState.CoilSwitchTime) {
-            boolean[] gpioMap = COIL_CONTROL_GPIO_MAP[coilIndex - 1];
+            boolean[] gpioMap = coilSequence.getState(coilIndex - 1);
             // All coil switches turned off?
-            boolean coilSwitchedOff = (!gpioMap[0] && !gpioMap[1] && !gpioMap[2]);
+            boolean coilSwitchedOff = coilSequence.isOffState(coilIndex - 1);
             // Get timeout value according to coil switch states
             long timeout = (coilSwitchedOff ?
                     COIL_CONTROL_SWITCH_OFF_READY_TIME :
                     COIL_CONTROL_SWITCH_ON_READY_TIME);
 
-            if ((System.currentTimeMillis() - coilSwitchTime) >= timeout) {
-                imuDataAvailable = (coilIndex == COIL_CONTROL_GPIO_MAP.length);
+            long elapsedTime = System.currentTimeMillis() - coilSwitchTime;
+
+            if (!coilReady) {
+                if (COIL_CONTROL_ADAPTIVE_READY_TIME && settleDetector.update(imuData)) {
+                    // Samples of a settled window are settled as well
+                    settleDetector.addTo(sampleAccumulator);
+                    coilReady = true;
+                } else if (elapsedTime >= timeout) {
+                    sampleAccumulator.add(imuData);
+                    coilReady = true;
+                }
 
-                // Store IMU data after coil switch is stable
-                coilImuData[coilIndex - 1] = new DeviceService.ImuData(
-                        imuData.mx, imuData.my, imuData.mz,
-                        imuData.gx, imuData.gy, imuData.gz);
+                if (coilReady && isDebug)
+                    Log.d(TAG, "[Ready] Coil " + Arrays.toString(gpioMap) + " after " +
+                            elapsedTime + "ms");
+            } else
+                sampleAccumulator.add(imuData);
+
+            if (coilReady && sampleAccumulator.isFull()) {
+                // Store IMU data of all samples after coil switch is stable
+                imuDataAvailable = storeImuData(coilIndex - 1, coilCycle, sampleAccumulator,
+                        System.nanoTime());
 
                 if (isDebug)
-                    Log.d(TAG, "[Stored] IMU data [" + imuData + "] from coil " +
-                            Arrays.toString(gpioMap));
+                    Log.d(TAG, "[Stored] IMU data [" + coilImuData[coilIndex - 1] +
+                            "] of " + sampleAccumulator.getCount() + " samples from coil " +
+                            Arrays.toString(gpioMap) + " after " + elapsedTime + "ms");
             } else {
                 /*
                 // Debug for sensor data dump during all-off of switches
@@ -124,16 +196,24 @@ public class CoilSwitch {
             }
         }
 
-        coilIndex %= COIL_CONTROL_GPIO_MAP.length;
+        // Next coil state of the sequence, skipping all-off states not taken in
+        // this cycle
+        do {
+            if (coilIndex == coilSequence.getLength()) {
+                coilIndex = 0;
+                coilCycle++;
+            }
 
-        boolean[] gpioMap = COIL_CONTROL_GPIO_MAP[coilIndex];
+            coilIndex++;
+        } while (coilSequence.isSkipped(coilIndex - 1, coilCycle));
+
+        boolean[] gpioMap = coilSequence.getState(coilIndex - 1);
         String message = InputOutputFormatter.insertGpioControlData(
                 gpioMap[0],
                 gpioMap[1],
                 gpioMap[2]);
 
         coilControlState = CoilControlState.CoilRequest;
-        coilIndex++;
 
         // Send a request for coil switch
         if (deviceService.writeDevice(connectedCoilAddress, message.getBytes())) {
@@ -151,17 +231,93 @@ public class CoilSwitch {
         return imuDataAvailable ? coilImuData : null;
     }
 
+    // Store IMU data of a step of the coil sequence in a cycle from samples of the step
+    // taken at a time of System.nanoTime(), return true if IMU data of all coil states
+    // is available, which is used by a scheduler driving the coil sequence instead
+    boolean storeImuData(int step, int cycle, SampleAccumulator accumulator, long time) {
+        coilImuData[step] = accumulator.getImuData();
+        accumulator.getMagneticVariance(coilImuDataVariance[step]);
+        coilImuDataTime[step] = time;
+        coilImuDataMask |= 1 << step;
+
+        boolean coilImuDataFilled = coilImuDataMask == (1 << coilSequence.getLength()) - 1;
+
+        if (isRollingUpdate)
+            // Window of the latest IMU data of all coil states moves by one active
+            // coil state
+            return !coilSequence.isOffState(step) && coilImuDataFilled;
+
+        return coilImuDataFilled && coilSequence.isLastStep(step, cycle);
+    }
+
+    DeviceService.ImuData[] getImuData() {
+        return coilImuData;
+    }
+
+    // Times of IMU data from coil switch, in the same order of coil states
+    public long[] getImuDataTimes() {
+        return coilImuDataTime;
+    }
+
+    // Time of the newest IMU data from coil switch, which is when the coil cycle is
+    // complete
+    public long getCycleTime() {
+        long time = coilImuDataTime[0];
+
+        for (long value : coilImuDataTime)
+            time = Math.max(time, value);
+
+        return time;
+    }
+
+    // Variances of IMU data from coil switch, in the same order of coil states
+    public double[][] getImuDataVariances() {
+        return coilImuDataVariance;
+    }
+
+    public double[][] getVariancesFromActiveCoils(double[][] variances) {
+        return getSlots(variances, coilSequence.getActiveSlots());
+    }
+
+    public long[] getTimesFromActiveCoils(long[] times) {
+        return getSlots(times, coilSequence.getActiveSlots());
+    }
+
+    // Null for a coil sequence without all-off states
+    public long[] getTimesFromInactiveCoils(long[] times) {
+        return getSlots(times, coilSequence.getInactiveSlots());
+    }
+
     public DeviceService.ImuData[] getImuDataFromActiveCoils(DeviceService.ImuData[] values) {
-        if (values.length != COIL_CONTROL_GPIO_MAP.length)
+        return getSlots(values, coilSequence.getActiveSlots());
+    }
+
+    // Null for a coil sequence without all-off states
+    public DeviceService.ImuData[] getImuDataFromInactiveCoils(DeviceService.ImuData[] values) {
+        return getSlots(values, coilSequence.getInactiveSlots());
+    }
+
+    private long[] getSlots(long[] values, int[] slots) {
+        if (values.length != coilSequence.getLength() || slots.length == 0)
             return null;
 
-        return new DeviceService.ImuData[] { values[0], values[2], values[4] };
+        long[] results = new long[slots.length];
+
+        for (int i = 0; i < slots.length; i++)
+            results[i] = values[slots[i]];
+
+        return results;
     }
 
-    public DeviceService.ImuData[] getImuDataFromInactiveCoils(DeviceService.ImuData[] values) {
-        if (values.length != COIL_CONTROL_GPIO_MAP.length)
+    private <T> T[] getSlots(T[] values, int[] slots) {
+        if (values.length != coilSequence.getLength() || slots.length == 0)
             return null;
 
-        return new DeviceService.ImuData[] { values[1], values[3], values[5] };
+        T[] results = Arrays.copyOf(values, slots.length);
+
+        for (int i = 0; i < slots.length; i++)
+            results[i] = values[slots[i]];
+
+        return results;
     }
 }
@@ -0,0 +1,128 @@
+package com.ultrasoundprobe.probeview.device.coil;
+
+import com.ultrasoundprobe.probeview.device.DeviceService;
+
+import java.util.Arrays;
+
+// Accumulate samples of IMU data of a coil state once it is ready, with streaming mean
+// and variance of each channel, all buffers are allocated once for all coil states
+public class SampleAccumulator {
+    public enum Statistic {
+        Mean,
+        TrimmedMean,
+        Median
+    }
+
+    // Channels [mx, my, mz, gx, gy, gz] of IMU data
+    public static final int CHANNELS = 6;
+
+    // Variance of magnetic data of a single sample by noise of the sensor, the least
+    // variance of a sample whatever the spread of samples, so that a single sample or
+    // samples which happen to agree do not pass for exact
+    public static final double MAGNETIC_NOISE_VARIANCE = 0.25;
+
+    // Fraction of samples trimmed from each end for a trimmed mean
+    private static final double TRIM_RATIO = 0.25;
+
+    private final int capacity;
+    private final Statistic statistic;
+
+    private final double[][] samples;
+    private final double[] sorted;
+
+    // Running mean and sum of squared differences from it by Welford's algorithm
+    private final double[] mean = new double[CHANNELS];
+    private final double[] m2 = new double[CHANNELS];
+    private int count = 0;
+
+    public SampleAccumulator(int capacity, Statistic statistic) {
+        this.capacity = Math.max(1, capacity);
+        this.statistic = statistic;
+
+        samples = new double[this.capacity][CHANNELS];
+        sorted = new double[this.capacity];
+    }
+
+    public void reset() {
+        count = 0;
+
+        Arrays.fill(mean, 0);
+        Arrays.fill(m2, 0);
+    }
+
+    public void add(DeviceService.ImuData imuData) {
+        add(imuData.mx, imuData.my, imuData.mz, imuData.gx, imuData.gy, imuData.gz);
+    }
+
+    // Add a sample [mx, my, mz, gx, gy, gz], samples are ignored once it is full
+    public void add(double... values) {
+        if (count >= capacity)
+            return;
+
+        System.arraycopy(values, 0, samples[count], 0, CHANNELS);
+        count++;
+
+        for (int k = 0; k < CHANNELS; k++) {
+            double delta = values[k] - mean[k];
+
+            mean[k] += delta / count;
+            m2[k] += delta * (values[k] - mean[k]);
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return count >= capacity;
+    }
+
+    // IMU data of the statistic of each channel, null if there is no sample
+    public DeviceService.ImuData getImuData() {
+        if (count == 0)
+            return null;
+
+        return new DeviceService.ImuData(
+                (float)getValue(0), (float)getValue(1), (float)getValue(2),
+                (float)getValue(3), (float)getValue(4), (float)getValue(5));
+    }
+
+    // Variance of the mean of magnetic values [mx, my, mz], which is also taken for
+    // the other statistics, the variance of samples is the sensor noise at least and
+    // the noise of a single sample for less than two samples
+    public void getMagneticVariance(double[] variance) {
+        int n = Math.max(1, count);
+
+        for (int k = 0; k < 3; k++) {
+            double sampleVariance = count > 1 ? m2[k] / (count - 1) : 0;
+
+            variance[k] = Math.max(sampleVariance, MAGNETIC_NOISE_VARIANCE) / n;
+        }
+    }
+
+    private double getValue(int k) {
+        if (statistic == Statistic.Mean || count < 3)
+            return mean[k];
+
+        for (int i = 0; i < count; i++)
+            sorted[i] = samples[i][k];
+
+        Arrays.sort(sorted, 0, count);
+
+        if (statistic == Statistic.Median)
+            return (sorted[(count - 1) / 2] + sorted[count / 2]) / 2;
+
+        int trim = (int)(count * TRIM_RATIO);
+        double sum = 0;
+
+        for (int i = trim; i < count - trim; i++)
+            sum += sorted[i];
+
+        return sum / (count - 2 * trim);
+    }
+}
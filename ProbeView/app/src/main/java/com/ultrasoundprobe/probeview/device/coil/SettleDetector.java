@@ -0,0 +1,79 @@
+package com.ultrasoundprobe.probeview.device.coil;
+
+import com.ultrasoundprobe.probeview.device.DeviceService;
+
+// Detect that magnetic data has settled after a coil switch, by variance of the latest
+// samples within a sliding window rather than a fixed ready time
+public class SettleDetector {
+    private final int windowSize;
+    private final double threshold;
+
+    // Latest IMU data [mx, my, mz, gx, gy, gz] in a ring, oldest first from the next
+    // index, only magnetic data is checked
+    private final double[][] window;
+    private int count = 0;
+    private int next = 0;
+
+    // Size of window in samples, and threshold of the sum of variances of all axes
+    // for the samples of the window to be settled
+    public SettleDetector(int windowSize, double threshold) {
+        this.windowSize = Math.max(2, windowSize);
+        this.threshold = threshold;
+
+        window = new double[this.windowSize][SampleAccumulator.CHANNELS];
+    }
+
+    // Start over after a coil switch
+    public void reset() {
+        count = 0;
+        next = 0;
+    }
+
+    // Add a sample, return true once the window is full and settled
+    public boolean update(DeviceService.ImuData imuData) {
+        window[next][0] = imuData.mx;
+        window[next][1] = imuData.my;
+        window[next][2] = imuData.mz;
+        window[next][3] = imuData.gx;
+        window[next][4] = imuData.gy;
+        window[next][5] = imuData.gz;
+
+        next = (next + 1) % windowSize;
+        count = Math.min(count + 1, windowSize);
+
+        return count == windowSize && getVariance() < threshold;
+    }
+
+    // Add the latest samples of the window to an accumulator, oldest first, as many as
+    // the accumulator has room for, since samples of a settled window are settled too
+    public void addTo(SampleAccumulator accumulator) {
+        int n = Math.min(count, accumulator.getCapacity() - accumulator.getCount());
+
+        for (int i = n; i > 0; i--)
+            accumulator.add(window[(next - i + windowSize) % windowSize]);
+    }
+
+    // Sum of variances of all axes over samples of the window
+    public double getVariance() {
+        if (count < 2)
+            return Double.NaN;
+
+        double variance = 0;
+
+        for (int k = 0; k < 3; k++) {
+            double mean = 0, sum = 0;
+
+            for (int i = 0; i < count; i++)
+                mean += window[i][k];
+
+            mean /= count;
+
+            for (int i = 0; i < count; i++)
+                sum += (window[i][k] - mean) * (window[i][k] - mean);
+
+            variance += sum / (count - 1);
+        }
+
+        return variance;
+    }
+}
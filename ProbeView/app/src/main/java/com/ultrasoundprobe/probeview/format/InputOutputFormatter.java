@@ -1,11 +1,46 @@
 package com.ultrasoundprobe.probeview.format;
 
 import com.ultrasoundprobe.probeview.device.DeviceService;
+import com.ultrasoundprobe.probeview.device.coil.CoilSequence;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class InputOutputFormatter {
+    // Binary frames in little-endian: version, type, sequence number (uint16), device
+    // time in microseconds (uint32), payload and CRC-16/CCITT of all bytes before, a
+    // binary frame is told from a text frame by its first byte
+    static public final int FRAME_VERSION = 1;
+    static public final int FRAME_TYPE_SENSOR_DATA = 1;
+    static public final int FRAME_TYPE_GPIO_DATA = 2;
+    static public final int FRAME_TYPE_COIL_STATE_DATA = 3;
+
+    static private final int FRAME_HEADER_SIZE = 8;
+    static private final int FRAME_CRC_SIZE = 2;
+
+    // Payload of magnetometer X, Y, Z and accelerometer X, Y, Z in float and flags of
+    // power down state in bit 0
+    static public final int SENSOR_FRAME_SIZE = FRAME_HEADER_SIZE + 6 * 4 + 1 + FRAME_CRC_SIZE;
+    // Payload of GPIO 0, 1 and 2 in bit 0, 1 and 2
+    static public final int GPIO_FRAME_SIZE = FRAME_HEADER_SIZE + 1 + FRAME_CRC_SIZE;
+    // Payload of step (uint8), cycle (uint32) and GPIO bits
+    static public final int COIL_STATE_FRAME_SIZE = FRAME_HEADER_SIZE + 1 + 4 + 1 +
+            FRAME_CRC_SIZE;
+
+    static private final int[] CRC_TABLE = new int[256];
+
+    static {
+        // CRC-16/CCITT with polynomial 0x1021
+        for (int i = 0; i < CRC_TABLE.length; i++) {
+            int crc = i << 8;
+
+            for (int k = 0; k < 8; k++)
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+
+            CRC_TABLE[i] = crc & 0xffff;
+        }
+    }
+
     static public List<String> extractSensorData(String message) {
         return extractTokenData(message, new String[] {
                 "sen_data:", ",", ",",      // Magnetometer X, Y, Z
@@ -23,6 +58,158 @@ public class InputOutputFormatter {
         return extractTokenData(message, new String[] { "gpio_control:", ",", ",", "" });
     }
 
+    // Upload a coil sequence for the coil device to cycle by itself: dwell time in
+    // milliseconds, interval of cycles taking all-off states and GPIO states of each
+    // step, such as "coil_sequence:100,1,100,000,010,000,001,000", the coil device
+    // goes back to switching on request on the next gpio_control message
+    static public String insertCoilSequenceData(CoilSequence sequence, int dwellTime) {
+        StringBuilder builder = new StringBuilder("coil_sequence:")
+                .append(dwellTime).append(',')
+                .append(sequence.getOffInterval());
+
+        for (int i = 0; i < sequence.getLength(); i++) {
+            builder.append(',');
+
+            for (boolean value : sequence.getState(i))
+                builder.append(value ? '1' : '0');
+        }
+
+        return builder.toString();
+    }
+
+    // Coil state switched by the coil device cycling by itself: sequence number of the
+    // switch, step and cycle of the sequence and GPIO states of the step
+    static public List<String> extractCoilStateData(String message) {
+        return extractTokenData(message, new String[] { "coil_state:", ",", ",", ",",
+                ",", ",", "" });
+    }
+
+    // Request binary frames of a version from the device on connection, the device
+    // replies with the version it sends or 0 for text frames
+    static public String insertFrameFormatData(int version) {
+        return "frame_format:" + version;
+    }
+
+    // Name of a command written to a device, such as "gpio_control", or null for data
+    // other than a text command
+    static public String extractCommandName(byte[] data) {
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == ':')
+                return i > 0 ? new String(data, 0, i) : null;
+            if (data[i] != '_' && (data[i] < 'a' || data[i] > 'z'))
+                return null;
+        }
+
+        return null;
+    }
+
+    static public byte[] insertSensorFrame(int sequence, long deviceTime,
+                                           DeviceService.ImuData value, boolean powerDown) {
+        byte[] data = new byte[SENSOR_FRAME_SIZE];
+        int offset = putFrameHeader(data, FRAME_TYPE_SENSOR_DATA, sequence, deviceTime);
+
+        offset = putInt(data, offset, Float.floatToIntBits(value.mx));
+        offset = putInt(data, offset, Float.floatToIntBits(value.my));
+        offset = putInt(data, offset, Float.floatToIntBits(value.mz));
+        offset = putInt(data, offset, Float.floatToIntBits(value.gx));
+        offset = putInt(data, offset, Float.floatToIntBits(value.gy));
+        offset = putInt(data, offset, Float.floatToIntBits(value.gz));
+        data[offset] = (byte)(powerDown ? 1 : 0);
+
+        putCrc(data, 0, SENSOR_FRAME_SIZE);
+
+        return data;
+    }
+
+    static public byte[] insertGpioFrame(int sequence, long deviceTime,
+                                         DeviceService.GpioData value) {
+        byte[] data = new byte[GPIO_FRAME_SIZE];
+        int offset = putFrameHeader(data, FRAME_TYPE_GPIO_DATA, sequence, deviceTime);
+
+        data[offset] = getGpioBits(value);
+
+        putCrc(data, 0, GPIO_FRAME_SIZE);
+
+        return data;
+    }
+
+    static public byte[] insertCoilStateFrame(int sequence, long deviceTime,
+                                              DeviceService.CoilStateData value) {
+        byte[] data = new byte[COIL_STATE_FRAME_SIZE];
+        int offset = putFrameHeader(data, FRAME_TYPE_COIL_STATE_DATA, sequence, deviceTime);
+
+        data[offset++] = (byte)value.step;
+        offset = putInt(data, offset, value.cycle);
+        data[offset] = getGpioBits(value);
+
+        putCrc(data, 0, COIL_STATE_FRAME_SIZE);
+
+        return data;
+    }
+
+    // Binary frame of the supported version at an offset of data
+    static public boolean isFrame(byte[] data, int offset) {
+        return offset < data.length && data[offset] == FRAME_VERSION;
+    }
+
+    static public int getFrameSequence(byte[] data, int offset) {
+        return getShort(data, offset + 2);
+    }
+
+    static public long getFrameTime(byte[] data, int offset) {
+        return getInt(data, offset + 4) & 0xffffffffL;
+    }
+
+    // Decode a binary frame at an offset of data into the values, return false for a
+    // frame of other version or type, a truncated frame or a CRC mismatch, in which
+    // case the values are left unchanged
+    static public boolean extractSensorFrame(byte[] data, int offset,
+                                             DeviceService.ImuData value,
+                                             DeviceService.ExtraData extra) {
+        if (!checkFrame(data, offset, FRAME_TYPE_SENSOR_DATA, SENSOR_FRAME_SIZE))
+            return false;
+
+        int payload = offset + FRAME_HEADER_SIZE;
+
+        value.mx = Float.intBitsToFloat(getInt(data, payload));
+        value.my = Float.intBitsToFloat(getInt(data, payload + 4));
+        value.mz = Float.intBitsToFloat(getInt(data, payload + 8));
+        value.gx = Float.intBitsToFloat(getInt(data, payload + 12));
+        value.gy = Float.intBitsToFloat(getInt(data, payload + 16));
+        value.gz = Float.intBitsToFloat(getInt(data, payload + 20));
+        extra.powerDown = (data[payload + 24] & 1) != 0;
+        extra.sequence = getFrameSequence(data, offset);
+        extra.deviceTime = getFrameTime(data, offset);
+
+        return true;
+    }
+
+    static public boolean extractGpioFrame(byte[] data, int offset,
+                                           DeviceService.GpioData value) {
+        if (!checkFrame(data, offset, FRAME_TYPE_GPIO_DATA, GPIO_FRAME_SIZE))
+            return false;
+
+        setGpioBits(value, data[offset + FRAME_HEADER_SIZE]);
+
+        return true;
+    }
+
+    // Sequence number of the coil state is the 16-bit sequence number of the frame
+    static public boolean extractCoilStateFrame(byte[] data, int offset,
+                                                DeviceService.CoilStateData value) {
+        if (!checkFrame(data, offset, FRAME_TYPE_COIL_STATE_DATA, COIL_STATE_FRAME_SIZE))
+            return false;
+
+        int payload = offset + FRAME_HEADER_SIZE;
+
+        value.sequence = getFrameSequence(data, offset);
+        value.step = data[payload] & 0xff;
+        value.cycle = getInt(data, payload + 1);
+        setGpioBits(value, data[payload + 5]);
+
+        return true;
+    }
+
     static public String insertAlgoData(DeviceService.ImuData[] values) {
         return "algo_data:" + values[0].mx + "," + values[0].my + "," + values[0].mz + "," +
                 values[1].mx + "," + values[1].my + "," + values[1].mz + "," +
@@ -38,6 +225,69 @@ public class InputOutputFormatter {
         return "power_down:" + (powerDown ? "1" : "0");
     }
 
+    static private int putFrameHeader(byte[] data, int type, int sequence, long deviceTime) {
+        data[0] = FRAME_VERSION;
+        data[1] = (byte)type;
+        data[2] = (byte)sequence;
+        data[3] = (byte)(sequence >> 8);
+
+        return putInt(data, 4, (int)deviceTime);
+    }
+
+    static private boolean checkFrame(byte[] data, int offset, int type, int size) {
+        return offset + size <= data.length &&
+                data[offset] == FRAME_VERSION &&
+                data[offset + 1] == type &&
+                getCrc(data, offset, size - FRAME_CRC_SIZE) ==
+                        getShort(data, offset + size - FRAME_CRC_SIZE);
+    }
+
+    static private int getCrc(byte[] data, int offset, int length) {
+        int crc = 0xffff;
+
+        for (int i = offset; i < offset + length; i++)
+            crc = ((crc << 8) ^ CRC_TABLE[((crc >> 8) ^ data[i]) & 0xff]) & 0xffff;
+
+        return crc;
+    }
+
+    static private void putCrc(byte[] data, int offset, int size) {
+        int crc = getCrc(data, offset, size - FRAME_CRC_SIZE);
+
+        data[offset + size - 2] = (byte)crc;
+        data[offset + size - 1] = (byte)(crc >> 8);
+    }
+
+    static private byte getGpioBits(DeviceService.GpioData value) {
+        return (byte)((value.gpio1 ? 1 : 0) | (value.gpio2 ? 2 : 0) | (value.gpio3 ? 4 : 0));
+    }
+
+    static private void setGpioBits(DeviceService.GpioData value, byte bits) {
+        value.gpio1 = (bits & 1) != 0;
+        value.gpio2 = (bits & 2) != 0;
+        value.gpio3 = (bits & 4) != 0;
+    }
+
+    static private int putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte)value;
+        data[offset + 1] = (byte)(value >> 8);
+        data[offset + 2] = (byte)(value >> 16);
+        data[offset + 3] = (byte)(value >> 24);
+
+        return offset + 4;
+    }
+
+    static private int getInt(byte[] data, int offset) {
+        return (data[offset] & 0xff) |
+                (data[offset + 1] & 0xff) << 8 |
+                (data[offset + 2] & 0xff) << 16 |
+                (data[offset + 3] & 0xff) << 24;
+    }
+
+    static private int getShort(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8;
+    }
+
     static private List<String> extractTokenData(String message, String[] tokens) {
         List<String> args = new ArrayList<>();
         int startIndex = 0, endIndex;
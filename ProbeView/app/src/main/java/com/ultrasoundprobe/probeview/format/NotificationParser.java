@@ -0,0 +1,349 @@
+package com.ultrasoundprobe.probeview.format;
+
+import com.ultrasoundprobe.probeview.device.DeviceService;
+
+// Parse notifications of probe and coil devices in the same text or binary frames as
+// InputOutputFormatter, directly from their bytes into reusable data without strings,
+// lists or exceptions, one parser for each device
+public class NotificationParser {
+    private static final byte[] SENSOR_DATA_PREFIX = { 's', 'e', 'n', '_', 'd', 'a', 't',
+            'a', ':' };
+    private static final byte[] GPIO_CONTROL_PREFIX = { 'g', 'p', 'i', 'o', '_', 'c', 'o',
+            'n', 't', 'r', 'o', 'l', ':' };
+    private static final byte[] COIL_STATE_PREFIX = { 'c', 'o', 'i', 'l', '_', 's', 't',
+            'a', 't', 'e', ':' };
+    private static final byte[] FRAME_FORMAT_PREFIX = { 'f', 'r', 'a', 'm', 'e', '_', 'f',
+            'o', 'r', 'm', 'a', 't', ':' };
+
+    // Powers of ten exact in double
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Significant digits kept in a long, further digits are beyond float precision
+    private static final int MAX_DIGITS = 18;
+    // Exponent beyond which a float is zero or infinity
+    private static final int MAX_EXPONENT = 1000;
+
+    private byte[] data;
+    private int position;
+
+    // Value of the last parsed field
+    private double number;
+    private long integer;
+
+    // Sequence number of the last coil state, extended from 16 bits of binary frames
+    private long coilStateSequence = -1;
+
+    // Number of samples of sensor data, binary frames of samples are batched back to
+    // back in a notification while a text frame has one sample
+    public int getSensorDataCount(byte[] data) {
+        if (data == null || data.length == 0)
+            return 0;
+
+        if (!InputOutputFormatter.isFrame(data, 0))
+            return 1;
+
+        return data.length % InputOutputFormatter.SENSOR_FRAME_SIZE == 0 ?
+                data.length / InputOutputFormatter.SENSOR_FRAME_SIZE : 0;
+    }
+
+    public boolean parseSensorData(byte[] data, DeviceService.ImuData value,
+                                   DeviceService.ExtraData extra) {
+        return getSensorDataCount(data) == 1 && parseSensorData(data, 0, value, extra);
+    }
+
+    // Sensor data of "sen_data:" followed by magnetometer X, Y, Z, accelerometer X, Y, Z
+    // and power down state, or of a binary frame at an index of a batch, the values are
+    // left unchanged for a malformed frame
+    public boolean parseSensorData(byte[] data, int index, DeviceService.ImuData value,
+                                   DeviceService.ExtraData extra) {
+        if (data != null && InputOutputFormatter.isFrame(data, 0))
+            return InputOutputFormatter.extractSensorFrame(data,
+                    index * InputOutputFormatter.SENSOR_FRAME_SIZE, value, extra);
+
+        if (index != 0 || !start(data, SENSOR_DATA_PREFIX))
+            return false;
+
+        if (!nextFloat())
+            return false;
+        float mx = (float)number;
+        if (!nextFloat())
+            return false;
+        float my = (float)number;
+        if (!nextFloat())
+            return false;
+        float mz = (float)number;
+        if (!nextFloat())
+            return false;
+        float gx = (float)number;
+        if (!nextFloat())
+            return false;
+        float gy = (float)number;
+        if (!nextFloat())
+            return false;
+        float gz = (float)number;
+
+        value.mx = mx;
+        value.my = my;
+        value.mz = mz;
+        value.gx = gx;
+        value.gy = gy;
+        value.gz = gz;
+        extra.powerDown = isLastFieldSet();
+        extra.sequence = -1;
+        extra.deviceTime = -1;
+
+        return true;
+    }
+
+    // GPIO states of "gpio_control:" followed by GPIO 0, 1 and 2
+    public boolean parseGpioControlData(byte[] data, DeviceService.GpioData value) {
+        if (data != null && InputOutputFormatter.isFrame(data, 0))
+            return data.length == InputOutputFormatter.GPIO_FRAME_SIZE &&
+                    InputOutputFormatter.extractGpioFrame(data, 0, value);
+
+        if (!start(data, GPIO_CONTROL_PREFIX))
+            return false;
+
+        int gpio1 = nextField(), gpio1End = position - 1;
+        int gpio2 = gpio1 < 0 ? -1 : nextField();
+
+        if (gpio2 < 0)
+            return false;
+
+        value.gpio1 = isSet(gpio1, gpio1End);
+        value.gpio2 = isSet(gpio2, position - 1);
+        value.gpio3 = isLastFieldSet();
+
+        return true;
+    }
+
+    // Coil state of "coil_state:" followed by sequence number, step, cycle and GPIO 0,
+    // 1 and 2
+    public boolean parseCoilStateData(byte[] data, DeviceService.CoilStateData value) {
+        if (data != null && InputOutputFormatter.isFrame(data, 0)) {
+            if (data.length != InputOutputFormatter.COIL_STATE_FRAME_SIZE ||
+                    !InputOutputFormatter.extractCoilStateFrame(data, 0, value))
+                return false;
+
+            // Extend the sequence number to the nearest after the last one
+            if (coilStateSequence >= 0)
+                value.sequence = coilStateSequence +
+                        ((value.sequence - coilStateSequence) & 0xffff);
+
+            coilStateSequence = value.sequence;
+
+            return true;
+        }
+
+        if (!start(data, COIL_STATE_PREFIX))
+            return false;
+
+        if (!nextInteger())
+            return false;
+        long sequence = integer;
+        if (!nextInteger() || integer < Integer.MIN_VALUE || integer > Integer.MAX_VALUE)
+            return false;
+        int step = (int)integer;
+        if (!nextInteger() || integer < Integer.MIN_VALUE || integer > Integer.MAX_VALUE)
+            return false;
+        int cycle = (int)integer;
+
+        int gpio1 = nextField(), gpio1End = position - 1;
+        int gpio2 = gpio1 < 0 ? -1 : nextField();
+
+        if (gpio2 < 0)
+            return false;
+
+        value.sequence = sequence;
+        value.step = step;
+        value.cycle = cycle;
+        value.gpio1 = isSet(gpio1, gpio1End);
+        value.gpio2 = isSet(gpio2, position - 1);
+        value.gpio3 = isLastFieldSet();
+
+        coilStateSequence = sequence;
+
+        return true;
+    }
+
+    // Version of frames the device replies to a request for binary frames, -1 for other
+    // data
+    public int parseFrameFormatData(byte[] data) {
+        if (!start(data, FRAME_FORMAT_PREFIX) ||
+                !parseInteger(position, data.length) || integer < 0 || integer > 0xff)
+            return -1;
+
+        return (int)integer;
+    }
+
+    // Start after the first prefix in data
+    private boolean start(byte[] data, byte[] prefix) {
+        if (data == null)
+            return false;
+
+        for (int i = 0; i + prefix.length <= data.length; i++) {
+            int k = 0;
+
+            while (k < prefix.length && data[i + k] == prefix[k])
+                k++;
+
+            if (k == prefix.length) {
+                this.data = data;
+                position = i + prefix.length;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Move to the next field ended by a comma, return start of the field or -1 if there
+    // is no comma
+    private int nextField() {
+        int start = position;
+
+        for (int i = start; i < data.length; i++) {
+            if (data[i] == ',') {
+                position = i + 1;
+                return start;
+            }
+        }
+
+        return -1;
+    }
+
+    // Field of a single "1" for a set state, any other field for a clear state
+    private boolean isSet(int start, int end) {
+        return end - start == 1 && data[start] == '1';
+    }
+
+    // Last field takes the rest of data
+    private boolean isLastFieldSet() {
+        return isSet(position, data.length);
+    }
+
+    private boolean nextFloat() {
+        int start = nextField();
+
+        return start >= 0 && parseFloat(start, position - 1);
+    }
+
+    private boolean nextInteger() {
+        int start = nextField();
+
+        return start >= 0 && parseInteger(start, position - 1);
+    }
+
+    // Decimal number with optional sign, fraction and exponent, surrounded by optional
+    // whitespace as Float.parseFloat() takes
+    private boolean parseFloat(int start, int end) {
+        while (start < end && (data[start] & 0xff) <= ' ')
+            start++;
+        while (end > start && (data[end - 1] & 0xff) <= ' ')
+            end--;
+
+        int i = start;
+        boolean negative = false;
+
+        if (i < end && (data[i] == '-' || data[i] == '+'))
+            negative = data[i++] == '-';
+
+        long mantissa = 0;
+        int digits = 0, scale = 0;
+        boolean hasDigits = false;
+
+        // Integer part, digits beyond precision scale the value instead
+        for (; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+            hasDigits = true;
+
+            if (digits < MAX_DIGITS) {
+                mantissa = mantissa * 10 + (data[i] - '0');
+                if (mantissa > 0)
+                    digits++;
+            } else {
+                scale++;
+            }
+        }
+
+        // Fraction part, digits beyond precision are dropped
+        if (i < end && data[i] == '.') {
+            for (i++; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+                hasDigits = true;
+
+                if (digits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (data[i] - '0');
+                    if (mantissa > 0)
+                        digits++;
+                    scale--;
+                }
+            }
+        }
+
+        if (!hasDigits)
+            return false;
+
+        if (i < end && (data[i] == 'e' || data[i] == 'E')) {
+            boolean negativeExponent = false;
+            int exponent = 0;
+
+            if (++i < end && (data[i] == '-' || data[i] == '+'))
+                negativeExponent = data[i++] == '-';
+
+            if (i == end)
+                return false;
+
+            for (; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+                if (exponent < MAX_EXPONENT)
+                    exponent = exponent * 10 + (data[i] - '0');
+            }
+
+            scale += negativeExponent ? -exponent : exponent;
+        }
+
+        if (i != end)
+            return false;
+
+        double value = mantissa;
+
+        if (mantissa == 0)
+            value = 0;
+        else if (scale > 0)
+            value = scale < POWERS_OF_TEN.length ?
+                    value * POWERS_OF_TEN[scale] : value * Math.pow(10, scale);
+        else if (scale < 0)
+            value = -scale < POWERS_OF_TEN.length ?
+                    value / POWERS_OF_TEN[-scale] : value / Math.pow(10, -scale);
+
+        number = negative ? -value : value;
+
+        return true;
+    }
+
+    // Decimal integer with optional sign as Long.parseLong() takes
+    private boolean parseInteger(int start, int end) {
+        int i = start;
+        boolean negative = false;
+
+        if (i < end && (data[i] == '-' || data[i] == '+'))
+            negative = data[i++] == '-';
+
+        if (i == end || end - i > MAX_DIGITS)
+            return false;
+
+        long value = 0;
+
+        for (; i < end; i++) {
+            if (data[i] < '0' || data[i] > '9')
+                return false;
+
+            value = value * 10 + (data[i] - '0');
+        }
+
+        integer = negative ? -value : value;
+
+        return true;
+    }
+}
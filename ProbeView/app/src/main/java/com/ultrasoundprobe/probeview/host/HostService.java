@@ -34,6 +34,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.drafts.Draft_17;
@@ -45,8 +46,10 @@ public class HostService extends Service {
     private static final int HOST_SOCKET_PORT = 3000;
 
     private ServiceBinder serviceBinder;
-    private List<ServiceCallback> serviceCallbacks;
-    private final Object serviceCallbackMutex = new Object();
+    // Registry of callbacks copied on write, so that callbacks are dispatched from any
+    // thread without a lock while a listener registers or unregisters
+    private final CopyOnWriteArrayList<ServiceCallback> serviceCallbacks =
+            new CopyOnWriteArrayList<>();
 
     private Handler handler;
     private Runnable runnable;
@@ -87,7 +90,6 @@ public class HostService extends Service {
         Log.d(TAG, "onCreate()");
 
         serviceBinder = new HostService.ServiceBinder();
-        serviceCallbacks = new ArrayList<>();
 
         // Setup timer
         handler = new Handler();
@@ -96,12 +98,11 @@ public class HostService extends Service {
             public void run() {
                 long startTime = System.currentTimeMillis();
 
-                synchronized (serviceCallbackMutex) {
-                    for (ServiceCallback serviceCallback : serviceCallbacks) {
-                        if (serviceCallback == null)
-                            continue;
-
+                for (ServiceCallback serviceCallback : serviceCallbacks) {
+                    try {
                         serviceCallback.onTimerExpired(hostInfo);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to handle timer: " + e.getMessage());
                     }
                 }
 
@@ -139,43 +140,24 @@ public class HostService extends Service {
     }
 
     public boolean registerCallback(ServiceCallback callback) {
-        if (serviceCallbacks.contains(callback))
-            return true;
-        else {
-            boolean ret;
-
-            synchronized (serviceCallbackMutex) {
-                ret = serviceCallbacks.add(callback);
-            }
-
-            if (!ret) {
-                Log.e(TAG, "Failed to register callback (" + callback + ")");
-                return false;
-            }
+        if (callback == null) {
+            Log.e(TAG, "Failed to register callback (" + callback + ")");
+            return false;
         }
 
+        // A callback registered before is kept as is
+        serviceCallbacks.addIfAbsent(callback);
+
         // Log.d(TAG, "Callback has been registered (" + callback + ")");
 
         return true;
     }
 
     public boolean unregisterCallback(ServiceCallback callback) {
-        if (!serviceCallbacks.contains(callback)) {
+        if (!serviceCallbacks.remove(callback)) {
             Log.e(TAG, "Callback had not been registered before (" + callback + ")");
             return false;
         }
-        else {
-            boolean ret;
-
-            synchronized (serviceCallbackMutex) {
-                ret = serviceCallbacks.remove(callback);
-            }
-
-            if (!ret) {
-                Log.e(TAG, "Failed to unregister callback (" + callback + ")");
-                return false;
-            }
-        }
 
         // Log.d(TAG, "Callback has been unregistered (" + callback + ")");
 
@@ -254,12 +236,11 @@ public class HostService extends Service {
 
                 isImageTransferThreadRunning = true;
 
-                synchronized (serviceCallbackMutex) {
-                    for (ServiceCallback serviceCallback : serviceCallbacks) {
-                        if (serviceCallback == null)
-                            continue;
-
+                for (ServiceCallback serviceCallback : serviceCallbacks) {
+                    try {
                         serviceCallback.onHostConnected(hostInfo);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to handle connection: " + e.getMessage());
                     }
                 }
 
@@ -280,12 +261,11 @@ public class HostService extends Service {
                     disconnectHost(false);
                 }
 
-                synchronized (serviceCallbackMutex) {
-                    for (ServiceCallback serviceCallback : serviceCallbacks) {
-                        if (serviceCallback == null)
-                            continue;
-
+                for (ServiceCallback serviceCallback : serviceCallbacks) {
+                    try {
                         serviceCallback.onHostDisconnected(hostInfo);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to handle disconnection: " + e.getMessage());
                     }
                 }
 
@@ -539,8 +519,7 @@ public class HostService extends Service {
             return false;
 
         imageDownload = null;
-        imageDownload = new ImageDownload(hostInfo, serviceCallbacks,
-                serviceCallbackMutex);
+        imageDownload = new ImageDownload(hostInfo, serviceCallbacks);
 
         return imageDownload.execute(url) == imageDownload;
     }
@@ -555,18 +534,14 @@ public class HostService extends Service {
     private static class ImageDownload extends AsyncTask<String, Void, Bitmap[]> {
         private final HostInfo hostInfo;
         private final List<ServiceCallback> serviceCallbacks;
-        private final Object serviceCallbackMutex;
 
-        public ImageDownload(HostInfo hostInfo, List<ServiceCallback> serviceCallbacks,
-                             Object serviceCallbackMutex) {
+        public ImageDownload(HostInfo hostInfo, List<ServiceCallback> serviceCallbacks) {
             this.hostInfo = hostInfo;
 
             if (serviceCallbacks == null)
                 this.serviceCallbacks = new ArrayList<>();
             else
                 this.serviceCallbacks = serviceCallbacks;
-
-            this.serviceCallbackMutex = serviceCallbackMutex;
         }
 
         @Override
@@ -594,12 +569,11 @@ public class HostService extends Service {
                 if (bitmap == null)
                     continue;
 
-                synchronized (serviceCallbackMutex) {
-                    for (ServiceCallback serviceCallback : serviceCallbacks) {
-                        if (serviceCallback == null)
-                            continue;
-
+                for (ServiceCallback serviceCallback : serviceCallbacks) {
+                    try {
                         serviceCallback.onImageReceived(hostInfo, bitmap);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to handle received image: " + e.getMessage());
                     }
                 }
             }
@@ -10,8 +10,11 @@ import android.view.ScaleGestureDetector;
 import com.ultrasoundprobe.probeview.AppConfig;
 import com.ultrasoundprobe.probeview.device.DeviceService;
 import com.ultrasoundprobe.probeview.navigation.drawing.SurfaceInterface;
+import com.ultrasoundprobe.probeview.navigation.location.BackgroundEstimator;
 import com.ultrasoundprobe.probeview.navigation.location.DataConvert;
+import com.ultrasoundprobe.probeview.navigation.location.KalmanTracker;
 import com.ultrasoundprobe.probeview.navigation.location.LocationData;
+import com.ultrasoundprobe.probeview.navigation.pipeline.NavigationPipeline;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -33,8 +36,31 @@ public class NavigationView extends GLSurfaceView implements
     private float motionDeltaX, motionDeltaY;
     private float motionScale = MOTION_SCALE_DEFAULT;
 
-    private DeviceService.ImuData[] imuBuffersFromActiveCoils = null;
-    private DeviceService.ImuData[] imuBuffersFromInactiveCoils = null;
+    // IMU data of a complete coil cycle passed to the algorithm
+    private static class ImuFrame {
+        public final DeviceService.ImuData[] valuesFromActiveCoils;
+        public final DeviceService.ImuData[] valuesFromInactiveCoils;
+        // Times of System.nanoTime() when IMU data of each active coil was sampled,
+        // null if not known
+        public final long[] activeTimes;
+
+        public ImuFrame(DeviceService.ImuData[] valuesFromActiveCoils,
+                        DeviceService.ImuData[] valuesFromInactiveCoils,
+                        long[] activeTimes) {
+            this.valuesFromActiveCoils = valuesFromActiveCoils;
+            this.valuesFromInactiveCoils = valuesFromInactiveCoils;
+            this.activeTimes = activeTimes;
+        }
+    }
+
+    // Algorithm runs on one long-lived thread so the engine stays warm on it
+    private final SolverWorker<ImuFrame> solverWorker;
+
+    // Samples of IMU data run through pipelined stages instead, null if not enabled
+    private NavigationPipeline navigationPipeline;
+
+    // Location passed to surface on every update, reused as the surface copies it
+    private final LocationData viewLocation = new LocationData();
     private long updateStartTime = -1;
 
     public NavigationView(Context context) {
@@ -53,16 +79,35 @@ public class NavigationView extends GLSurfaceView implements
 
         dataConvert = new DataConvert(context,
                 // Use Python algorithm engine for data conversion
-                DataConvert.EngineType.PythonAlgoBackend,
+                // DataConvert.EngineType.PythonAlgoBackend,
                 // Use native algorithm engine for data conversion
-                // DataConvert.EngineType.NativeLeastSquareLM,
+                DataConvert.EngineType.NativeLeastSquareLM,
+                // Use native algorithm engine with angle X and Y by accelerometer data
+                // DataConvert.EngineType.NativeLeastSquareLMTiltConstraint,
+                // Use native algorithm engine with parallel seeds for data conversion
+                // DataConvert.EngineType.NativeLeastSquareLMMultiStart,
+                // Use nearest precomputed location only for data conversion
+                // DataConvert.EngineType.FingerprintLookup,
                 // Use remote algorithm engine for data conversion
                 // DataConvert.EngineType.RemoteAlgoBackend,
                 // Provide view constraint to the class for data conversion
                 this.surfaceInterface.getViewMaxLocation());
 
         // Enable debug output
-        dataConvert.setDebug(AppConfig.NavigationAlgorithmDebug);
+        dataConvert.setDebug(AppConfig.NavigationSolveDebug);
+
+        // Keep algorithm time within the period of IMU data
+        dataConvert.setAdaptiveTimeBudget(AppConfig.NavigationAdaptiveTimeBudget);
+
+        // Track locations between algorithm results
+        if (AppConfig.NavigationLocationTracking)
+            dataConvert.setTracker(new KalmanTracker());
+
+        // Keep a running background instead of the one of each coil cycle
+        if (AppConfig.NavigationBackgroundEstimation)
+            dataConvert.setBackgroundEstimator(new BackgroundEstimator());
+
+        solverWorker = new SolverWorker<>("NavigationSolver", this::runAlgorithm);
     }
 
     @Override
@@ -165,15 +210,42 @@ public class NavigationView extends GLSurfaceView implements
     }
 
     public void releaseSurface() {
-        // TODO: Wait thread to terminate
+        // The algorithm thread quits after the frame in progress
+        solverWorker.quit();
+
+        if (navigationPipeline != null)
+            navigationPipeline.quit();
+
         super.onDetachedFromWindow();
     }
 
     public boolean updateImuData(DeviceService.ImuData[] valuesFromActiveCoils,
                                  DeviceService.ImuData[] valuesFromInactiveCoils) {
+        return updateImuData(valuesFromActiveCoils, valuesFromInactiveCoils,
+                System.nanoTime());
+    }
+
+    // Same as above with the time of System.nanoTime() when the coil cycle is complete,
+    // such as the latest step time of the coil switch
+    public boolean updateImuData(DeviceService.ImuData[] valuesFromActiveCoils,
+                                 DeviceService.ImuData[] valuesFromInactiveCoils,
+                                 long cycleTime) {
+        return updateImuData(valuesFromActiveCoils, valuesFromInactiveCoils, null,
+                cycleTime);
+    }
+
+    // Same as above with times of System.nanoTime() when IMU data of each active coil
+    // was sampled, so that the location is tracked at the time of its samples
+    public boolean updateImuData(DeviceService.ImuData[] valuesFromActiveCoils,
+                                 DeviceService.ImuData[] valuesFromInactiveCoils,
+                                 long[] activeTimes, long cycleTime) {
         if (surfaceInterface == null || dataConvert == null)
             return false;
 
+        // Every coil cycle counts towards the time budget, even those replaced before
+        // they are solved
+        dataConvert.updateCycleTime(cycleTime);
+
         // Measurement of interval time between consecutive call to algorithm
         if (updateStartTime < 0)
             updateStartTime = System.currentTimeMillis();
@@ -181,25 +253,47 @@ public class NavigationView extends GLSurfaceView implements
                 (System.currentTimeMillis() - updateStartTime) + "ms");
         updateStartTime = System.currentTimeMillis();
 
-        // Offload algorithm call to another thread so it does not block UI update
-        if (isImuBufferEmpty()) {
-            imuBuffersFromActiveCoils = valuesFromActiveCoils;
-            imuBuffersFromInactiveCoils = valuesFromInactiveCoils;
+        // Offload algorithm call to the algorithm thread so it does not block UI update,
+        // a frame still waiting for the algorithm is replaced by this one
+        return solverWorker.post(new ImuFrame(valuesFromActiveCoils, valuesFromInactiveCoils,
+                activeTimes));
+    }
 
-            // Start running algorithm call
-            new Thread() {
-                @Override
-                public void run() {
-                    runAlgorithm();
-                }
-            }.start();
-        }
+    // Start stages of navigation pipeline with coil cycles assembled by the assembler
+    public void setSampleAssembler(NavigationPipeline.SampleAssembler assembler) {
+        if (!AppConfig.NavigationPipeline || surfaceInterface == null || dataConvert == null)
+            return;
 
-        return true;
+        if (navigationPipeline != null)
+            navigationPipeline.quit();
+
+        navigationPipeline = new NavigationPipeline(dataConvert, assembler,
+                value -> surfaceInterface.onLocationDataUpdated(NavigationView.this, value));
+        navigationPipeline.setDebug(AppConfig.NavigationAlgorithmDebug);
+        navigationPipeline.start();
+    }
+
+    public boolean isPipelineEnabled() {
+        return navigationPipeline != null;
+    }
+
+    // Post a sample of IMU data with coil switch states and its sample time of
+    // System.nanoTime() to the navigation pipeline
+    public boolean postImuSample(DeviceService.ImuData value,
+                                 DeviceService.GpioData gpioData,
+                                 long timestamp) {
+        if (navigationPipeline == null)
+            return false;
+
+        return navigationPipeline.postSample(value, gpioData, timestamp);
     }
 
     public boolean isImuBufferEmpty() {
-        return imuBuffersFromActiveCoils == null && imuBuffersFromInactiveCoils == null;
+        return solverWorker.isIdle();
+    }
+
+    public long getDroppedFrameCount() {
+        return solverWorker.getDroppedFrameCount();
     }
 
     public SurfaceInterface getSurfaceInterface() {
@@ -210,28 +304,31 @@ public class NavigationView extends GLSurfaceView implements
         return dataConvert;
     }
 
-    private void runAlgorithm() {
+    private void runAlgorithm(ImuFrame frame) {
         if (surfaceInterface != null && dataConvert != null) {
-            Log.d(TAG, "Start running algorithm " +
-                    dataConvert.getEngine().getClass().getSimpleName());
+            // Logs of each solve build strings on every frame, only for debug
+            if (AppConfig.NavigationSolveDebug)
+                Log.d(TAG, "Start running algorithm " +
+                        dataConvert.getEngine().getClass().getSimpleName());
 
             long startTime = System.currentTimeMillis();
 
-            LocationData location = dataConvert.getViewData(
-                    imuBuffersFromActiveCoils, imuBuffersFromInactiveCoils);
+            boolean isLocated = dataConvert.getViewData(
+                    frame.valuesFromActiveCoils, frame.valuesFromInactiveCoils,
+                    frame.activeTimes, viewLocation);
 
-            Log.d(TAG, "Algorithm finished with " +
-                    (System.currentTimeMillis() - startTime) + "ms");
+            if (AppConfig.NavigationSolveDebug)
+                Log.d(TAG, "Algorithm finished with " +
+                        (System.currentTimeMillis() - startTime) + "ms (" +
+                        dataConvert.getReport() + ", " +
+                        solverWorker.getDroppedFrameCount() + " frames dropped)");
 
-            if (location != null) {
+            if (isLocated) {
                 // Update model view by the location results
-                surfaceInterface.onLocationDataUpdated(NavigationView.this, location);
+                surfaceInterface.onLocationDataUpdated(NavigationView.this, viewLocation);
             } else {
                 Log.e(TAG, "Invalid location from algorithm");
             }
         }
-
-        imuBuffersFromActiveCoils = null;
-        imuBuffersFromInactiveCoils = null;
     }
 }
@@ -0,0 +1,109 @@
+package com.ultrasoundprobe.probeview.navigation;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// Long-lived worker thread fed by a single-slot mailbox, a frame posted while the
+// worker is busy replaces any frame still waiting so the latest frame always wins
+public class SolverWorker<T> {
+    private static final String TAG = "SolverWorker";
+
+    public interface FrameHandler<T> {
+        void onFrame(T frame);
+    }
+
+    private final FrameHandler<T> handler;
+    private final Thread thread;
+
+    private final AtomicReference<T> mailbox = new AtomicReference<>();
+    private volatile boolean isBusy = false;
+    private volatile boolean isRunning = true;
+
+    // Frames posted, frames replaced in the mailbox before the worker took them, and
+    // frames handled by the worker
+    private final AtomicLong postedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong handledFrames = new AtomicLong();
+
+    public SolverWorker(String name, FrameHandler<T> handler) {
+        this.handler = handler;
+
+        thread = new Thread(this::run, name);
+        thread.start();
+    }
+
+    // Post a frame from any thread without blocking, return false if the worker quit
+    public boolean post(T frame) {
+        if (!isRunning)
+            return false;
+
+        postedFrames.incrementAndGet();
+
+        if (mailbox.getAndSet(frame) != null)
+            droppedFrames.incrementAndGet();
+
+        LockSupport.unpark(thread);
+
+        return true;
+    }
+
+    // Whether no frame is waiting and the worker is not handling a frame
+    public boolean isIdle() {
+        return mailbox.get() == null && !isBusy;
+    }
+
+    public void quit() {
+        isRunning = false;
+        mailbox.set(null);
+        LockSupport.unpark(thread);
+    }
+
+    public long getPostedFrameCount() {
+        return postedFrames.get();
+    }
+
+    public long getDroppedFrameCount() {
+        return droppedFrames.get();
+    }
+
+    public long getHandledFrameCount() {
+        return handledFrames.get();
+    }
+
+    private void run() {
+        while (isRunning) {
+            // Mark busy before taking the frame so that the worker is never seen idle
+            // with a frame in hand
+            isBusy = true;
+
+            T frame = mailbox.getAndSet(null);
+
+            if (frame == null) {
+                isBusy = false;
+
+                // Check again after clearing busy flag for a frame posted in between,
+                // a spurious wakeup only costs another check
+                if (mailbox.get() == null && isRunning)
+                    LockSupport.park(this);
+
+                continue;
+            }
+
+            try {
+                handler.onFrame(frame);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to handle frame: " + e.getMessage());
+            }
+
+            handledFrames.incrementAndGet();
+        }
+
+        isBusy = false;
+
+        Log.d(TAG, thread.getName() + " quit after " + handledFrames.get() +
+                " frames handled, " + droppedFrames.get() + " frames dropped");
+    }
+}
@@ -0,0 +1,162 @@
+package com.ultrasoundprobe.probeview.navigation.location;
+
+import android.util.Log;
+
+// Online estimate of the ambient magnetic field (earth and nearby iron) from samples
+// of inactive coils, updated on every sample instead of averaging each coil cycle
+public class BackgroundEstimator {
+    private static final String TAG = "BackgroundEstimator";
+
+    private static final int LENGTH = 3;
+
+    // Weight of each sample in the running mean and variance, samples are averaged
+    // with equal weights until there are as many as the inverse of the weight
+    private static final double DEFAULT_WEIGHT = 0.05;
+
+    // Squared normalized distance for a sample to be rejected as an outlier (chi-square
+    // of 3 degrees of freedom at about 99.9%), number of samples before the gate
+    // applies, and number of consecutive outliers to restart from the latest sample
+    private static final double OUTLIER_GATE = 16.0;
+    private static final int MIN_SAMPLES = 3;
+    private static final int MAX_OUTLIERS = 3;
+
+    // Variance floor of each axis, so that a steady background does not gate out
+    // samples differing by sensor noise only
+    private static final double MIN_VARIANCE = 1.0;
+
+    private final double weight;
+
+    private final double[] mean = new double[LENGTH];
+    private final double[] variance = new double[LENGTH];
+    private int count = 0;
+    private int outlierCount = 0;
+
+    // Time of the latest sample taken with a time
+    private long lastSampleTime = Long.MIN_VALUE;
+
+    public BackgroundEstimator() {
+        this(DEFAULT_WEIGHT);
+    }
+
+    public BackgroundEstimator(double weight) {
+        this.weight = weight;
+    }
+
+    public synchronized void reset() {
+        count = 0;
+        outlierCount = 0;
+        lastSampleTime = Long.MIN_VALUE;
+    }
+
+    // Update the estimate by a sample [Bx, By, Bz] of an inactive coil, return false
+    // if the sample is rejected
+    public synchronized boolean update(double x, double y, double z) {
+        if (count >= MIN_SAMPLES) {
+            double distance = getDistance(0, x) + getDistance(1, y) + getDistance(2, z);
+
+            if (distance > OUTLIER_GATE) {
+                if (++outlierCount < MAX_OUTLIERS)
+                    return false;
+
+                // Consecutive outliers mean the background did change, such as the
+                // probe turned in the earth field, start over
+                Log.d(TAG, "Restart estimate after " + outlierCount + " outliers");
+                count = 0;
+            }
+        }
+
+        outlierCount = 0;
+
+        // Equal weights first so that the estimate settles within a few samples,
+        // exponential weights afterwards to follow slow drift of the background
+        double w = Math.max(weight, 1.0 / ++count);
+
+        update(0, x, w);
+        update(1, y, w);
+        update(2, z, w);
+
+        return true;
+    }
+
+    // Same as above for all samples [Bx0, By0, Bz0, ...] in values
+    public synchronized int update(double[] values) {
+        int accepted = 0;
+
+        for (int i = 0; i + 2 < values.length; i += 3) {
+            if (update(values[i], values[i + 1], values[i + 2]))
+                accepted++;
+        }
+
+        return accepted;
+    }
+
+    // Same as above for samples taken at times of System.nanoTime(), samples not newer
+    // than those of the last update are skipped, so that a sample passed again along
+    // with newer ones, or shared by more than one coil, is taken once
+    public synchronized int update(double[] values, long[] times) {
+        long latestTime = lastSampleTime;
+        int accepted = 0;
+
+        for (int i = 0; i + 2 < values.length && i / 3 < times.length; i += 3) {
+            if (times[i / 3] <= lastSampleTime || isTakenBefore(times, i / 3))
+                continue;
+
+            latestTime = Math.max(latestTime, times[i / 3]);
+
+            if (update(values[i], values[i + 1], values[i + 2]))
+                accepted++;
+        }
+
+        lastSampleTime = latestTime;
+
+        return accepted;
+    }
+
+    // Background [Bx, By, Bz], return false if there is no sample yet
+    public synchronized boolean getBackground(double[] background) {
+        if (count == 0)
+            return false;
+
+        System.arraycopy(mean, 0, background, 0, LENGTH);
+
+        return true;
+    }
+
+    // Variance of samples of each axis around the background
+    public synchronized boolean getVariance(double[] variance) {
+        if (count == 0)
+            return false;
+
+        System.arraycopy(this.variance, 0, variance, 0, LENGTH);
+
+        return true;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    private static boolean isTakenBefore(long[] times, int index) {
+        for (int i = 0; i < index; i++) {
+            if (times[i] == times[index])
+                return true;
+        }
+
+        return false;
+    }
+
+    private double getDistance(int i, double value) {
+        double delta = value - mean[i];
+
+        return delta * delta / Math.max(variance[i], MIN_VARIANCE);
+    }
+
+    // Weighted update of mean and variance, which is Welford's algorithm for a weight
+    // of 1/n and an exponentially weighted one for a fixed weight
+    private void update(int i, double value, double w) {
+        double delta = value - mean[i];
+
+        mean[i] += w * delta;
+        variance[i] = (1 - w) * (variance[i] + w * delta * delta);
+    }
+}
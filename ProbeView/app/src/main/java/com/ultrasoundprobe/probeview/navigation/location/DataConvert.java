@@ -5,34 +5,123 @@ import android.util.Log;
 
 import com.ultrasoundprobe.probeview.device.DeviceService;
 import com.ultrasoundprobe.probeview.navigation.location.algorithm.BaseEngine;
+import com.ultrasoundprobe.probeview.navigation.location.algorithm.FingerprintEngine;
+import com.ultrasoundprobe.probeview.navigation.location.algorithm.FingerprintIndex;
+import com.ultrasoundprobe.probeview.navigation.location.algorithm.MultiStartLM;
+import com.ultrasoundprobe.probeview.navigation.location.algorithm.NativeLeastSquareLM;
 import com.ultrasoundprobe.probeview.navigation.location.algorithm.PythonAlgoBackend;
 import com.ultrasoundprobe.probeview.navigation.location.algorithm.RemoteAlgoBackend;
+import com.ultrasoundprobe.probeview.navigation.location.algorithm.SolverReport;
 
+import java.io.File;
 import java.util.Arrays;
 
 public class DataConvert {
     private static final String TAG = "DataConvert";
 
+    // File of precomputed magnetic data for initial guess of native algorithm engines
+    private static final String FINGERPRINT_INDEX_FILE = "fingerprint_index.bin";
+    private static final Object FINGERPRINT_INDEX_LOCK = new Object();
+
+    // Number of coils of IMU data passed in a conversion
+    private static final int COIL_COUNT = 3;
+
     public enum EngineType {
         PythonAlgoBackend,
-        RemoteAlgoBackend
+        RemoteAlgoBackend,
+        NativeLeastSquareLM,
+        NativeLeastSquareLMMultiStart,
+        NativeLeastSquareLMTiltConstraint,
+        FingerprintLookup
     }
 
     private final BaseEngine algoEngine;
 
+    // Time budget of the algorithm relative to the period of coil cycles, so that
+    // conversion keeps up with the coil cycle, and the minimum time budget
+    private static final double TIME_BUDGET_RATIO = 0.5;
+    private static final long MIN_TIME_BUDGET = 5000000;
+
+    // Weight of each interval in the running period of coil cycles, intervals longer
+    // than the maximum period are pauses of the coil cycle rather than its period
+    private static final double PERIOD_WEIGHT = 0.2;
+    private static final long MAX_PERIOD = 10000000000L;
+
+    // Length of location [px, py, pz, ax, ay, az] in engine units
+    private static final int LOCATION_LENGTH = 6;
+
     private final LocationData viewInfo;
+    private final LocationData maxLocation;
     private boolean isDebug = false;
 
+    // Last good location in engine units for warm start of the algorithm
+    private final double[] priorLocation = new double[LOCATION_LENGTH];
+    private boolean hasPriorLocation = false;
+
+    // Optional tracking stage over locations solved by the algorithm
+    private LocationTracker tracker = null;
+    private final double[] predictedLocation = new double[LOCATION_LENGTH];
+
+    // Optional running estimate of background over samples of inactive coils, instead
+    // of the average of inactive coils of each cycle
+    private BackgroundEstimator backgroundEstimator = null;
+    private final double[] background = new double[3];
+
+    // Running period of coil cycles in nanoseconds for the adaptive time budget, taken
+    // on the thread completing coil cycles and passed to the solving thread, 0 for no
+    // time budget until the period is known
+    private volatile boolean isAdaptiveTimeBudget = false;
+    private long lastTimestamp = 0;
+    private double period = Double.NaN;
+    private volatile long timeBudget = 0;
+
+    // Buffers reused by every call so that steady-state conversion is garbage free
+    private final double[] activeValues = new double[COIL_COUNT * 3];
+    private final double[] inactiveValues = new double[COIL_COUNT * 3];
+    private final double[] gravityValues = new double[COIL_COUNT * 3];
+    private final double[] location = new double[LOCATION_LENGTH];
+    private final SolverReport report = new SolverReport();
+
     public DataConvert(Context context, EngineType type, LocationData viewInfo) {
         if (type == EngineType.PythonAlgoBackend)
             algoEngine = new PythonAlgoBackend(context);
         else if (type == EngineType.RemoteAlgoBackend)
             algoEngine = new RemoteAlgoBackend();
-        else
+        else if (type == EngineType.NativeLeastSquareLM) {
+            NativeLeastSquareLM engine = new NativeLeastSquareLM();
+
+            openFingerprintIndex(context, engine, engine::setSeedIndex);
+            algoEngine = engine;
+        } else if (type == EngineType.NativeLeastSquareLMTiltConstraint) {
+            NativeLeastSquareLM engine = new NativeLeastSquareLM();
+
+            openFingerprintIndex(context, engine, engine::setSeedIndex);
+            engine.setTiltConstraint(true);
+            algoEngine = engine;
+        } else if (type == EngineType.NativeLeastSquareLMMultiStart) {
+            MultiStartLM engine = new MultiStartLM();
+
+            openFingerprintIndex(context, engine, engine::setSeedIndex);
+            algoEngine = engine;
+        } else if (type == EngineType.FingerprintLookup) {
+            FingerprintEngine engine = new FingerprintEngine();
+
+            openFingerprintIndex(context, engine, engine::setIndex);
+            algoEngine = engine;
+        } else
             // Set default algorithm engine
             algoEngine = new PythonAlgoBackend(context);
 
         this.viewInfo = viewInfo;
+        this.maxLocation = algoEngine.getMaxLocation();
+    }
+
+    // Convert by an engine set up by the caller
+    public DataConvert(BaseEngine engine, LocationData viewInfo) {
+        algoEngine = engine;
+
+        this.viewInfo = viewInfo;
+        this.maxLocation = algoEngine.getMaxLocation();
     }
 
     public void setDebug(boolean enable) {
@@ -43,106 +132,338 @@ public class DataConvert {
         return algoEngine;
     }
 
+    public void setTracker(LocationTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    public LocationTracker getTracker() {
+        return tracker;
+    }
+
+    public void setBackgroundEstimator(BackgroundEstimator estimator) {
+        backgroundEstimator = estimator;
+    }
+
+    public BackgroundEstimator getBackgroundEstimator() {
+        return backgroundEstimator;
+    }
+
+    // Update the background estimator by magnetic values [Bx0, By0, Bz0, ...] sampled
+    // while all coils are off, return false if there is no estimator
+    public boolean updateBackground(double[] valuesFromInactiveCoils) {
+        return updateBackground(valuesFromInactiveCoils, null);
+    }
+
+    // Same as above with times of System.nanoTime() when the values were sampled, so
+    // that values passed again in a later conversion are not taken twice
+    public boolean updateBackground(double[] valuesFromInactiveCoils, long[] times) {
+        BackgroundEstimator estimator = backgroundEstimator;
+
+        if (estimator == null || valuesFromInactiveCoils == null)
+            return false;
+
+        if (times != null)
+            estimator.update(valuesFromInactiveCoils, times);
+        else
+            estimator.update(valuesFromInactiveCoils);
+
+        return true;
+    }
+
+    // Limit each conversion to a time budget adapted to the period of coil cycles, the
+    // algorithm returns its best location so far once it runs out of time
+    public void setAdaptiveTimeBudget(boolean enable) {
+        isAdaptiveTimeBudget = enable;
+        lastTimestamp = 0;
+        period = Double.NaN;
+        timeBudget = 0;
+
+        if (!enable)
+            algoEngine.setTimeBudget(0);
+    }
+
+    // Take the time of System.nanoTime() at which a coil cycle is complete, such as the
+    // latest step time of the coil switch, for every coil cycle including those which
+    // are never solved, so that the time budget follows the coil cycle rather than how
+    // often the algorithm gets to run
+    public void updateCycleTime(long timestamp) {
+        if (!isAdaptiveTimeBudget)
+            return;
+
+        long interval = timestamp - lastTimestamp;
+
+        if (lastTimestamp != 0 && interval > 0 && interval < MAX_PERIOD)
+            period = Double.isNaN(period) ? interval :
+                    period + PERIOD_WEIGHT * (interval - period);
+
+        lastTimestamp = timestamp;
+
+        if (!Double.isNaN(period))
+            timeBudget = Math.max(MIN_TIME_BUDGET, (long)(TIME_BUDGET_RATIO * period));
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    // Report of the algorithm for the last conversion
+    public SolverReport getReport() {
+        return report;
+    }
+
+    public void resetPriorLocation() {
+        hasPriorLocation = false;
+
+        if (tracker != null)
+            tracker.reset();
+    }
+
+    private interface IndexListener {
+        void onIndexOpened(FingerprintIndex index);
+    }
+
+    // Open the index on a thread of its own and pass it to the engine once it is ready,
+    // as the first launch builds it, so that the caller such as the UI thread is not
+    // held up, the engine takes its default initial guess until then
+    private static void openFingerprintIndex(Context context, BaseEngine engine,
+                                             IndexListener listener) {
+        final File file = new File(context.getFilesDir(), FINGERPRINT_INDEX_FILE);
+        final LocationData max = engine.getMaxLocation();
+
+        new Thread(() -> {
+            FingerprintIndex index;
+
+            // The index is built once within bounds of the engine and reused afterwards,
+            // conversions created meanwhile wait for the build rather than build it again
+            synchronized (FINGERPRINT_INDEX_LOCK) {
+                index = FingerprintIndex.openOrBuild(file, max);
+            }
+
+            if (index == null) {
+                Log.e(TAG, "Fingerprint index not available for initial guess");
+                return;
+            }
+
+            listener.onIndexOpened(index);
+        }, TAG + "Index").start();
+    }
+
     public LocationData getViewRatio() {
         return new LocationData(
-                viewInfo.px / algoEngine.getMaxLocation().px,
-                viewInfo.py / algoEngine.getMaxLocation().py,
-                viewInfo.pz / algoEngine.getMaxLocation().pz,
+                viewInfo.px / maxLocation.px,
+                viewInfo.py / maxLocation.py,
+                viewInfo.pz / maxLocation.pz,
                 0, 0, 0, 0, 0, 0);
     }
 
     public LocationData getViewData(DeviceService.ImuData[] valuesFromActiveCoils,
                                     DeviceService.ImuData[] valuesFromInactiveCoils) {
-        // Suppress background noise from IMU data
-        if (valuesFromInactiveCoils != null) {
-            double[] magAvg = new double[] { 0, 0, 0 };
+        LocationData value = new LocationData();
+
+        return getViewData(valuesFromActiveCoils, valuesFromInactiveCoils, value) ?
+                value : null;
+    }
+
+    public boolean getViewData(DeviceService.ImuData[] valuesFromActiveCoils,
+                               DeviceService.ImuData[] valuesFromInactiveCoils,
+                               LocationData value) {
+        return getViewData(valuesFromActiveCoils, valuesFromInactiveCoils, null, value);
+    }
+
+    // Same as above with times of System.nanoTime() when IMU data of each active coil
+    // was sampled, null if not known
+    public boolean getViewData(DeviceService.ImuData[] valuesFromActiveCoils,
+                               DeviceService.ImuData[] valuesFromInactiveCoils,
+                               long[] timesFromActiveCoils,
+                               LocationData value) {
+        return getViewData(
+                getMagneticValues(valuesFromActiveCoils, activeValues),
+                valuesFromInactiveCoils != null ?
+                        getMagneticValues(valuesFromInactiveCoils, inactiveValues) : null,
+                getGravityValues(valuesFromActiveCoils, gravityValues),
+                timesFromActiveCoils, value);
+    }
+
+    public boolean getViewData(double[] valuesFromActiveCoils,
+                               double[] valuesFromInactiveCoils,
+                               LocationData value) {
+        return getViewData(valuesFromActiveCoils, valuesFromInactiveCoils, null, value);
+    }
+
+    // Convert magnetic values of active coils [Bx0, By0, Bz0, Bx1, By1, Bz1, ...] with
+    // those of inactive coils as background noise into a caller-owned view location,
+    // magnetic values of active coils are changed in place by the background noise,
+    // accelerometer data [Gx0, Gy0, Gz0, ...] of active coils is optional
+    public boolean getViewData(double[] valuesFromActiveCoils,
+                               double[] valuesFromInactiveCoils,
+                               double[] gravityFromActiveCoils,
+                               LocationData value) {
+        return getViewData(valuesFromActiveCoils, valuesFromInactiveCoils,
+                gravityFromActiveCoils, null, value);
+    }
 
-            for (DeviceService.ImuData value : valuesFromInactiveCoils) {
-                magAvg[0] += value.mx;
-                magAvg[1] += value.my;
-                magAvg[2] += value.mz;
+    // Same as above with times of System.nanoTime() when IMU data of each active coil
+    // was sampled, the location is tracked at their mean time then instead of now
+    public boolean getViewData(double[] valuesFromActiveCoils,
+                               double[] valuesFromInactiveCoils,
+                               double[] gravityFromActiveCoils,
+                               long[] timesFromActiveCoils,
+                               LocationData value) {
+        long timestamp = timesFromActiveCoils != null ?
+                getMeanTime(timesFromActiveCoils) : System.nanoTime();
+
+        removeBackground(valuesFromActiveCoils, valuesFromInactiveCoils);
+
+        if (!solveLocationData(valuesFromActiveCoils, gravityFromActiveCoils,
+                timestamp, location))
+            return false;
+
+        trackLocationData(valuesFromActiveCoils, location, report.residual, timestamp,
+                timesFromActiveCoils);
+        toViewData(location, value);
+
+        return true;
+    }
+
+    // Steps of a conversion which can also run on separate threads, one thread for each
+    // step at most: background removal, solving, tracking and view transform
+
+    // Suppress background noise, the running estimate of background or the average of
+    // magnetic values of inactive coils, from magnetic values of active coils in place
+    public void removeBackground(double[] valuesFromActiveCoils,
+                                 double[] valuesFromInactiveCoils) {
+        removeBackground(valuesFromActiveCoils, valuesFromInactiveCoils, null);
+    }
+
+    // Same as above with times when magnetic values of inactive coils were sampled
+    public void removeBackground(double[] valuesFromActiveCoils,
+                                 double[] valuesFromInactiveCoils,
+                                 long[] inactiveTimes) {
+        int activeCount = valuesFromActiveCoils.length / 3;
+        BackgroundEstimator estimator = backgroundEstimator;
+        double bx, by, bz;
+
+        if (estimator != null) {
+            // Inactive coils may not be sampled in every cycle with an estimator
+            updateBackground(valuesFromInactiveCoils, inactiveTimes);
+
+            if (!estimator.getBackground(background))
+                return;
+
+            bx = background[0];
+            by = background[1];
+            bz = background[2];
+        } else if (valuesFromInactiveCoils != null && valuesFromInactiveCoils.length >= 3) {
+            int inactiveCount = valuesFromInactiveCoils.length / 3;
+
+            bx = 0;
+            by = 0;
+            bz = 0;
+
+            for (int i = 0; i < inactiveCount; i++) {
+                bx += valuesFromInactiveCoils[i * 3];
+                by += valuesFromInactiveCoils[i * 3 + 1];
+                bz += valuesFromInactiveCoils[i * 3 + 2];
             }
 
             // Take an average over the background noise
-            magAvg[0] /= valuesFromInactiveCoils.length;
-            magAvg[1] /= valuesFromInactiveCoils.length;
-            magAvg[2] /= valuesFromInactiveCoils.length;
-
-            if (isDebug) {
-                StringBuilder valueBefore = new StringBuilder();
-                StringBuilder valueAfter = new StringBuilder();
-
-                for (DeviceService.ImuData value : valuesFromActiveCoils) {
-                    valueBefore.append("[").append(value).append("] ");
-                    value.applyBiasToMagneticData(magAvg[0], magAvg[1], magAvg[2]);
-                    valueAfter.append("[").append(value).append("] ");
-                }
-
-                Log.d(TAG, "Source change with bias " + Arrays.toString(magAvg) + ":");
-                Log.d(TAG, "\tBefore (origin): " + valueBefore);
-                Log.d(TAG, "\tAfter (with bias): " + valueAfter);
-            } else {
-                for (DeviceService.ImuData value : valuesFromActiveCoils) {
-                    value.applyBiasToMagneticData(magAvg[0], magAvg[1], magAvg[2]);
-                }
-            }
+            bx /= inactiveCount;
+            by /= inactiveCount;
+            bz /= inactiveCount;
+        } else
+            return;
+
+        if (isDebug) {
+            Log.d(TAG, "Source change with bias " +
+                    Arrays.toString(new double[] { bx, by, bz }) + ":");
+            Log.d(TAG, "\tBefore (origin): " + Arrays.toString(valuesFromActiveCoils));
         }
 
-        LocationData value = getLocationData(valuesFromActiveCoils);
-        LocationData ratio = getViewRatio();
+        // Suppress background noise from IMU data
+        for (int i = 0; i < activeCount; i++) {
+            valuesFromActiveCoils[i * 3] -= bx;
+            valuesFromActiveCoils[i * 3 + 1] -= by;
+            valuesFromActiveCoils[i * 3 + 2] -= bz;
+        }
 
-        if (value == null)
-            return null;
+        if (isDebug)
+            Log.d(TAG, "\tAfter (with bias): " + Arrays.toString(valuesFromActiveCoils));
+    }
 
-        // Scale positions of algorithm result to fit into view ranges
-        value.px *= ratio.px;
-        value.py *= ratio.py;
-        value.pz *= ratio.pz;
+    // Location of the tracker predicted at a timestamp of System.nanoTime() in view
+    // coordinates, so that the view can move between locations solved by the algorithm
+    public boolean getPredictedViewData(long timestamp, LocationData value) {
+        LocationTracker tracker = this.tracker;
 
-        // Convert angles of algorithm result from radian to degree
-        value.ax = Math.toDegrees(value.ax);
-        value.ay = Math.toDegrees(value.ay);
-        value.az = Math.toDegrees(value.az);
+        synchronized (predictedLocation) {
+            if (tracker == null || !tracker.predict(timestamp, predictedLocation))
+                return false;
 
-        // Transform coordinates of algorithm result to fit into view coordinates
-        return transformViewCoordinate(value);
+            toViewData(predictedLocation, value);
+        }
+
+        return true;
+    }
+
+    // Take a location in engine units into view coordinates
+    public void toViewData(double[] location, LocationData value) {
+        // Scale positions of algorithm result to fit into view ranges, convert angles
+        // from radian to degree, then transform coordinates to fit into view coordinates
+        transformViewCoordinate(
+                location[0] * viewInfo.px / maxLocation.px,
+                location[1] * viewInfo.py / maxLocation.py,
+                location[2] * viewInfo.pz / maxLocation.pz,
+                Math.toDegrees(location[3]),
+                Math.toDegrees(location[4]),
+                Math.toDegrees(location[5]),
+                value);
     }
 
-    private LocationData getLocationData(DeviceService.ImuData[] values) {
+    // Solve location in engine units from magnetic values sampled at a timestamp of
+    // System.nanoTime(), with a warm start from the last location or the tracker
+    public boolean solveLocationData(double[] values, double[] gravity, long timestamp,
+                                     double[] location) {
+        return solveLocationData(values, null, gravity, timestamp, location);
+    }
+
+    // Same as above with variance of each magnetic value, so that the algorithm weights
+    // values by their noise, null to weight all values equally
+    public boolean solveLocationData(double[] values, double[] variance, double[] gravity,
+                                     long timestamp, double[] location) {
         long startTime = System.currentTimeMillis();
 
-        LocationData location = algoEngine.getLocationData(values);
+        algoEngine.setMagneticVariance(variance);
+
+        boolean solved = solve(values, gravity, timestamp, location);
 
         long elapsedTime = System.currentTimeMillis() - startTime;
 
         if (isDebug) {
-            StringBuilder message = new StringBuilder();
-            LocationData location_ = null;
+            LocationData location_ = solved ? new LocationData(
+                    location[0], location[1], location[2],
+                    location[3], location[4], location[5],
+                    0, 0, 0) : null;
 
-            for (DeviceService.ImuData value : values) {
-                message.append("[").append(value).append("] ");
-            }
-
-            if (location != null) {
-                location_ = new LocationData(location.getValues());
+            Log.d(TAG, "Source: " + Arrays.toString(values));
+            Log.d(TAG, "Time: " + elapsedTime + "ms, " + report);
+            Log.d(TAG, "Location (angle in Radian): " +
+                    (location_ != null ? Arrays.toString(location_.getValues()) : "[]"));
 
+            if (location_ != null) {
                 // Transform angle from radian to degree unit
-                location_.ax = Math.toDegrees(location.ax);
-                location_.ay = Math.toDegrees(location.ay);
-                location_.az = Math.toDegrees(location.az);
+                Log.d(TAG, "Location (angle in Degree): " + Arrays.toString(new double[] {
+                        location_.px, location_.py, location_.pz,
+                        Math.toDegrees(location_.ax),
+                        Math.toDegrees(location_.ay),
+                        Math.toDegrees(location_.az) }));
+            } else {
+                Log.d(TAG, "Location (angle in Degree): []");
             }
 
-            Log.d(TAG, "Source: " + message);
-            Log.d(TAG, "Time: " + elapsedTime + "ms");
-            Log.d(TAG, "Location (angle in Radian): " +
-                    (location != null ? Arrays.toString(location.getValues()) : "[]"));
-            Log.d(TAG, "Location (angle in Degree): " +
-                    (location_ != null ? Arrays.toString(location_.getValues()) : "[]"));
-
-            message = new StringBuilder();
+            StringBuilder message = new StringBuilder();
 
-            for (int i = 0; i < values.length; i++) {
-                MagneticData magnetic = algoEngine.getMagneticData(location,
+            for (int i = 0; i < values.length / 3; i++) {
+                MagneticData magnetic = algoEngine.getMagneticData(location_,
                         algoEngine.getCoilId(i));
 
                 message.append(magnetic != null ?
@@ -152,10 +473,112 @@ public class DataConvert {
             Log.d(TAG, "Reverted source: " + message);
         }
 
-        return location;
+        return solved;
+    }
+
+    // Update the tracker by a location solved from magnetic values, the location is
+    // replaced in place by location of the track
+    public void trackLocationData(double[] magnetic, double[] location, double residual,
+                                  long timestamp) {
+        trackLocationData(magnetic, location, residual, timestamp, null);
+    }
+
+    // Same as above for magnetic values of each coil sampled at times of
+    // System.nanoTime() around the timestamp, as a window of the latest samples of
+    // each coil, null if not known
+    public void trackLocationData(double[] magnetic, double[] location, double residual,
+                                  long timestamp, long[] sampleTimes) {
+        LocationTracker tracker = this.tracker;
+
+        if (tracker == null || !BaseEngine.isWarmStartAcceptable(magnetic, residual))
+            return;
+
+        // Take location of the track, or its prediction for a rejected location
+        if (tracker.update(location, residual, timestamp, sampleTimes))
+            tracker.getLocation(location);
+        else
+            tracker.predict(timestamp, location);
+    }
+
+    private boolean solve(double[] magnetic, double[] gravity, long timestamp,
+                          double[] location) {
+        // No time budget until the period of coil cycles is known
+        if (isAdaptiveTimeBudget && timeBudget > 0)
+            algoEngine.setTimeBudget(timeBudget);
+
+        // Location predicted by the tracker is a better initial guess than the last one
+        if (tracker != null && tracker.predict(timestamp, priorLocation))
+            hasPriorLocation = true;
+
+        boolean prior = hasPriorLocation;
+        boolean solved = algoEngine.getLocationData(magnetic, gravity,
+                prior ? priorLocation : null, location, report);
+        boolean converged = BaseEngine.isWarmStartAcceptable(magnetic, report.residual);
+
+        if (prior && (!solved || !converged) && !report.partial) {
+            // Residuals blow up from last location, fall back to a cold start unless
+            // there is no time left
+            if (isDebug)
+                Log.d(TAG, "Residual " + report.residual +
+                        " from warm start, try again with cold start");
+
+            solved = algoEngine.getLocationData(magnetic, gravity, null, location, report);
+            converged = BaseEngine.isWarmStartAcceptable(magnetic, report.residual);
+        }
+
+        // Keep a copy of the result since it is changed by tracking and scaled for view
+        // afterwards
+        hasPriorLocation = solved && converged;
+
+        if (hasPriorLocation)
+            System.arraycopy(location, 0, priorLocation, 0, LOCATION_LENGTH);
+
+        return solved;
+    }
+
+    // Flatten accelerometer data into a reused array, a new array only for another length
+    private static double[] getGravityValues(DeviceService.ImuData[] values,
+                                             double[] results) {
+        if (results.length != values.length * 3)
+            results = new double[values.length * 3];
+
+        for (int i = 0; i < values.length; i++) {
+            results[i * 3] = values[i].gx;
+            results[i * 3 + 1] = values[i].gy;
+            results[i * 3 + 2] = values[i].gz;
+        }
+
+        return results;
     }
 
-    private LocationData transformViewCoordinate(LocationData value) {
+    // Flatten magnetic data into a reused array, a new array only for another length
+    private static double[] getMagneticValues(DeviceService.ImuData[] values,
+                                              double[] results) {
+        if (results.length != values.length * 3)
+            results = new double[values.length * 3];
+
+        for (int i = 0; i < values.length; i++) {
+            results[i * 3] = values[i].mx;
+            results[i * 3 + 1] = values[i].my;
+            results[i * 3 + 2] = values[i].mz;
+        }
+
+        return results;
+    }
+
+    // Mean of times by their offsets from the first one, which do not overflow
+    private static long getMeanTime(long[] times) {
+        long sum = 0;
+
+        for (long time : times)
+            sum += time - times[0];
+
+        return times[0] + sum / times.length;
+    }
+
+    private static void transformViewCoordinate(double px, double py, double pz,
+                                                double ax, double ay, double az,
+                                                LocationData value) {
         // TODO: Transform location coordinates:
         //  1. Algorithm position Z -> view position -Z
         //  2. Algorithm position X -> view position -Y
@@ -163,9 +586,14 @@ public class DataConvert {
         //  4. Algorithm angle Z - > view angle Z (TBC)
         //  5. Algorithm angle X - > view angle X (TBC)
         //  6. Algorithm angle Y - > view angle Y (TBC)
-        return new LocationData(
-                value.py, -value.px, -value.pz,
-                value.ax, value.ay, value.az,
-                value.sx, value.sy, value.sz);
+        value.px = py;
+        value.py = -px;
+        value.pz = -pz;
+        value.ax = ax;
+        value.ay = ay;
+        value.az = az;
+        value.sx = 0;
+        value.sy = 0;
+        value.sz = 0;
     }
 }
@@ -0,0 +1,196 @@
+package com.ultrasoundprobe.probeview.navigation.location;
+
+import android.util.Log;
+
+public class KalmanTracker implements LocationTracker {
+    private static final String TAG = "KalmanTracker";
+
+    private static final int LENGTH = 6;
+    private static final int POSITION_LENGTH = 3;
+
+    // Spectral density of white noise acceleration of position (m/s^2)^2*s and angle
+    // (rad/s^2)^2*s, which is how fast the probe is expected to change its velocity
+    private static final double POSITION_PROCESS_NOISE = 0.1;
+    private static final double ANGLE_PROCESS_NOISE = 1.0;
+
+    // Variance of a well converged location for position (m^2) and angle (rad^2)
+    private static final double POSITION_MEASUREMENT_NOISE = 2e-3 * 2e-3;
+    private static final double ANGLE_MEASUREMENT_NOISE = 2e-2 * 2e-2;
+
+    // Residual norm of a well converged location, the measurement variance grows with
+    // square of the residual norm beyond it
+    private static final double RESIDUAL_SCALE = 10.0;
+
+    // Initial variance of velocity of a new track
+    private static final double POSITION_VELOCITY_VARIANCE = 1.0;
+    private static final double ANGLE_VELOCITY_VARIANCE = 10.0;
+
+    // Squared normalized innovation for a location to be rejected as an outlier, and
+    // number of consecutive outliers to restart the track from the latest location
+    private static final double OUTLIER_GATE = 5.0 * 5.0;
+    private static final int MAX_OUTLIERS = 3;
+
+    // Constant velocity model of each axis decoupled from each other, with state of
+    // value and velocity and covariance [p00, p01, p11] of them
+    private final double[] value = new double[LENGTH];
+    private final double[] velocity = new double[LENGTH];
+    private final double[] p00 = new double[LENGTH];
+    private final double[] p01 = new double[LENGTH];
+    private final double[] p11 = new double[LENGTH];
+    private final double[] measurementNoise = new double[LENGTH];
+
+    private boolean hasTrack = false;
+    private long lastTimestamp;
+    private int outlierCount = 0;
+
+    @Override
+    public synchronized void reset() {
+        hasTrack = false;
+        outlierCount = 0;
+    }
+
+    @Override
+    public boolean update(double[] location, double residual, long timestamp) {
+        return update(location, residual, timestamp, null);
+    }
+
+    @Override
+    public synchronized boolean update(double[] location, double residual, long timestamp,
+                                       long[] sampleTimes) {
+        double scale = Double.isNaN(residual) ? 1.0 :
+                1.0 + (residual / RESIDUAL_SCALE) * (residual / RESIDUAL_SCALE);
+
+        if (!hasTrack) {
+            start(location, scale, timestamp);
+            return true;
+        }
+
+        double dt = Math.max(0, (timestamp - lastTimestamp) * 1e-9);
+
+        // Predict state and covariance to the timestamp of the location
+        for (int i = 0; i < LENGTH; i++) {
+            double q = i < POSITION_LENGTH ? POSITION_PROCESS_NOISE : ANGLE_PROCESS_NOISE;
+
+            value[i] += velocity[i] * dt;
+            p00[i] += dt * (2 * p01[i] + dt * p11[i]) + q * dt * dt * dt / 3;
+            p01[i] += dt * p11[i] + q * dt * dt / 2;
+            p11[i] += q * dt;
+
+            if (i >= POSITION_LENGTH)
+                value[i] = wrapAngle(value[i]);
+        }
+
+        lastTimestamp = timestamp;
+
+        // Samples of the location are apart in time, which blurs the location along
+        // velocity of the track by the mean squared offset of their times
+        double blur = 0;
+
+        if (sampleTimes != null) {
+            for (long time : sampleTimes)
+                blur += (time - timestamp) * 1e-9 * (time - timestamp) * 1e-9;
+
+            blur /= sampleTimes.length;
+        }
+
+        for (int i = 0; i < LENGTH; i++)
+            measurementNoise[i] = getMeasurementNoise(i, scale) +
+                    velocity[i] * velocity[i] * blur;
+
+        // Gate the location by its innovation before any correction
+        for (int i = 0; i < LENGTH; i++) {
+            double innovation = getInnovation(location, i);
+            double variance = p00[i] + measurementNoise[i];
+
+            if (innovation * innovation > OUTLIER_GATE * variance) {
+                if (++outlierCount < MAX_OUTLIERS)
+                    return false;
+
+                // Consecutive outliers mean the probe did move there, start over
+                Log.d(TAG, "Restart track after " + outlierCount + " outliers");
+                start(location, scale, timestamp);
+                return true;
+            }
+        }
+
+        outlierCount = 0;
+
+        // Correct state and covariance by the location
+        for (int i = 0; i < LENGTH; i++) {
+            double innovation = getInnovation(location, i);
+            double variance = p00[i] + measurementNoise[i];
+            double k0 = p00[i] / variance;
+            double k1 = p01[i] / variance;
+
+            value[i] += k0 * innovation;
+            velocity[i] += k1 * innovation;
+
+            p11[i] -= k1 * p01[i];
+            p01[i] -= k0 * p01[i];
+            p00[i] -= k0 * p00[i];
+
+            if (i >= POSITION_LENGTH)
+                value[i] = wrapAngle(value[i]);
+        }
+
+        return true;
+    }
+
+    @Override
+    public synchronized boolean getLocation(double[] location) {
+        if (!hasTrack)
+            return false;
+
+        System.arraycopy(value, 0, location, 0, LENGTH);
+
+        return true;
+    }
+
+    @Override
+    public synchronized boolean predict(long timestamp, double[] location) {
+        if (!hasTrack)
+            return false;
+
+        double dt = Math.max(0, (timestamp - lastTimestamp) * 1e-9);
+
+        for (int i = 0; i < LENGTH; i++) {
+            location[i] = value[i] + velocity[i] * dt;
+
+            if (i >= POSITION_LENGTH)
+                location[i] = wrapAngle(location[i]);
+        }
+
+        return true;
+    }
+
+    private void start(double[] location, double scale, long timestamp) {
+        for (int i = 0; i < LENGTH; i++) {
+            value[i] = location[i];
+            velocity[i] = 0;
+            p00[i] = getMeasurementNoise(i, scale);
+            p01[i] = 0;
+            p11[i] = i < POSITION_LENGTH ?
+                    POSITION_VELOCITY_VARIANCE : ANGLE_VELOCITY_VARIANCE;
+        }
+
+        hasTrack = true;
+        lastTimestamp = timestamp;
+        outlierCount = 0;
+    }
+
+    private double getInnovation(double[] location, int i) {
+        double innovation = location[i] - value[i];
+
+        // Angles are compared the short way round
+        return i >= POSITION_LENGTH ? wrapAngle(innovation) : innovation;
+    }
+
+    private static double getMeasurementNoise(int i, double scale) {
+        return (i < POSITION_LENGTH ?
+                POSITION_MEASUREMENT_NOISE : ANGLE_MEASUREMENT_NOISE) * scale;
+    }
+
+    private static double wrapAngle(double angle) {
+        return angle - 2 * Math.PI * Math.floor((angle + Math.PI) / (2 * Math.PI));
+    }
+}
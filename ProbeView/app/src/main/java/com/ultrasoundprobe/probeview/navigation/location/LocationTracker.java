@@ -0,0 +1,23 @@
+package com.ultrasoundprobe.probeview.navigation.location;
+
+// Tracking stage between the algorithm engine and the view, locations are
+// [px, py, pz, ax, ay, az] in engine units and timestamps are in nanoseconds
+public interface LocationTracker {
+    // Drop the current track so that the next update starts a new one
+    void reset();
+
+    // Update the track by a location solved at a timestamp and its residual norm, NaN
+    // for an engine not reporting it, return false if the location is rejected
+    boolean update(double[] location, double residual, long timestamp);
+
+    // Same as above for a location solved from samples taken at times in nanoseconds
+    // around the timestamp, such as one for each coil, null if not known, which is
+    // weighted less the further they are apart and the faster the track moves
+    boolean update(double[] location, double residual, long timestamp, long[] sampleTimes);
+
+    // Location of the track at the last update, return false if there is no track
+    boolean getLocation(double[] location);
+
+    // Location of the track predicted at a timestamp, return false if there is no track
+    boolean predict(long timestamp, double[] location);
+}
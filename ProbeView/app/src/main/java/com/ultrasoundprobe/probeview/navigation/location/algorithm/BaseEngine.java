@@ -9,9 +9,228 @@ public abstract class BaseEngine {
     private static final double MAX_POSITION_Y = 0.5;
     private static final double MAX_POSITION_Z = 0.5;
 
-    public abstract LocationData getLocationData(DeviceService.ImuData[] values);
+    // Maximum residual norm relative to norm of magnetic data for a location to be
+    // accepted as initial guess of next location
+    private static final double RESIDUAL_RATIO_WARM_START = 0.1;
+
+    // Residual norm of the last location solved, NaN for an engine not reporting it
+    protected double residual = Double.NaN;
+
+    // Time budget in nanoseconds for each location, 0 for no limit, an engine not
+    // supporting it always solves to convergence
+    protected long timeBudget = 0;
+
+    // Weight of each magnetic value by its inverse standard deviation normalized to a
+    // mean square of 1, so that residual norms keep their scale, null for equal
+    // weights, an engine not supporting it weights all values equally
+    protected double[] weights = null;
+    private final double[] weightValues = new double[CoilFieldModel.MAGNETIC_LENGTH];
+
+    // Solve location with a prior location in engine units as initial guess, use a
+    // cold start for a null prior
+    public abstract LocationData getLocationData(DeviceService.ImuData[] values,
+                                                 LocationData prior);
     public abstract MagneticData getMagneticData(LocationData value, int coilId);
 
+    public LocationData getLocationData(DeviceService.ImuData[] values) {
+        return getLocationData(values, null);
+    }
+
+    // Solve location without allocation for an engine supporting it, which reads
+    // magnetic values of all coils [Bx0, By0, Bz0, Bx1, By1, Bz1, Bx2, By2, Bz2] and
+    // prior location [px, py, pz, ax, ay, az] from caller-owned arrays and writes
+    // location [px, py, pz, ax, ay, az] into a caller-owned array, use a cold start
+    // for a null prior
+    public boolean getLocationData(double[] magnetic, double[] prior, double[] location,
+                                   SolverReport report) {
+        // Fall back to the allocating contract for an engine not supporting it
+        DeviceService.ImuData[] values = new DeviceService.ImuData[magnetic.length / 3];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new DeviceService.ImuData(
+                    (float)magnetic[i * 3], (float)magnetic[i * 3 + 1],
+                    (float)magnetic[i * 3 + 2], 0, 0, 0);
+        }
+
+        LocationData result = getLocationData(values, prior != null ? new LocationData(
+                prior[0], prior[1], prior[2],
+                prior[3], prior[4], prior[5],
+                0, 0, 0) : null);
+
+        report.reset();
+        report.residual = residual;
+
+        if (result == null)
+            return false;
+
+        location[0] = result.px;
+        location[1] = result.py;
+        location[2] = result.pz;
+        location[3] = result.ax;
+        location[4] = result.ay;
+        location[5] = result.az;
+
+        return true;
+    }
+
+    // Same as above with accelerometer data [Gx0, Gy0, Gz0, Gx1, ...] sampled along with
+    // magnetic values, null if not available, which is ignored by an engine not using it
+    public boolean getLocationData(double[] magnetic, double[] gravity, double[] prior,
+                                   double[] location, SolverReport report) {
+        return getLocationData(magnetic, prior, location, report);
+    }
+
+    // Solve a batch of frames for offline processing, which reads magnetic values
+    // [Bx0, By0, Bz0, ..., Bz2] of each frame in sequence and writes location
+    // [px, py, pz, ax, ay, az] and residual norm of each frame, locations of unsolved
+    // frames are NaN, return the number of frames solved
+    public int getLocationDataBatch(double[] magnetic, int count,
+                                    double[] locations, double[] residuals) {
+        return getLocationDataSequence(this, magnetic, 0, count, locations, residuals);
+    }
+
+    public double getResidual() {
+        return residual;
+    }
+
+    public void setTimeBudget(long nanos) {
+        timeBudget = Math.max(0, nanos);
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    // Variance of each magnetic value [Bx0, By0, Bz0, ..., Bz2] passed next, such as
+    // the variance of the mean of samples of a coil state with the sensor noise as its
+    // floor, null for equal weights, which are also taken if any variance is unknown
+    // as a zero variance would outweigh all other values
+    public void setMagneticVariance(double[] variance) {
+        if (variance == null || variance.length != weightValues.length) {
+            weights = null;
+            return;
+        }
+
+        double sum = 0;
+
+        for (int i = 0; i < weightValues.length; i++) {
+            if (!(variance[i] > 0) || Double.isInfinite(variance[i])) {
+                weights = null;
+                return;
+            }
+
+            weightValues[i] = 1.0 / variance[i];
+            sum += weightValues[i];
+        }
+
+        for (int i = 0; i < weightValues.length; i++)
+            weightValues[i] = Math.sqrt(weightValues[i] * weightValues.length / sum);
+
+        weights = weightValues;
+    }
+
+    // Take weights of another engine, such as an engine solving on its behalf
+    void setWeights(double[] weights) {
+        if (weights == null) {
+            this.weights = null;
+            return;
+        }
+
+        System.arraycopy(weights, 0, weightValues, 0, weightValues.length);
+        this.weights = weightValues;
+    }
+
+    // Whether a location is good enough to be initial guess of next location, any
+    // result from an engine not reporting residual is accepted
+    public static boolean isWarmStartAcceptable(double[] magnetic, double residual) {
+        if (Double.isNaN(residual))
+            return true;
+
+        double norm = 0;
+
+        for (double value : magnetic)
+            norm += value * value;
+
+        return residual <= RESIDUAL_RATIO_WARM_START * Math.sqrt(norm);
+    }
+
+    // Solve frames within [start, end) of a batch one by one, each frame starts from
+    // location of the previous frame and falls back to a cold start if residuals blow up
+    protected static int getLocationDataSequence(BaseEngine engine, double[] magnetic,
+                                                 int start, int end,
+                                                 double[] locations, double[] residuals) {
+        final int magneticLength = CoilFieldModel.MAGNETIC_LENGTH;
+        final int locationLength = CoilFieldModel.LOCATION_LENGTH;
+
+        double[] frame = new double[magneticLength];
+        double[] location = new double[locationLength];
+        double[] prior = new double[locationLength];
+        SolverReport report = new SolverReport();
+        boolean hasPrior = false;
+        int solvedCount = 0;
+
+        // Offline processing has no time budget
+        long timeBudget = engine.timeBudget;
+
+        engine.timeBudget = 0;
+
+        for (int i = start; i < end; i++) {
+            System.arraycopy(magnetic, i * magneticLength, frame, 0, magneticLength);
+
+            boolean solved = engine.getLocationData(frame, hasPrior ? prior : null,
+                    location, report);
+            boolean converged = solved && isWarmStartAcceptable(frame, report.residual);
+
+            if (hasPrior && !converged) {
+                solved = engine.getLocationData(frame, null, location, report);
+                converged = solved && isWarmStartAcceptable(frame, report.residual);
+            }
+
+            for (int k = 0; k < locationLength; k++)
+                locations[i * locationLength + k] = solved ? location[k] : Double.NaN;
+
+            residuals[i] = solved ? report.residual : Double.NaN;
+
+            if (solved)
+                solvedCount++;
+
+            hasPrior = converged;
+
+            if (hasPrior)
+                System.arraycopy(location, 0, prior, 0, locationLength);
+        }
+
+        engine.timeBudget = timeBudget;
+
+        return solvedCount;
+    }
+
+    // Flatten magnetic data of all coils to [Bx0, By0, Bz0, Bx1, By1, Bz1, Bx2, By2, Bz2]
+    protected static double[] getMagneticValues(DeviceService.ImuData[] values) {
+        double[] results = new double[values.length * 3];
+
+        for (int i = 0; i < values.length; i++) {
+            results[i * 3] = values[i].mx;
+            results[i * 3 + 1] = values[i].my;
+            results[i * 3 + 2] = values[i].mz;
+        }
+
+        return results;
+    }
+
+    // Flatten accelerometer data of all coils to [Gx0, Gy0, Gz0, Gx1, Gy1, Gz1, ...]
+    protected static double[] getGravityValues(DeviceService.ImuData[] values) {
+        double[] results = new double[values.length * 3];
+
+        for (int i = 0; i < values.length; i++) {
+            results[i * 3] = values[i].gx;
+            results[i * 3 + 1] = values[i].gy;
+            results[i * 3 + 2] = values[i].gz;
+        }
+
+        return results;
+    }
+
     public abstract int getCoilId(int index);
 
     public LocationData getMaxLocation() {
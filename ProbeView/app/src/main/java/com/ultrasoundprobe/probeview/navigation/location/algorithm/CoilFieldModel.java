@@ -0,0 +1,359 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+public class CoilFieldModel {
+    // Number of unknowns of a location: position X, Y, Z and angle X, Y, Z
+    public static final int LOCATION_LENGTH = 6;
+    // Number of magnetic values of all coils: [Bx0, By0, Bz0, Bx1, By1, Bz1, Bx2, By2, Bz2]
+    public static final int MAGNETIC_LENGTH = 9;
+    // Number of values of gravity direction: [Gx, Gy, Gz]
+    public static final int GRAVITY_LENGTH = 3;
+
+    // Version of the model, increase it for any change of the model or coil parameters
+    // so that magnetic data stored from the model is rebuilt
+    public static final int MODEL_VERSION = 2;
+
+    private static final double U0 = 4.0 * Math.PI * 1e-7;
+
+    // Coil radius
+    private static final double[] COIL_RADIUS = { 0.098, 0.0425, 0.065 };
+    // Coil current values
+    private static final double[] COIL_CURRENT = { 3.0, 3.0, 3.0 };
+    // Coil turns, magnetomotive force is the number of turns multiplied by current
+    private static final double[] COIL_TURNS = { 351.0, 372.0, 412.0 };
+    // Coil ordering calls
+    private static final int[] COIL_ORDER = { 0, 2, 1 };
+
+    // Coil center X, Y, Z
+    private static final double[] COIL_CENTER = { 0.0, 0.0, 0.0 };
+
+    // Scale of magnetic output to fit the unit of sensor data
+    private static final double MAGNETIC_SCALE = 1e7;
+
+    // Mapping from location axes to axes of coil cylindrical coordinate system (radial
+    // X, radial Y, axial), the same mapping is used back from coil to location axes
+    private static final int[][] COIL_AXES = {
+            { 0, 1, 2 },
+            { 1, 2, 0 },
+            { 0, 2, 1 }
+    };
+
+    // Cached rotation matrix and its derivatives with respect to angle X, Y, Z for the
+    // last angles in use
+    private final double[] rotation = new double[9];
+    private final double[][] rotationDerivatives = new double[3][9];
+    private double alpha = Double.NaN, beta = Double.NaN, gamma = Double.NaN;
+
+    // Magnetic field in coil coordinates before rotation
+    private final double[] flux = new double[3];
+    // Jacobian of magnetic field in coil coordinates with respect to position X, Y, Z
+    private final double[][] fluxJacobian = new double[3][3];
+    // Jacobian of magnetic field in coil cylindrical coordinates
+    private final double[][] localJacobian = new double[3][3];
+
+    // Complete elliptic integrals K, E and their derivatives with respect to m
+    private final double[] elliptic = new double[4];
+    private final boolean isExactElliptic;
+
+    public CoilFieldModel() {
+        this(false);
+    }
+
+    // Exact elliptic integrals, or the 3-term Taylor expansion used by imu2loc.py,
+    // which loses accuracy close to the coil, by default so that the remote backend
+    // and this model solve the same locations until imu2loc.py is exact as well
+    public CoilFieldModel(boolean isExactElliptic) {
+        this.isExactElliptic = isExactElliptic;
+    }
+
+    public int getCoilId(int index) {
+        return COIL_ORDER[index % COIL_ORDER.length];
+    }
+
+    public int getCoilCount() {
+        return COIL_ORDER.length;
+    }
+
+    // Java version of location_to_flux() from imu2loc.py, magnetic values of a coil are
+    // written into values from the given offset
+    public void getMagneticData(double[] location, int coilId, double[] values, int offset) {
+        getMagneticData(location, coilId, values, offset, null);
+    }
+
+    // Magnetic values of a coil together with their closed-form Jacobian with respect
+    // to position X, Y, Z and angle X, Y, Z, the 3 rows of Jacobian are written into
+    // jacobian from the given offset, skip Jacobian for a null input
+    public void getMagneticData(double[] location, int coilId, double[] values, int offset,
+                                double[][] jacobian) {
+        coilId %= COIL_ORDER.length;
+
+        int[] axes = COIL_AXES[coilId];
+
+        double xd = location[axes[0]] - COIL_CENTER[axes[0]];
+        double yd = location[axes[1]] - COIL_CENTER[axes[1]];
+        double zd = location[axes[2]] - COIL_CENTER[axes[2]];
+
+        double a = COIL_RADIUS[coilId];
+        double sqtZz1 = zd * zd;
+
+        // Radical component is required for cylindrical coordinate system
+        double rc = Math.sqrt(xd * xd + yd * yd);
+
+        double sqtRc = rc * rc;
+        double sqtRca = (rc + a) * (rc + a);
+        double sqtRca2 = (rc - a) * (rc - a);
+
+        // This is a parameter for calculating the elliptical integrals
+        double m = (4.0 * a * rc) / (sqtRca + sqtZz1);
+
+        double kofkc, eofkc;
+
+        if (isExactElliptic) {
+            // K(k) and E(k) elliptical functions by arithmetic-geometric mean
+            EllipticIntegral.getValues(m, elliptic, 0);
+
+            kofkc = elliptic[0];
+            eofkc = elliptic[1];
+        } else {
+            double tyrConst1 = Math.PI / 2.0;
+            double tyrConst2 = (Math.PI / 8.0) * m;
+            double tyrConst3 = (Math.PI / 128.0) * m * m;
+
+            // K(k) elliptical function, this is a Taylor expansion of the K elliptical
+            // integral
+            kofkc = tyrConst1 + tyrConst2 + 9.0 * tyrConst3;
+            // E(k) elliptical function, this is a Taylor expansion of the E elliptical
+            // integral
+            eofkc = tyrConst1 - tyrConst2 - 3.0 * tyrConst3;
+        }
+
+        double sqtA = a * a;
+        double rcConst = U0 * COIL_TURNS[coilId] * COIL_CURRENT[coilId] / (2.0 * Math.PI);
+        double raConst = sqtRca2 + sqtZz1;
+
+        // Radical component of B
+        double brc = rcConst / rc * zd / Math.sqrt(sqtRca + sqtZz1) *
+                (-kofkc + eofkc * (sqtRc + sqtA + sqtZz1) / raConst);
+        // Axial component of B
+        double bz = rcConst / Math.sqrt(sqtRca + sqtZz1) *
+                (kofkc - eofkc * (sqtRc - sqtA + sqtZz1) / raConst);
+
+        // This converts the polar component into Cartesian form
+        double bx = brc * xd / rc;
+        double by = brc * yd / rc;
+
+        // Swap the coil axes back to location axes
+        flux[axes[0]] = (Double.isNaN(bx) ? 0.0 : bx) * MAGNETIC_SCALE;
+        flux[axes[1]] = (Double.isNaN(by) ? 0.0 : by) * MAGNETIC_SCALE;
+        flux[axes[2]] = (Double.isNaN(bz) ? 0.0 : bz) * MAGNETIC_SCALE;
+
+        double[] r = getRotation(location[3], location[4], location[5]);
+
+        // Calculate magnetic field by multiplication of two matrices
+        values[offset] = r[0] * flux[0] + r[1] * flux[1] + r[2] * flux[2];
+        values[offset + 1] = r[3] * flux[0] + r[4] * flux[1] + r[5] * flux[2];
+        values[offset + 2] = r[6] * flux[0] + r[7] * flux[1] + r[8] * flux[2];
+
+        if (jacobian == null)
+            return;
+
+        // Derivatives of the elliptical integrals with respect to m
+        double dkofkc, deofkc;
+
+        if (isExactElliptic) {
+            EllipticIntegral.getDerivatives(m, kofkc, eofkc, elliptic, 2);
+
+            dkofkc = elliptic[2];
+            deofkc = elliptic[3];
+        } else {
+            dkofkc = Math.PI / 8.0 + (9.0 * Math.PI / 64.0) * m;
+            deofkc = -Math.PI / 8.0 - (3.0 * Math.PI / 64.0) * m;
+        }
+
+        getLocalJacobian(xd, yd, zd, rc, a, m, kofkc, eofkc, dkofkc, deofkc, rcConst, bz);
+
+        // Swap the coil axes back to location axes for both rows and columns
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                double value = localJacobian[i][j];
+
+                fluxJacobian[axes[i]][axes[j]] =
+                        (Double.isNaN(value) ? 0.0 : value) * MAGNETIC_SCALE;
+            }
+        }
+
+        // Position columns are the rotated Jacobian of magnetic field in coil coordinates
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                jacobian[offset + i][j] = r[i * 3] * fluxJacobian[0][j] +
+                        r[i * 3 + 1] * fluxJacobian[1][j] +
+                        r[i * 3 + 2] * fluxJacobian[2][j];
+            }
+        }
+
+        // Angle columns are the derivatives of rotation matrix applied to magnetic field
+        for (int k = 0; k < 3; k++) {
+            double[] dr = rotationDerivatives[k];
+
+            for (int i = 0; i < 3; i++) {
+                jacobian[offset + i][3 + k] = dr[i * 3] * flux[0] +
+                        dr[i * 3 + 1] * flux[1] +
+                        dr[i * 3 + 2] * flux[2];
+            }
+        }
+    }
+
+    // Magnetic values of all coils in calling order together with their 9x6 Jacobian
+    public void getMagneticData(double[] location, double[] values, double[][] jacobian) {
+        for (int i = 0; i < COIL_ORDER.length; i++)
+            getMagneticData(location, getCoilId(i), values, i * 3, jacobian);
+    }
+
+    // Jacobian of (Bx, By, Bz) with respect to (xd, yd, zd) in coil cylindrical coordinates
+    private void getLocalJacobian(double xd, double yd, double zd, double rc, double a,
+                                  double m, double kofkc, double eofkc,
+                                  double dkofkc, double deofkc, double rcConst, double bz) {
+        double s = (rc + a) * (rc + a) + zd * zd;
+        double d = (rc - a) * (rc - a) + zd * zd;
+        double sqrtS = Math.sqrt(s);
+
+        // Partial derivatives of the common terms with respect to rc and zd
+        double sRc = 2.0 * (rc + a), sZd = 2.0 * zd;
+        double dRc = 2.0 * (rc - a), dZd = 2.0 * zd;
+        double mRc = 4.0 * a / s - m * sRc / s, mZd = -m * sZd / s;
+        double nRc = 2.0 * rc, nZd = 2.0 * zd;
+
+        double n1 = rc * rc + a * a + zd * zd;
+        double n2 = rc * rc - a * a + zd * zd;
+
+        // Bracket terms of radical and axial components of B
+        double p = -kofkc + eofkc * n1 / d;
+        double q = kofkc - eofkc * n2 / d;
+
+        double pRc = -dkofkc * mRc + deofkc * mRc * n1 / d +
+                eofkc * (nRc * d - n1 * dRc) / (d * d);
+        double pZd = -dkofkc * mZd + deofkc * mZd * n1 / d +
+                eofkc * (nZd * d - n1 * dZd) / (d * d);
+        double qRc = dkofkc * mRc - deofkc * mRc * n2 / d -
+                eofkc * (nRc * d - n2 * dRc) / (d * d);
+        double qZd = dkofkc * mZd - deofkc * mZd * n2 / d -
+                eofkc * (nZd * d - n2 * dZd) / (d * d);
+
+        // Radical component divided by rc, so Bx = g * xd and By = g * yd
+        double g = rcConst * zd / (rc * rc * sqrtS) * p;
+        double gRc = g * (-2.0 / rc - 0.5 * sRc / s) +
+                rcConst * zd / (rc * rc * sqrtS) * pRc;
+        double gZd = rcConst / (rc * rc * sqrtS) * (p + zd * pZd - 0.5 * zd * p * sZd / s);
+
+        double bzRc = rcConst / sqrtS * qRc - 0.5 * bz * sRc / s;
+        double bzZd = rcConst / sqrtS * qZd - 0.5 * bz * sZd / s;
+
+        // Chain rule through rc = sqrt(xd^2 + yd^2)
+        double uRc = xd / rc, vRc = yd / rc;
+
+        localJacobian[0][0] = g + xd * gRc * uRc;
+        localJacobian[0][1] = xd * gRc * vRc;
+        localJacobian[0][2] = xd * gZd;
+        localJacobian[1][0] = yd * gRc * uRc;
+        localJacobian[1][1] = g + yd * gRc * vRc;
+        localJacobian[1][2] = yd * gZd;
+        localJacobian[2][0] = bzRc * uRc;
+        localJacobian[2][1] = bzRc * vRc;
+        localJacobian[2][2] = bzZd;
+    }
+
+    // Direction of gravity read by the accelerometer at a location, the vertical axis of
+    // coils rotated the same way as magnetic values, which is the last column of
+    // rotation, together with its 3x6 Jacobian written into jacobian from the given
+    // offset, skip Jacobian for a null input
+    public void getGravityData(double[] location, double[] values, int offset,
+                               double[][] jacobian) {
+        double[] r = getRotation(location[3], location[4], location[5]);
+
+        for (int i = 0; i < 3; i++) {
+            values[offset + i] = r[i * 3 + 2];
+
+            if (jacobian == null)
+                continue;
+
+            for (int j = 0; j < 3; j++)
+                jacobian[offset + i][j] = 0;
+
+            for (int k = 0; k < 3; k++)
+                jacobian[offset + i][3 + k] = rotationDerivatives[k][i * 3 + 2];
+        }
+    }
+
+    // Magnetic values of all coils in calling order, same as objective_func() from
+    // imu2loc.py without subtraction of measured values
+    public void getMagneticData(double[] location, double[] values) {
+        for (int i = 0; i < COIL_ORDER.length; i++)
+            getMagneticData(location, getCoilId(i), values, i * 3);
+    }
+
+    private double[] getRotation(double ax, double ay, double az) {
+        if (ax == alpha && ay == beta && az == gamma)
+            return rotation;
+
+        alpha = ax;
+        beta = ay;
+        gamma = az;
+
+        double ca = Math.cos(alpha), sa = Math.sin(alpha);
+        double cb = Math.cos(beta), sb = Math.sin(beta);
+        double cg = Math.cos(gamma), sg = Math.sin(gamma);
+
+        // Row 0
+        rotation[0] = cb * cg;
+        rotation[1] = sa * sb * cg - ca * sg;
+        rotation[2] = ca * sb * cg + sa * sg;
+        // Row 1
+        rotation[3] = cb * sg;
+        rotation[4] = sa * sb * sg + ca * cg;
+        rotation[5] = ca * sb * sg - sa * cg;
+        // Row 2
+        rotation[6] = -sb;
+        rotation[7] = sa * cb;
+        rotation[8] = ca * cb;
+
+        double[] dr = rotationDerivatives[0];
+
+        // Derivatives with respect to alpha
+        dr[0] = 0;
+        dr[1] = ca * sb * cg + sa * sg;
+        dr[2] = -sa * sb * cg + ca * sg;
+        dr[3] = 0;
+        dr[4] = ca * sb * sg - sa * cg;
+        dr[5] = -sa * sb * sg - ca * cg;
+        dr[6] = 0;
+        dr[7] = ca * cb;
+        dr[8] = -sa * cb;
+
+        dr = rotationDerivatives[1];
+
+        // Derivatives with respect to beta
+        dr[0] = -sb * cg;
+        dr[1] = sa * cb * cg;
+        dr[2] = ca * cb * cg;
+        dr[3] = -sb * sg;
+        dr[4] = sa * cb * sg;
+        dr[5] = ca * cb * sg;
+        dr[6] = -cb;
+        dr[7] = -sa * sb;
+        dr[8] = -ca * sb;
+
+        dr = rotationDerivatives[2];
+
+        // Derivatives with respect to gamma
+        dr[0] = -cb * sg;
+        dr[1] = -sa * sb * sg - ca * cg;
+        dr[2] = -ca * sb * sg + sa * cg;
+        dr[3] = cb * cg;
+        dr[4] = sa * sb * cg - ca * sg;
+        dr[5] = ca * sb * cg + sa * sg;
+        dr[6] = 0;
+        dr[7] = 0;
+        dr[8] = 0;
+
+        return rotation;
+    }
+}
@@ -0,0 +1,57 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+public final class EllipticIntegral {
+    // Relative tolerance of arithmetic-geometric mean iterations, which converge
+    // quadratically so double precision is reached within 6 iterations for m < 1 - 1e-15
+    private static final double TOLERANCE = 1e-16;
+    private static final int MAX_ITERATIONS = 16;
+
+    // Parameter m under which derivatives are taken from series, as their closed forms
+    // lose digits by cancellation near zero
+    private static final double SERIES_LIMIT = 1e-4;
+
+    private EllipticIntegral() {
+    }
+
+    // Complete elliptic integrals of the first kind K(m) and the second kind E(m) of
+    // parameter m = k^2 within [0, 1) by arithmetic-geometric mean, K and E are written
+    // into results from the given offset
+    public static void getValues(double m, double[] results, int offset) {
+        double a = 1.0;
+        double b = Math.sqrt(1.0 - m);
+        double c = Math.sqrt(m);
+        double sum = 0.5 * c * c;
+        double power = 0.5;
+
+        for (int i = 0; i < MAX_ITERATIONS && Math.abs(c) > TOLERANCE * a; i++) {
+            double an = 0.5 * (a + b);
+
+            c = 0.5 * (a - b);
+            b = Math.sqrt(a * b);
+            a = an;
+            power *= 2.0;
+            sum += power * c * c;
+        }
+
+        double k = Math.PI / (2.0 * a);
+
+        results[offset] = k;
+        results[offset + 1] = k * (1.0 - sum);
+    }
+
+    // Derivatives dK/dm and dE/dm from K(m) and E(m), written into results from the
+    // given offset
+    public static void getDerivatives(double m, double k, double e,
+                                      double[] results, int offset) {
+        if (m < SERIES_LIMIT) {
+            results[offset] = Math.PI / 2.0 *
+                    (1.0 / 4.0 + m * (9.0 / 32.0 + m * 75.0 / 256.0));
+            results[offset + 1] = Math.PI / 2.0 *
+                    (-1.0 / 4.0 + m * (-3.0 / 32.0 - m * 15.0 / 256.0));
+            return;
+        }
+
+        results[offset] = (e - (1.0 - m) * k) / (2.0 * m * (1.0 - m));
+        results[offset + 1] = (e - k) / (2.0 * m);
+    }
+}
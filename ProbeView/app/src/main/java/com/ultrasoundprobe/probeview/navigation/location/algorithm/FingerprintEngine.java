@@ -0,0 +1,70 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import com.ultrasoundprobe.probeview.device.DeviceService;
+import com.ultrasoundprobe.probeview.navigation.location.LocationData;
+import com.ultrasoundprobe.probeview.navigation.location.MagneticData;
+
+public class FingerprintEngine extends BaseEngine {
+    // Coarse only localization by the nearest location from an index of precomputed
+    // magnetic data, which costs microseconds for each location
+    private final CoilFieldModel model = new CoilFieldModel();
+    // Index which may be set from another thread once it is ready
+    private volatile FingerprintIndex index;
+
+    private final double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+
+    public void setIndex(FingerprintIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public LocationData getLocationData(DeviceService.ImuData[] values, LocationData prior) {
+        if (!getLocationData(getMagneticValues(values), null, location, new SolverReport()))
+            return null;
+
+        return new LocationData(
+                location[0], location[1], location[2],
+                location[3], location[4], location[5],
+                0, 0, 0);
+    }
+
+    @Override
+    public boolean getLocationData(double[] magnetic, double[] prior, double[] location,
+                                   SolverReport report) {
+        report.reset();
+        residual = Double.NaN;
+
+        FingerprintIndex index = this.index;
+
+        if (index == null)
+            return false;
+
+        double distance = index.findNearest(magnetic, location);
+
+        if (Double.isNaN(distance))
+            return false;
+
+        report.residual = residual = Math.sqrt(distance);
+
+        return true;
+    }
+
+    @Override
+    public MagneticData getMagneticData(LocationData value, int coilId) {
+        if (value == null)
+            return null;
+
+        double[] results = new double[MagneticData.LENGTH];
+
+        model.getMagneticData(new double[] {
+                value.px, value.py, value.pz,
+                value.ax, value.ay, value.az }, coilId, results, 0);
+
+        return new MagneticData(results);
+    }
+
+    @Override
+    public int getCoilId(int index) {
+        return model.getCoilId(index);
+    }
+}
@@ -0,0 +1,297 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import android.util.Log;
+
+import com.ultrasoundprobe.probeview.navigation.location.LocationData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class FingerprintIndex {
+    private static final String TAG = "FingerprintIndex";
+
+    // File header: magic, format version, model version, position steps, angle steps,
+    // number of records
+    private static final int FILE_MAGIC = 0x50465650;   // "PVFP" in little-endian
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 6 * 4;
+
+    // Record: location [px, py, pz, ax, ay, az] followed by magnetic data of all coils
+    // [Bx0, By0, Bz0, Bx1, By1, Bz1, Bx2, By2, Bz2], all in float
+    private static final int RECORD_LENGTH =
+            CoilFieldModel.LOCATION_LENGTH + CoilFieldModel.MAGNETIC_LENGTH;
+    private static final int RECORD_SIZE = RECORD_LENGTH * 4;
+
+    // Default grid of locations, the number of steps along each axis
+    public static final int DEFAULT_POSITION_STEPS = 7;
+    public static final int DEFAULT_ANGLE_STEPS = 6;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+
+    // Search state of nearest record, searches are serialized so that engines solving
+    // a batch in parallel can share the index
+    private double[] query;
+    private int nearestIndex;
+    private double nearestDistance;
+
+    private FingerprintIndex(MappedByteBuffer buffer, int count) {
+        this.buffer = buffer;
+        this.count = count;
+    }
+
+    // Memory-map an index file, null for a missing file or a file built with other
+    // format, model or grid
+    public static FingerprintIndex open(File file, int positionSteps, int angleSteps) {
+        if (!file.exists())
+            return null;
+
+        try (RandomAccessFile input = new RandomAccessFile(file, "r");
+             FileChannel channel = input.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (channel.size() < HEADER_SIZE ||
+                    buffer.getInt(0) != FILE_MAGIC ||
+                    buffer.getInt(4) != FILE_VERSION ||
+                    buffer.getInt(8) != CoilFieldModel.MODEL_VERSION ||
+                    buffer.getInt(12) != positionSteps ||
+                    buffer.getInt(16) != angleSteps) {
+                Log.w(TAG, "Outdated fingerprint index " + file);
+                return null;
+            }
+
+            int count = buffer.getInt(20);
+
+            if (channel.size() != HEADER_SIZE + (long)count * RECORD_SIZE) {
+                Log.e(TAG, "Invalid size of fingerprint index " + file);
+                return null;
+            }
+
+            return new FingerprintIndex(buffer, count);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open fingerprint index " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static FingerprintIndex openOrBuild(File file, LocationData max) {
+        return openOrBuild(file, max, DEFAULT_POSITION_STEPS, DEFAULT_ANGLE_STEPS);
+    }
+
+    // Open an index file, build it first if it is missing or outdated
+    public static FingerprintIndex openOrBuild(File file, LocationData max,
+                                               int positionSteps, int angleSteps) {
+        FingerprintIndex index = open(file, positionSteps, angleSteps);
+
+        if (index != null)
+            return index;
+
+        if (!build(file, max, positionSteps, angleSteps))
+            return null;
+
+        return open(file, positionSteps, angleSteps);
+    }
+
+    // Build an index file from a grid of locations within the maximum location, the
+    // records are stored in the order of a balanced KD-tree over magnetic data
+    public static boolean build(File file, LocationData max,
+                                int positionSteps, int angleSteps) {
+        long startTime = System.currentTimeMillis();
+
+        CoilFieldModel model = new CoilFieldModel();
+        int count = positionSteps * positionSteps * positionSteps *
+                angleSteps * angleSteps * angleSteps;
+        float[][] records = new float[count][RECORD_LENGTH];
+
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+        double[] magnetic = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[] maxPosition = { max.px, max.py, max.pz };
+        int n = 0;
+
+        for (int i = 0; i < positionSteps * positionSteps * positionSteps; i++) {
+            // Positions from minimum to maximum including both ends
+            for (int k = 0, step = i; k < 3; k++, step /= positionSteps) {
+                location[k] = positionSteps > 1 ? maxPosition[k] *
+                        (2.0 * (step % positionSteps) / (positionSteps - 1) - 1.0) : 0;
+            }
+
+            for (int j = 0; j < angleSteps * angleSteps * angleSteps; j++) {
+                // Angles from -pi to pi excluding the end for it is the same as -pi
+                for (int k = 0, step = j; k < 3; k++, step /= angleSteps) {
+                    location[3 + k] = Math.PI * (2.0 * (step % angleSteps) / angleSteps - 1.0);
+                }
+
+                model.getMagneticData(location, magnetic);
+
+                for (int k = 0; k < CoilFieldModel.LOCATION_LENGTH; k++)
+                    records[n][k] = (float)location[k];
+                for (int k = 0; k < CoilFieldModel.MAGNETIC_LENGTH; k++)
+                    records[n][CoilFieldModel.LOCATION_LENGTH + k] = (float)magnetic[k];
+
+                n++;
+            }
+        }
+
+        buildTree(records, 0, count, 0);
+
+        File temp = new File(file.getPath() + ".tmp");
+
+        try (RandomAccessFile output = new RandomAccessFile(temp, "rw");
+             FileChannel channel = output.getChannel()) {
+            output.setLength(0);
+
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * RECORD_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(FILE_MAGIC)
+                    .putInt(FILE_VERSION)
+                    .putInt(CoilFieldModel.MODEL_VERSION)
+                    .putInt(positionSteps)
+                    .putInt(angleSteps)
+                    .putInt(count);
+
+            for (float[] record : records) {
+                for (float value : record)
+                    buffer.putFloat(value);
+            }
+
+            buffer.flip();
+
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to build fingerprint index " + file + ": " + e.getMessage());
+            return false;
+        }
+
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Failed to store fingerprint index " + file);
+            return false;
+        }
+
+        Log.d(TAG, "Built fingerprint index with " + count + " records in " +
+                (System.currentTimeMillis() - startTime) + "ms");
+
+        return true;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // Find location of the nearest magnetic data in the index, return squared distance
+    // between magnetic data or NaN for an empty index or magnetic data of NaN, the
+    // location is left as it is then
+    public synchronized double findNearest(double[] magnetic, double[] location) {
+        if (count == 0)
+            return Double.NaN;
+
+        query = magnetic;
+        nearestIndex = -1;
+        nearestDistance = Double.POSITIVE_INFINITY;
+
+        search(0, count, 0);
+
+        query = null;
+
+        // No distance to NaN is less than infinity, so that no record is nearest
+        if (nearestIndex < 0)
+            return Double.NaN;
+
+        for (int k = 0; k < CoilFieldModel.LOCATION_LENGTH; k++)
+            location[k] = getValue(nearestIndex, k);
+
+        return nearestDistance;
+    }
+
+    private void search(int start, int end, int depth) {
+        if (start >= end)
+            return;
+
+        int median = (start + end) >>> 1;
+        int axis = depth % CoilFieldModel.MAGNETIC_LENGTH;
+        double distance = 0;
+
+        for (int k = 0; k < CoilFieldModel.MAGNETIC_LENGTH && distance < nearestDistance; k++) {
+            double delta = query[k] - getValue(median, CoilFieldModel.LOCATION_LENGTH + k);
+
+            distance += delta * delta;
+        }
+
+        if (distance < nearestDistance) {
+            nearestDistance = distance;
+            nearestIndex = median;
+        }
+
+        double delta = query[axis] - getValue(median, CoilFieldModel.LOCATION_LENGTH + axis);
+
+        // Search the side of query first, then the other side only if it can be nearer
+        if (delta < 0) {
+            search(start, median, depth + 1);
+            if (delta * delta < nearestDistance)
+                search(median + 1, end, depth + 1);
+        } else {
+            search(median + 1, end, depth + 1);
+            if (delta * delta < nearestDistance)
+                search(start, median, depth + 1);
+        }
+    }
+
+    private double getValue(int index, int offset) {
+        return buffer.getFloat(HEADER_SIZE + index * RECORD_SIZE + offset * 4);
+    }
+
+    // Arrange records so the median of each range splits the range by one axis of
+    // magnetic data, axes are taken in turn by depth of the tree
+    private static void buildTree(float[][] records, int start, int end, int depth) {
+        if (end - start <= 1)
+            return;
+
+        int median = (start + end) >>> 1;
+
+        select(records, start, end - 1, median,
+                CoilFieldModel.LOCATION_LENGTH + depth % CoilFieldModel.MAGNETIC_LENGTH);
+
+        buildTree(records, start, median, depth + 1);
+        buildTree(records, median + 1, end, depth + 1);
+    }
+
+    // Quickselect records within [left, right] so the k-th record is in its sorted place
+    private static void select(float[][] records, int left, int right, int k, int offset) {
+        while (left < right) {
+            float pivot = records[(left + right) >>> 1][offset];
+            int i = left, j = right;
+
+            while (i <= j) {
+                while (records[i][offset] < pivot)
+                    i++;
+                while (records[j][offset] > pivot)
+                    j--;
+
+                if (i <= j) {
+                    float[] temp = records[i];
+
+                    records[i] = records[j];
+                    records[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (k <= j)
+                right = j;
+            else if (k >= i)
+                left = i;
+            else
+                return;
+        }
+    }
+}
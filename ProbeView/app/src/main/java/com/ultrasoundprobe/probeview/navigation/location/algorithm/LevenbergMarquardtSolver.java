@@ -0,0 +1,322 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class LevenbergMarquardtSolver {
+    private static final int N = CoilFieldModel.LOCATION_LENGTH;
+    private static final int M = CoilFieldModel.MAGNETIC_LENGTH;
+    private static final int G = CoilFieldModel.GRAVITY_LENGTH;
+
+    private static final int MAX_ITERATIONS = 200;
+
+    // Tolerances of relative cost reduction, relative step size and gradient
+    private static final double COST_TOLERANCE = 1e-10;
+    private static final double STEP_TOLERANCE = 1e-10;
+    private static final double GRADIENT_TOLERANCE = 1e-10;
+
+    // Initial, minimum and maximum damping factor
+    private static final double DAMPING_INITIAL = 1e-3;
+    private static final double DAMPING_MIN = 1e-12;
+    private static final double DAMPING_MAX = 1e12;
+
+    private final CoilFieldModel model = new CoilFieldModel();
+    private final double[] lowerBounds;
+    private final double[] upperBounds;
+
+    // Workspace of the solver, all allocated once so that solving is garbage free
+    private final double[] x = new double[N];
+    private final double[] xTrial = new double[N];
+    private final double[] step = new double[N];
+    private final double[] gradient = new double[N];
+    private double[] values = new double[M + G];
+    private double[] valuesTrial = new double[M + G];
+    private double[][] jacobian = new double[M + G][N];
+    private double[][] jacobianTrial = new double[M + G][N];
+    private final double[][] normal = new double[N][N];
+    private final double[][] damped = new double[N][N];
+
+    // Deadline of System.nanoTime() for each solve, 0 for no deadline
+    private long deadline = 0;
+
+    // Weight of residual of each magnetic value, null for equal weights
+    private double[] weights = null;
+
+    // Direction of gravity read by the accelerometer as a unit vector, null for none,
+    // and weight of its residuals relative to the norm of weighted magnetic values
+    private double[] gravity = null;
+    private double gravityWeight;
+    private double gravityScale;
+    private int rows = M;
+
+    // Levenberg-Marquardt algorithm has no boundary check, so parameters are clamped
+    // into bounds on every step instead
+    public LevenbergMarquardtSolver(double[] lowerBounds, double[] upperBounds) {
+        this.lowerBounds = lowerBounds.clone();
+        this.upperBounds = upperBounds.clone();
+    }
+
+    public CoilFieldModel getModel() {
+        return model;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    // Weights are read by each solve from the caller-owned array
+    public void setWeights(double[] weights) {
+        this.weights = weights;
+    }
+
+    // Gravity direction is read by each solve from the caller-owned array, its residuals
+    // are added to those of magnetic values so that angles fit both
+    public void setGravity(double[] gravity, double weight) {
+        this.gravity = gravity;
+        this.gravityWeight = weight;
+    }
+
+    // Solve location from magnetic values of all coils and initial guess, the solver
+    // stops once the cancel flag is set and returns the location reached so far
+    public boolean solve(double[] target, double[] start, double[] location,
+                         SolverReport report, AtomicBoolean cancelled) {
+        return solve(target, start, location, report, cancelled, null);
+    }
+
+    // Same as above, parameters flagged as fixed are kept at their initial guess
+    public boolean solve(double[] target, double[] start, double[] location,
+                         SolverReport report, AtomicBoolean cancelled, boolean[] fixed) {
+        report.reset();
+
+        for (int i = 0; i < N; i++)
+            x[i] = clamp(start[i], i);
+
+        rows = gravity != null ? M + G : M;
+
+        if (gravity != null) {
+            double norm = 0;
+
+            for (int i = 0; i < M; i++) {
+                double value = weights != null ? target[i] * weights[i] : target[i];
+
+                norm += value * value;
+            }
+
+            gravityScale = gravityWeight * Math.sqrt(norm);
+        }
+
+        double cost = evaluate(x, target, values, jacobian);
+        double damping = DAMPING_INITIAL;
+
+        report.evaluations++;
+
+        if (Double.isNaN(cost))
+            return false;
+
+        while (report.iterations < MAX_ITERATIONS &&
+                (cancelled == null || !cancelled.get())) {
+            // Out of time, each accepted step only lowers the cost so the current
+            // location is the best one so far
+            if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                report.partial = true;
+                break;
+            }
+
+            report.iterations++;
+
+            // Normal equations J^T * J and gradient J^T * r
+            for (int i = 0; i < N; i++) {
+                double sum = 0;
+
+                for (int k = 0; k < rows; k++)
+                    sum += jacobian[k][i] * values[k];
+
+                gradient[i] = sum;
+
+                for (int j = 0; j <= i; j++) {
+                    sum = 0;
+
+                    for (int k = 0; k < rows; k++)
+                        sum += jacobian[k][i] * jacobian[k][j];
+
+                    normal[i][j] = normal[j][i] = sum;
+                }
+            }
+
+            // Decouple fixed parameters so that their steps are always zero
+            for (int i = 0; fixed != null && i < N; i++) {
+                if (!fixed[i])
+                    continue;
+
+                gradient[i] = 0;
+
+                for (int j = 0; j < N; j++)
+                    normal[i][j] = normal[j][i] = 0;
+
+                normal[i][i] = 1;
+            }
+
+            if (maxAbs(gradient) <= GRADIENT_TOLERANCE)
+                break;
+
+            boolean accepted = false;
+            boolean converged = false;
+
+            while (!accepted && damping <= DAMPING_MAX) {
+                // Scale damping by diagonal of normal matrix as Marquardt did
+                for (int i = 0; i < N; i++) {
+                    System.arraycopy(normal[i], 0, damped[i], 0, N);
+                    damped[i][i] += damping * Math.max(normal[i][i], Double.MIN_NORMAL);
+                }
+
+                if (!solveCholesky(damped, gradient, step)) {
+                    damping *= 10.0;
+                    continue;
+                }
+
+                double stepNorm = 0, xNorm = 0;
+
+                for (int i = 0; i < N; i++) {
+                    xTrial[i] = clamp(x[i] - step[i], i);
+                    stepNorm += (xTrial[i] - x[i]) * (xTrial[i] - x[i]);
+                    xNorm += x[i] * x[i];
+                }
+
+                double costTrial = evaluate(xTrial, target, valuesTrial, jacobianTrial);
+
+                report.evaluations++;
+
+                if (!Double.isNaN(costTrial) && costTrial < cost) {
+                    converged = (cost - costTrial) <= COST_TOLERANCE * cost ||
+                            Math.sqrt(stepNorm) <= STEP_TOLERANCE * (Math.sqrt(xNorm) +
+                                    STEP_TOLERANCE);
+
+                    swapTrial();
+                    cost = costTrial;
+                    damping = Math.max(damping / 10.0, DAMPING_MIN);
+                    accepted = true;
+                } else {
+                    damping *= 10.0;
+                }
+            }
+
+            // No further reduction of cost is possible for a rejected step
+            if (!accepted || converged)
+                break;
+        }
+
+        System.arraycopy(x, 0, location, 0, N);
+        report.residual = Math.sqrt(cost);
+
+        return true;
+    }
+
+    // Evaluate residuals and Jacobian, return cost as sum of squared residuals
+    private double evaluate(double[] location, double[] target,
+                            double[] residuals, double[][] jacobian) {
+        model.getMagneticData(location, residuals, jacobian);
+
+        double cost = 0;
+
+        for (int i = 0; i < M; i++) {
+            residuals[i] -= target[i];
+
+            if (weights != null) {
+                residuals[i] *= weights[i];
+
+                for (int j = 0; j < N; j++)
+                    jacobian[i][j] *= weights[i];
+            }
+
+            cost += residuals[i] * residuals[i];
+        }
+
+        if (gravity == null)
+            return cost;
+
+        model.getGravityData(location, residuals, M, jacobian);
+
+        for (int i = M; i < M + G; i++) {
+            residuals[i] = (residuals[i] - gravity[i - M]) * gravityScale;
+
+            for (int j = 0; j < N; j++)
+                jacobian[i][j] *= gravityScale;
+
+            cost += residuals[i] * residuals[i];
+        }
+
+        return cost;
+    }
+
+    private void swapTrial() {
+        double[] tempValues = values;
+        double[][] tempJacobian = jacobian;
+
+        System.arraycopy(xTrial, 0, x, 0, N);
+        values = valuesTrial;
+        valuesTrial = tempValues;
+        jacobian = jacobianTrial;
+        jacobianTrial = tempJacobian;
+    }
+
+    private double clamp(double value, int index) {
+        return Math.max(lowerBounds[index], Math.min(value, upperBounds[index]));
+    }
+
+    private static double maxAbs(double[] values) {
+        double max = 0;
+
+        for (double value : values)
+            max = Math.max(max, Math.abs(value));
+
+        return max;
+    }
+
+    // Solve a * result = b for a symmetric positive definite matrix by Cholesky
+    // decomposition in place of the lower triangle of a
+    private static boolean solveCholesky(double[][] a, double[] b, double[] result) {
+        int n = b.length;
+
+        for (int j = 0; j < n; j++) {
+            double sum = a[j][j];
+
+            for (int k = 0; k < j; k++)
+                sum -= a[j][k] * a[j][k];
+
+            if (!(sum > 0))
+                return false;
+
+            a[j][j] = Math.sqrt(sum);
+
+            for (int i = j + 1; i < n; i++) {
+                sum = a[i][j];
+
+                for (int k = 0; k < j; k++)
+                    sum -= a[i][k] * a[j][k];
+
+                a[i][j] = sum / a[j][j];
+            }
+        }
+
+        // Forward substitution for L * y = b
+        for (int i = 0; i < n; i++) {
+            double sum = b[i];
+
+            for (int k = 0; k < i; k++)
+                sum -= a[i][k] * result[k];
+
+            result[i] = sum / a[i][i];
+        }
+
+        // Backward substitution for L^T * x = y
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = result[i];
+
+            for (int k = i + 1; k < n; k++)
+                sum -= a[k][i] * result[k];
+
+            result[i] = sum / a[i][i];
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,246 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import android.util.Log;
+
+import com.ultrasoundprobe.probeview.device.DeviceService;
+import com.ultrasoundprobe.probeview.navigation.location.LocationData;
+import com.ultrasoundprobe.probeview.navigation.location.MagneticData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MultiStartLM extends BaseEngine {
+    private static final String TAG = "MultiStartLM";
+
+    // Maximum number of threads to solve seeds in parallel
+    private static final int MAX_PARALLELISM = 4;
+
+    // Residual norm relative to norm of magnetic data for a seed to be good enough,
+    // remaining seeds are cancelled once a result falls under it
+    private static final double RESIDUAL_RATIO_EARLY_STOP = 0.01;
+
+    // Position of seeds on a coarse grid relative to maximum position
+    private static final double GRID_POSITION_RATIO = 0.4;
+    // Angles of seeds on a coarse grid
+    private static final double GRID_ANGLE = Math.PI / 10.0;
+
+    // Default initial guess of a cold start
+    private static final double[] INITIAL_GUESS = {
+            0.1, 0.1, 0.1, Math.PI / 10.0, Math.PI / 10.0, Math.PI / 10.0
+    };
+
+    private static class Candidate {
+        public final double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+        public final SolverReport report = new SolverReport();
+    }
+
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(
+            Runtime.getRuntime().availableProcessors(), MAX_PARALLELISM)));
+
+    // Each worker thread has its own engine as the solver is not thread-safe
+    private final ThreadLocal<NativeLeastSquareLM> engines =
+            new ThreadLocal<NativeLeastSquareLM>() {
+        @Override
+        protected NativeLeastSquareLM initialValue() {
+            return new NativeLeastSquareLM();
+        }
+    };
+
+    private final NativeLeastSquareLM engine = new NativeLeastSquareLM();
+    private final double[][] gridSeeds = buildGridSeeds();
+
+    // Index of precomputed magnetic data for an extra seed, which may be set from
+    // another thread once it is ready
+    private volatile FingerprintIndex seedIndex;
+
+    public void setSeedIndex(FingerprintIndex index) {
+        seedIndex = index;
+    }
+
+    @Override
+    public LocationData getLocationData(DeviceService.ImuData[] values, LocationData prior) {
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+
+        if (!getLocationData(getMagneticValues(values),
+                prior != null ? prior.getValues() : null,
+                location, new SolverReport()))
+            return null;
+
+        return new LocationData(
+                location[0], location[1], location[2],
+                location[3], location[4], location[5],
+                0, 0, 0);
+    }
+
+    @Override
+    public boolean getLocationData(final double[] magnetic, double[] prior, double[] location,
+                                   SolverReport report) {
+        final double threshold = RESIDUAL_RATIO_EARLY_STOP * norm(magnetic);
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final AtomicBoolean expired = new AtomicBoolean(false);
+        final long deadline = timeBudget > 0 ? System.nanoTime() + timeBudget : 0;
+        final double[] weights = this.weights;
+
+        List<ForkJoinTask<Candidate>> tasks = new ArrayList<>();
+
+        // Submit seeds in order of their chance to be the right basin
+        for (final double[] seed : buildSeeds(magnetic, prior)) {
+            final boolean isFirst = tasks.isEmpty();
+
+            tasks.add(pool.submit(new Callable<Candidate>() {
+                @Override
+                public Candidate call() {
+                    if (cancelled.get())
+                        return null;
+
+                    NativeLeastSquareLM engine = engines.get();
+
+                    // Seeds share the time budget of the location, the first seed
+                    // always gives a location even if it is out of time
+                    if (deadline != 0) {
+                        long remaining = deadline - System.nanoTime();
+
+                        if (remaining <= 0 && !isFirst) {
+                            expired.set(true);
+                            return null;
+                        }
+
+                        engine.setTimeBudget(Math.max(1, remaining));
+                    } else {
+                        engine.setTimeBudget(0);
+                    }
+
+                    engine.setWeights(weights);
+
+                    Candidate candidate = new Candidate();
+
+                    if (!engine.getLocationData(magnetic, seed,
+                            candidate.location, candidate.report, cancelled))
+                        return null;
+
+                    if (candidate.report.partial)
+                        expired.set(true);
+
+                    if (candidate.report.residual <= threshold)
+                        cancelled.set(true);
+
+                    return candidate;
+                }
+            }));
+        }
+
+        Candidate best = null;
+        int iterations = 0, evaluations = 0;
+
+        for (ForkJoinTask<Candidate> task : tasks) {
+            Candidate candidate;
+
+            try {
+                candidate = task.join();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to solve location from seed: " + e.getMessage());
+                continue;
+            }
+
+            if (candidate == null)
+                continue;
+
+            iterations += candidate.report.iterations;
+            evaluations += candidate.report.evaluations;
+
+            if (best == null || candidate.report.residual < best.report.residual)
+                best = candidate;
+        }
+
+        report.reset();
+
+        if (best == null) {
+            residual = Double.NaN;
+            return false;
+        }
+
+        // Report the best seed with effort spent on all seeds
+        report.set(best.report);
+        report.iterations = iterations;
+        report.evaluations = evaluations;
+        report.partial = expired.get();
+
+        System.arraycopy(best.location, 0, location, 0, best.location.length);
+
+        residual = best.report.residual;
+
+        return true;
+    }
+
+    @Override
+    public MagneticData getMagneticData(LocationData value, int coilId) {
+        return engine.getMagneticData(value, coilId);
+    }
+
+    @Override
+    public int getCoilId(int index) {
+        return engine.getCoilId(index);
+    }
+
+    private List<double[]> buildSeeds(double[] target, double[] prior) {
+        List<double[]> seeds = new ArrayList<>();
+
+        if (prior != null) {
+            // Previous location and its mirrored location, the coil field is symmetric
+            // about the coil center so both give the same magnetic data
+            seeds.add(new double[] {
+                    prior[0], prior[1], prior[2],
+                    prior[3], prior[4], prior[5] });
+            seeds.add(new double[] {
+                    -prior[0], -prior[1], -prior[2],
+                    prior[3], prior[4], prior[5] });
+        }
+
+        FingerprintIndex index = seedIndex;
+
+        if (index != null) {
+            // Nearest location from precomputed magnetic data
+            double[] seed = new double[CoilFieldModel.LOCATION_LENGTH];
+
+            if (!Double.isNaN(index.findNearest(target, seed)))
+                seeds.add(seed);
+        }
+
+        // Default initial guess of a cold start
+        seeds.add(INITIAL_GUESS);
+
+        for (double[] seed : gridSeeds)
+            seeds.add(seed);
+
+        return seeds;
+    }
+
+    private double[][] buildGridSeeds() {
+        LocationData max = getMaxLocation();
+        double[][] seeds = new double[8][];
+
+        // One seed for each octant around the coil center
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = new double[] {
+                    ((i & 1) != 0 ? 1 : -1) * max.px * GRID_POSITION_RATIO,
+                    ((i & 2) != 0 ? 1 : -1) * max.py * GRID_POSITION_RATIO,
+                    ((i & 4) != 0 ? 1 : -1) * max.pz * GRID_POSITION_RATIO,
+                    GRID_ANGLE, GRID_ANGLE, GRID_ANGLE };
+        }
+
+        return seeds;
+    }
+
+    private static double norm(double[] values) {
+        double sum = 0;
+
+        for (double value : values)
+            sum += value * value;
+
+        return Math.sqrt(sum);
+    }
+}
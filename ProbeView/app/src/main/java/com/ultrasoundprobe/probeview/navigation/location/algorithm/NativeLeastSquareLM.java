@@ -0,0 +1,232 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import android.util.Log;
+
+import com.ultrasoundprobe.probeview.device.DeviceService;
+import com.ultrasoundprobe.probeview.navigation.location.LocationData;
+import com.ultrasoundprobe.probeview.navigation.location.MagneticData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class NativeLeastSquareLM extends BaseEngine {
+    private static final String TAG = "NativeLeastSquareLM";
+
+    // Initial values of guess
+    private static final double[] INITIAL_GUESS = {
+            0.1, 0.1, 0.1, Math.PI / 10.0, Math.PI / 10.0, Math.PI / 10.0
+    };
+
+    // Lower and upper bounds of position X, Y, Z and angle X, Y, Z
+    private static final double[] LOWER_BOUNDS = {
+            -0.5, -0.5, -0.5, -Math.PI, -Math.PI, -Math.PI
+    };
+    private static final double[] UPPER_BOUNDS = {
+            0.5, 0.5, 0.5, Math.PI, Math.PI, Math.PI
+    };
+
+    // Minimum number of frames for each thread of a batch, the first frame of each
+    // thread has a cold start so that a batch is not split into too short sequences
+    private static final int MIN_BATCH_FRAMES = 256;
+
+    private final LevenbergMarquardtSolver solver =
+            new LevenbergMarquardtSolver(LOWER_BOUNDS, UPPER_BOUNDS);
+    private final CoilFieldModel model = solver.getModel();
+
+    private final double[] start = new double[CoilFieldModel.LOCATION_LENGTH];
+
+    // Weight of residuals of gravity direction relative to the norm of magnetic values,
+    // so that a tilt of one radian off gravity weighs as much as all of magnetic values
+    private static final double GRAVITY_WEIGHT = 1.0;
+
+    private final TiltEstimator tiltEstimator = new TiltEstimator();
+    private final double[] gravityDirection = new double[CoilFieldModel.GRAVITY_LENGTH];
+    private boolean isTiltConstraint = false;
+
+    // Index of precomputed magnetic data for initial guess of a cold start, which may be
+    // set from another thread once it is ready
+    private volatile FingerprintIndex seedIndex;
+
+    public void setSeedIndex(FingerprintIndex index) {
+        seedIndex = index;
+    }
+
+    // Fit angles to gravity of accelerometer data as well while the probe is
+    // quasi-static
+    public void setTiltConstraint(boolean enable) {
+        isTiltConstraint = enable;
+        tiltEstimator.reset();
+    }
+
+    @Override
+    public LocationData getLocationData(DeviceService.ImuData[] values, LocationData prior) {
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+
+        if (!getLocationData(getMagneticValues(values), getGravityValues(values),
+                prior != null ? prior.getValues() : null,
+                location, new SolverReport()))
+            return null;
+
+        return new LocationData(
+                location[0], location[1], location[2],
+                location[3], location[4], location[5],
+                0, 0, 0);
+    }
+
+    @Override
+    public boolean getLocationData(double[] magnetic, double[] prior, double[] location,
+                                   SolverReport report) {
+        return getLocationData(magnetic, prior, location, report, null);
+    }
+
+    @Override
+    public boolean getLocationData(double[] magnetic, double[] gravity, double[] prior,
+                                   double[] location, SolverReport report) {
+        if (!isTiltConstraint || gravity == null ||
+                !tiltEstimator.getGravity(gravity, gravityDirection))
+            return getLocationData(magnetic, prior, location, report, null);
+
+        setStart(magnetic, prior);
+        setSolver();
+
+        solver.setGravity(gravityDirection, GRAVITY_WEIGHT);
+
+        boolean solved = solver.solve(magnetic, start, location, report, null);
+
+        solver.setGravity(null, 0);
+
+        // Solve by magnetic data alone from there if angles by gravity do not fit
+        // magnetic data, such as the coil is not level
+        if (!solved || !isWarmStartAcceptable(magnetic, report.residual)) {
+            int iterations = report.iterations, evaluations = report.evaluations;
+
+            if (solved)
+                System.arraycopy(location, 0, start, 0, start.length);
+
+            boolean partial = report.partial;
+
+            solved = solver.solve(magnetic, start, location, report, null);
+
+            report.partial |= partial;
+            report.iterations += iterations;
+            report.evaluations += evaluations;
+        }
+
+        residual = solved ? report.residual : Double.NaN;
+
+        return solved;
+    }
+
+    // Same as above, the solver stops once the cancel flag is set and returns the
+    // location reached so far
+    boolean getLocationData(double[] magnetic, double[] prior, double[] location,
+                            SolverReport report, AtomicBoolean cancelled) {
+        setStart(magnetic, prior);
+        setSolver();
+
+        boolean solved = solver.solve(magnetic, start, location, report, cancelled);
+
+        residual = solved ? report.residual : Double.NaN;
+
+        return solved;
+    }
+
+    // Deadline and weights of the next solve
+    private void setSolver() {
+        solver.setDeadline(timeBudget > 0 ? System.nanoTime() + timeBudget : 0);
+        solver.setWeights(weights);
+    }
+
+    private void setStart(double[] magnetic, double[] prior) {
+        FingerprintIndex index = seedIndex;
+
+        if (prior != null)
+            System.arraycopy(prior, 0, start, 0, start.length);
+        else if (index == null || Double.isNaN(index.findNearest(magnetic, start)))
+            System.arraycopy(INITIAL_GUESS, 0, start, 0, start.length);
+    }
+
+    @Override
+    public int getLocationDataBatch(final double[] magnetic, int count,
+                                    final double[] locations, final double[] residuals) {
+        return getLocationDataBatch(magnetic, count, locations, residuals,
+                Math.min(Runtime.getRuntime().availableProcessors(),
+                        count / MIN_BATCH_FRAMES));
+    }
+
+    // Same as above on a given number of threads
+    int getLocationDataBatch(final double[] magnetic, int count, final double[] locations,
+                             final double[] residuals, int threads) {
+        if (threads <= 1)
+            return getLocationDataSequence(this, magnetic, 0, count, locations, residuals);
+
+        // Split the batch into one sequence for each thread, each thread has its own
+        // engine as the solver is not thread-safe, configured the same as this one
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+        int solvedCount = 0;
+
+        for (int i = 0; i < threads; i++) {
+            final int start = (int)((long)count * i / threads);
+            final int end = (int)((long)count * (i + 1) / threads);
+            final NativeLeastSquareLM engine = new NativeLeastSquareLM();
+
+            engine.setSeedIndex(seedIndex);
+            engine.setWeights(weights);
+            engine.setTimeBudget(timeBudget);
+            engine.isTiltConstraint = isTiltConstraint;
+
+            tasks.add(pool.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return getLocationDataSequence(engine, magnetic, start, end,
+                            locations, residuals);
+                }
+            }));
+        }
+
+        // Frames of a failed thread are unsolved, whatever it wrote before it failed
+        for (int i = 0; i < threads; i++) {
+            try {
+                solvedCount += tasks.get(i).join();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to solve batch of locations: " + e.getMessage());
+
+                int start = (int)((long)count * i / threads);
+                int end = (int)((long)count * (i + 1) / threads);
+
+                Arrays.fill(locations, start * CoilFieldModel.LOCATION_LENGTH,
+                        end * CoilFieldModel.LOCATION_LENGTH, Double.NaN);
+                Arrays.fill(residuals, start, end, Double.NaN);
+            }
+        }
+
+        pool.shutdown();
+
+        return solvedCount;
+    }
+
+    @Override
+    public MagneticData getMagneticData(LocationData value, int coilId) {
+        if (value == null)
+            return null;
+
+        double[] results = new double[MagneticData.LENGTH];
+
+        model.getMagneticData(new double[] {
+                value.px, value.py, value.pz,
+                value.ax, value.ay, value.az }, coilId, results, 0);
+
+        return new MagneticData(results);
+    }
+
+    @Override
+    public int getCoilId(int index) {
+        return model.getCoilId(index);
+    }
+}
@@ -9,6 +9,8 @@ import com.ultrasoundprobe.probeview.device.DeviceService;
 import com.ultrasoundprobe.probeview.navigation.location.LocationData;
 import com.ultrasoundprobe.probeview.navigation.location.MagneticData;
 
+import java.util.Arrays;
+
 public class PythonAlgoBackend extends BaseEngine {
     private final PyObject pyModule;
 
@@ -21,13 +23,19 @@ public class PythonAlgoBackend extends BaseEngine {
     }
 
     @Override
-    public LocationData getLocationData(DeviceService.ImuData[] values) {
+    public LocationData getLocationData(DeviceService.ImuData[] values, LocationData prior) {
+        // Use None in Python for a cold start
         Object[] results = pyModule.callAttr("get_location_data",
                 values[0].mx, values[0].my, values[0].mz,
                 values[1].mx, values[1].my, values[1].mz,
-                values[2].mx, values[2].my, values[2].mz).asList().toArray();
+                values[2].mx, values[2].my, values[2].mz,
+                prior != null ? new double[] {
+                        prior.px, prior.py, prior.pz,
+                        prior.ax, prior.ay, prior.az } : null).asList().toArray();
         LocationData location = new LocationData();
 
+        residual = Double.NaN;
+
         try {
             location.px = Double.parseDouble(results[0].toString());
             location.py = Double.parseDouble(results[1].toString());
@@ -35,6 +43,7 @@ public class PythonAlgoBackend extends BaseEngine {
             location.ax = Double.parseDouble(results[3].toString());
             location.ay = Double.parseDouble(results[4].toString());
             location.az = Double.parseDouble(results[5].toString());
+            residual = Double.parseDouble(results[6].toString());
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -43,6 +52,40 @@ public class PythonAlgoBackend extends BaseEngine {
         return location;
     }
 
+    @Override
+    public int getLocationDataBatch(double[] magnetic, int count,
+                                    double[] locations, double[] residuals) {
+        // Solve all frames in one call to avoid crossing into Python for each frame,
+        // results are flattened as [px, py, pz, ax, ay, az, residual] of each frame
+        double[] results = null;
+
+        try {
+            results = pyModule.callAttr("get_location_data_batch",
+                    magnetic, count).toJava(double[].class);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        // No frame is solved for a failed call or results of too few frames
+        if (results == null || results.length < count * 7) {
+            Arrays.fill(locations, 0, count * 6, Double.NaN);
+            Arrays.fill(residuals, 0, count, Double.NaN);
+            return 0;
+        }
+
+        int solvedCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(results, i * 7, locations, i * 6, 6);
+            residuals[i] = results[i * 7 + 6];
+
+            if (!Double.isNaN(locations[i * 6]))
+                solvedCount++;
+        }
+
+        return solvedCount;
+    }
+
     @Override
     public MagneticData getMagneticData(LocationData value, int coilId) {
         if (value == null)
@@ -29,7 +29,9 @@ public class RemoteAlgoBackend extends BaseEngine {
     }
 
     @Override
-    public LocationData getLocationData(DeviceService.ImuData[] values) {
+    public LocationData getLocationData(DeviceService.ImuData[] values, LocationData prior) {
+        // The algorithm backend takes magnetic data only, so that it always has a cold
+        // start from an initial guess of its own, whatever the prior is
         if (hostService == null || !hostService.isHostConnected())
             return null;
 
@@ -0,0 +1,45 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import androidx.annotation.NonNull;
+
+import java.text.DecimalFormat;
+
+public class SolverReport {
+    // Residual norm of location solved, NaN for an engine not reporting it
+    public double residual;
+    // Number of iterations and evaluations of the model taken by the solver
+    public int iterations;
+    public int evaluations;
+    // Whether the solver ran out of time before convergence, the location is the best
+    // one reached by then
+    public boolean partial;
+
+    public SolverReport() {
+        reset();
+    }
+
+    public void reset() {
+        residual = Double.NaN;
+        iterations = 0;
+        evaluations = 0;
+        partial = false;
+    }
+
+    public void set(SolverReport report) {
+        residual = report.residual;
+        iterations = report.iterations;
+        evaluations = report.evaluations;
+        partial = report.partial;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        DecimalFormat decimalFormat = new DecimalFormat("#.##");
+
+        return "Residual: " + decimalFormat.format(residual) +
+                ", Iterations: " + iterations +
+                ", Evaluations: " + evaluations +
+                (partial ? ", Partial" : "");
+    }
+}
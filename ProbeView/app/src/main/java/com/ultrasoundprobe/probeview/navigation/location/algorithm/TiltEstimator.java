@@ -0,0 +1,71 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+public class TiltEstimator {
+    // Maximum deviation of accelerometer magnitude relative to gravity magnitude, and
+    // of each sample from the mean of samples, for the probe to be quasi-static
+    private static final double MOTION_RATIO = 0.05;
+
+    // Weight of each static frame in the running gravity magnitude, the accelerometer
+    // unit is not assumed so the magnitude is learned from data
+    private static final double GRAVITY_WEIGHT = 0.1;
+
+    private double gravity = Double.NaN;
+
+    public void reset() {
+        gravity = Double.NaN;
+    }
+
+    // Derive direction of gravity [Gx, Gy, Gz] as a unit vector from accelerometer data
+    // [Gx0, Gy0, Gz0, Gx1, ...] of a frame, which is the vertical axis of coils rotated
+    // by the coil field model, see CoilFieldModel.getGravityData(), return false if the
+    // accelerometer data shows motion
+    public boolean getGravity(double[] values, double[] direction) {
+        int count = values.length / 3;
+
+        if (count == 0)
+            return false;
+
+        double gx = 0, gy = 0, gz = 0;
+
+        for (int i = 0; i < count; i++) {
+            gx += values[i * 3];
+            gy += values[i * 3 + 1];
+            gz += values[i * 3 + 2];
+        }
+
+        gx /= count;
+        gy /= count;
+        gz /= count;
+
+        double magnitude = Math.sqrt(gx * gx + gy * gy + gz * gz);
+
+        if (!(magnitude > 0))
+            return false;
+
+        // Samples of a frame disagree with each other while the probe moves
+        for (int i = 0; i < count; i++) {
+            double dx = values[i * 3] - gx;
+            double dy = values[i * 3 + 1] - gy;
+            double dz = values[i * 3 + 2] - gz;
+
+            if (Math.sqrt(dx * dx + dy * dy + dz * dz) > MOTION_RATIO * magnitude)
+                return false;
+        }
+
+        // So does the magnitude with gravity under constant acceleration
+        if (Double.isNaN(gravity))
+            gravity = magnitude;
+        else if (Math.abs(magnitude - gravity) > MOTION_RATIO * gravity)
+            return false;
+        else
+            gravity += GRAVITY_WEIGHT * (magnitude - gravity);
+
+        // Gravity fixes two degrees of freedom of rotation, which are not angle X and Y
+        // alone as angle Z is applied last
+        direction[0] = gx / magnitude;
+        direction[1] = gy / magnitude;
+        direction[2] = gz / magnitude;
+
+        return true;
+    }
+}
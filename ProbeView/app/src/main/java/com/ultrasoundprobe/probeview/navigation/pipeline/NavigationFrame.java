@@ -0,0 +1,124 @@
+package com.ultrasoundprobe.probeview.navigation.pipeline;
+
+import com.ultrasoundprobe.probeview.device.DeviceService;
+import com.ultrasoundprobe.probeview.navigation.location.LocationData;
+
+// Item passed between navigation stages, filled in place by each stage
+public class NavigationFrame {
+    public static final int COIL_COUNT = 3;
+
+    // Timestamp of System.nanoTime() when the coil cycle is complete
+    public long timestamp;
+
+    // Times of System.nanoTime() when IMU data of each coil was sampled if known, and
+    // the mean time of samples of active coils
+    public final long[] activeTimes = new long[COIL_COUNT];
+    public final long[] inactiveTimes = new long[COIL_COUNT];
+    public boolean hasSampleTimes;
+    public long sampleTime;
+    // Time of System.nanoTime() when the newest IMU data of the coil cycle was sampled,
+    // which is when the coil cycle is complete if sample times are known
+    public long cycleTime;
+
+    // Magnetic values [Bx0, By0, Bz0, ...] of active and inactive coils, and
+    // accelerometer data [Gx0, Gy0, Gz0, ...] of active coils
+    public final double[] valuesFromActiveCoils = new double[COIL_COUNT * 3];
+    public final double[] valuesFromInactiveCoils = new double[COIL_COUNT * 3];
+    public final double[] gravityFromActiveCoils = new double[COIL_COUNT * 3];
+    // Inactive coils are not sampled for a coil sequence without all-off states
+    public boolean hasInactiveValues;
+
+    // Variance of the mean of magnetic values of active coils if known
+    public final double[] varianceFromActiveCoils = new double[COIL_COUNT * 3];
+    public boolean hasVariance;
+
+    // Location [px, py, pz, ax, ay, az] in engine units and its residual norm
+    public final double[] location = new double[6];
+    public double residual;
+
+    // Location in view coordinates
+    public final LocationData viewLocation = new LocationData();
+
+    public void setImuData(DeviceService.ImuData[] valuesFromActiveCoils,
+                           DeviceService.ImuData[] valuesFromInactiveCoils) {
+        hasInactiveValues = valuesFromInactiveCoils != null;
+
+        for (int i = 0; i < COIL_COUNT; i++) {
+            DeviceService.ImuData active = valuesFromActiveCoils[i];
+
+            this.valuesFromActiveCoils[i * 3] = active.mx;
+            this.valuesFromActiveCoils[i * 3 + 1] = active.my;
+            this.valuesFromActiveCoils[i * 3 + 2] = active.mz;
+            this.gravityFromActiveCoils[i * 3] = active.gx;
+            this.gravityFromActiveCoils[i * 3 + 1] = active.gy;
+            this.gravityFromActiveCoils[i * 3 + 2] = active.gz;
+
+            if (!hasInactiveValues)
+                continue;
+
+            DeviceService.ImuData inactive = valuesFromInactiveCoils[i];
+
+            this.valuesFromInactiveCoils[i * 3] = inactive.mx;
+            this.valuesFromInactiveCoils[i * 3 + 1] = inactive.my;
+            this.valuesFromInactiveCoils[i * 3 + 2] = inactive.mz;
+        }
+    }
+
+    public void setSampleTimes(long[] activeTimes, long[] inactiveTimes) {
+        long sum = 0;
+        long latest = Long.MIN_VALUE;
+
+        for (int i = 0; i < COIL_COUNT; i++) {
+            sum += activeTimes[i] - activeTimes[0];
+            latest = Math.max(latest, inactiveTimes != null ?
+                    Math.max(activeTimes[i], inactiveTimes[i]) : activeTimes[i]);
+        }
+
+        System.arraycopy(activeTimes, 0, this.activeTimes, 0, COIL_COUNT);
+
+        if (inactiveTimes != null)
+            System.arraycopy(inactiveTimes, 0, this.inactiveTimes, 0, COIL_COUNT);
+
+        hasSampleTimes = true;
+        sampleTime = activeTimes[0] + sum / COIL_COUNT;
+        cycleTime = latest;
+    }
+
+    // Variances [vx, vy, vz] of magnetic values of each active coil
+    public void setVariances(double[][] variances) {
+        for (int i = 0; i < COIL_COUNT; i++)
+            System.arraycopy(variances[i], 0, varianceFromActiveCoils, i * 3, 3);
+
+        hasVariance = true;
+    }
+
+    // Clear data which is optional to an assembler
+    public void clear() {
+        hasSampleTimes = false;
+        sampleTime = 0;
+        cycleTime = 0;
+        hasVariance = false;
+    }
+
+    public void set(NavigationFrame frame) {
+        timestamp = frame.timestamp;
+        residual = frame.residual;
+        hasInactiveValues = frame.hasInactiveValues;
+        hasVariance = frame.hasVariance;
+        hasSampleTimes = frame.hasSampleTimes;
+        sampleTime = frame.sampleTime;
+        cycleTime = frame.cycleTime;
+
+        System.arraycopy(frame.valuesFromActiveCoils, 0,
+                valuesFromActiveCoils, 0, valuesFromActiveCoils.length);
+        System.arraycopy(frame.valuesFromInactiveCoils, 0,
+                valuesFromInactiveCoils, 0, valuesFromInactiveCoils.length);
+        System.arraycopy(frame.gravityFromActiveCoils, 0,
+                gravityFromActiveCoils, 0, gravityFromActiveCoils.length);
+        System.arraycopy(frame.varianceFromActiveCoils, 0,
+                varianceFromActiveCoils, 0, varianceFromActiveCoils.length);
+        System.arraycopy(frame.location, 0, location, 0, location.length);
+        System.arraycopy(frame.activeTimes, 0, activeTimes, 0, COIL_COUNT);
+        System.arraycopy(frame.inactiveTimes, 0, inactiveTimes, 0, COIL_COUNT);
+    }
+}
@@ -0,0 +1,213 @@
+package com.ultrasoundprobe.probeview.navigation.pipeline;
+
+import android.util.Log;
+
+import com.ultrasoundprobe.probeview.device.DeviceService;
+import com.ultrasoundprobe.probeview.navigation.location.DataConvert;
+import com.ultrasoundprobe.probeview.navigation.location.LocationData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Navigation in stages on their own threads: sample assembly, background removal,
+// solving, tracking and render handoff, so that throughput is set by the slowest stage
+public class NavigationPipeline {
+    private static final String TAG = "NavigationPipeline";
+
+    // Capacity of ring buffers of samples and of frames between stages
+    private static final int SAMPLE_CAPACITY = 64;
+    private static final int FRAME_CAPACITY = 4;
+
+    // Number of rendered frames between logs of stage metrics
+    private static final int METRICS_LOG_INTERVAL = 20;
+
+    public interface SampleAssembler {
+        // Take a sample of IMU data with coil switch states and its sample time of
+        // System.nanoTime(), return true once a coil cycle is complete with IMU data of
+        // active and inactive coils set in the frame, along with their sample times and
+        // variances if known
+        boolean assemble(DeviceService.ImuData value, DeviceService.GpioData gpioData,
+                         long timestamp, NavigationFrame frame);
+    }
+
+    public interface LocationListener {
+        void onLocationDataUpdated(LocationData value);
+    }
+
+    // Sample from the device, copied into a preallocated slot by the producer
+    private static class Sample {
+        public final DeviceService.ImuData value = new DeviceService.ImuData(0, 0, 0, 0, 0, 0);
+        public final DeviceService.GpioData gpioData = new DeviceService.GpioData();
+        public long timestamp;
+    }
+
+    private final SpscRingBuffer<Sample> samples =
+            new SpscRingBuffer<>(SAMPLE_CAPACITY, Sample::new);
+    private final PipelineStage<Sample, NavigationFrame> assemblyStage;
+    private final List<PipelineStage<?, ?>> stages = new ArrayList<>();
+
+    private boolean isDebug = false;
+    private long droppedSamples = 0;
+
+    public NavigationPipeline(final DataConvert dataConvert, final SampleAssembler assembler,
+                              final LocationListener listener) {
+        SpscRingBuffer<NavigationFrame> assembled = newFrameBuffer();
+        SpscRingBuffer<NavigationFrame> unbiased = newFrameBuffer();
+        SpscRingBuffer<NavigationFrame> solved = newFrameBuffer();
+        SpscRingBuffer<NavigationFrame> tracked = newFrameBuffer();
+
+        assemblyStage = new PipelineStage<>("NavigationAssembly", samples, assembled,
+                (sample, frame) -> {
+                    frame.clear();
+
+                    if (!assembler.assemble(sample.value, sample.gpioData, sample.timestamp,
+                            frame))
+                        return false;
+
+                    frame.timestamp = System.nanoTime();
+
+                    if (!frame.hasSampleTimes) {
+                        frame.sampleTime = frame.timestamp;
+                        frame.cycleTime = frame.timestamp;
+                    }
+
+                    // Every coil cycle counts towards the time budget, even those
+                    // dropped before they are solved
+                    dataConvert.updateCycleTime(frame.cycleTime);
+
+                    return true;
+                });
+
+        // Assembly follows coil switches and settle windows over every sample, so it
+        // takes all samples and drops only completed frames for a full ring buffer
+        assemblyStage.setScratch(new NavigationFrame(),
+                (source, target) -> target.set(source));
+
+        PipelineStage<NavigationFrame, NavigationFrame> biasStage = new PipelineStage<>(
+                "NavigationBias", assembled, unbiased,
+                (input, output) -> {
+                    output.set(input);
+                    dataConvert.removeBackground(output.valuesFromActiveCoils,
+                            output.hasInactiveValues ? output.valuesFromInactiveCoils : null,
+                            output.hasSampleTimes ? output.inactiveTimes : null);
+                    return true;
+                });
+
+        PipelineStage<NavigationFrame, NavigationFrame> solveStage = new PipelineStage<>(
+                "NavigationSolve", unbiased, solved,
+                (input, output) -> {
+                    output.set(input);
+
+                    if (!dataConvert.solveLocationData(output.valuesFromActiveCoils,
+                            output.hasVariance ? output.varianceFromActiveCoils : null,
+                            output.gravityFromActiveCoils, output.timestamp, output.location))
+                        return false;
+
+                    output.residual = dataConvert.getReport().residual;
+                    return true;
+                });
+
+        PipelineStage<NavigationFrame, NavigationFrame> trackStage = new PipelineStage<>(
+                "NavigationTrack", solved, tracked,
+                (input, output) -> {
+                    output.set(input);
+                    dataConvert.trackLocationData(output.valuesFromActiveCoils,
+                            output.location, output.residual,
+                            output.sampleTime,
+                            output.hasSampleTimes ? output.activeTimes : null);
+                    return true;
+                });
+
+        PipelineStage<NavigationFrame, Void> renderStage = new PipelineStage<>(
+                "NavigationRender", tracked, null,
+                new PipelineStage.Processor<NavigationFrame, Void>() {
+                    private int count = 0;
+
+                    @Override
+                    public boolean process(NavigationFrame input, Void output) {
+                        dataConvert.toViewData(input.location, input.viewLocation);
+                        listener.onLocationDataUpdated(input.viewLocation);
+
+                        if (isDebug && ++count % METRICS_LOG_INTERVAL == 0)
+                            logMetrics(System.nanoTime() - input.timestamp);
+
+                        return false;
+                    }
+                });
+
+        assemblyStage.setNext(biasStage);
+        biasStage.setNext(solveStage);
+        solveStage.setNext(trackStage);
+        trackStage.setNext(renderStage);
+
+        stages.add(assemblyStage);
+        stages.add(biasStage);
+        stages.add(solveStage);
+        stages.add(trackStage);
+        stages.add(renderStage);
+    }
+
+    public void setDebug(boolean enable) {
+        isDebug = enable;
+    }
+
+    public void start() {
+        for (PipelineStage<?, ?> stage : stages)
+            stage.start();
+    }
+
+    public void quit() {
+        for (PipelineStage<?, ?> stage : stages)
+            stage.quit();
+    }
+
+    // Post a sample from the device thread without blocking, the only producer of the
+    // pipeline, return false if the sample is dropped for a full ring buffer
+    public boolean postSample(DeviceService.ImuData value, DeviceService.GpioData gpioData,
+                              long timestamp) {
+        Sample sample = samples.claim();
+
+        if (sample == null) {
+            droppedSamples++;
+            return false;
+        }
+
+        sample.value.mx = value.mx;
+        sample.value.my = value.my;
+        sample.value.mz = value.mz;
+        sample.value.gx = value.gx;
+        sample.value.gy = value.gy;
+        sample.value.gz = value.gz;
+        sample.gpioData.gpio1 = gpioData.gpio1;
+        sample.gpioData.gpio2 = gpioData.gpio2;
+        sample.gpioData.gpio3 = gpioData.gpio3;
+        sample.timestamp = timestamp;
+
+        samples.publish();
+        assemblyStage.wake();
+
+        return true;
+    }
+
+    // Samples dropped for a full ring buffer, read on the producer thread
+    public long getDroppedSampleCount() {
+        return droppedSamples;
+    }
+
+    public List<PipelineStage<?, ?>> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    private void logMetrics(long latency) {
+        Log.d(TAG, "End-to-end latency " + latency / 1000000 + "ms, " +
+                droppedSamples + " samples dropped");
+
+        for (PipelineStage<?, ?> stage : stages)
+            Log.d(TAG, "\t" + stage);
+    }
+
+    private static SpscRingBuffer<NavigationFrame> newFrameBuffer() {
+        return new SpscRingBuffer<>(FRAME_CAPACITY, NavigationFrame::new);
+    }
+}
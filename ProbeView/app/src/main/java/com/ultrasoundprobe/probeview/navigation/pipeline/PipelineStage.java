@@ -0,0 +1,206 @@
+package com.ultrasoundprobe.probeview.navigation.pipeline;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.text.DecimalFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Stage of a pipeline running on its own thread, which takes items from its input ring
+// buffer and fills items of its output ring buffer, none for the last stage
+public class PipelineStage<I, O> {
+    private static final String TAG = "PipelineStage";
+
+    // Weight of each item in the running latency
+    private static final double LATENCY_WEIGHT = 0.1;
+
+    public interface Processor<I, O> {
+        // Process an input item into an output item, null for the last stage, return
+        // true to pass the output item to the next stage
+        boolean process(I input, O output);
+    }
+
+    public interface Copier<O> {
+        // Copy a source item into a target item
+        void copy(O source, O target);
+    }
+
+    private final String name;
+    private final SpscRingBuffer<I> input;
+    private final SpscRingBuffer<O> output;
+    private final Processor<I, O> processor;
+    private PipelineStage<O, ?> next = null;
+
+    // Item to process into while the output ring buffer is full, for a stage which must
+    // take every input item, null to drop input items instead
+    private O scratch = null;
+    private Copier<O> copier = null;
+
+    private Thread thread = null;
+    private volatile boolean isRunning = false;
+
+    // Metrics written by the stage thread and read from any thread
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile int maxQueueDepth = 0;
+    private volatile long maxLatency = 0;
+    private volatile double averageLatency = 0;
+
+    public PipelineStage(String name, SpscRingBuffer<I> input, SpscRingBuffer<O> output,
+                         Processor<I, O> processor) {
+        this.name = name;
+        this.input = input;
+        this.output = output;
+        this.processor = processor;
+    }
+
+    // Process every input item, even while the next stage falls behind, for a stage
+    // with state built up from its input items, only a completed output item is dropped
+    // if there is still no slot for it
+    public void setScratch(O scratch, Copier<O> copier) {
+        this.scratch = scratch;
+        this.copier = copier;
+    }
+
+    // Stage to be woken up once an output item is passed to it
+    public void setNext(PipelineStage<O, ?> next) {
+        this.next = next;
+    }
+
+    public void start() {
+        isRunning = true;
+        thread = new Thread(this::run, name);
+        thread.start();
+    }
+
+    public void quit() {
+        isRunning = false;
+        wake();
+    }
+
+    // Called by the producer of the input ring buffer after publishing an item
+    public void wake() {
+        Thread thread = this.thread;
+
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return input.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    // Items dropped for the output ring buffer being full, output items of a stage with
+    // a scratch item
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    // Average and maximum time in nanoseconds to process an item
+    public double getAverageLatency() {
+        return averageLatency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        DecimalFormat decimalFormat = new DecimalFormat("#.###");
+
+        return name + ": depth " + getQueueDepth() + "/" + maxQueueDepth +
+                ", processed " + processedCount.get() +
+                ", dropped " + droppedCount.get() +
+                ", latency " + decimalFormat.format(averageLatency / 1e6) + "ms avg " +
+                decimalFormat.format(maxLatency / 1e6) + "ms max";
+    }
+
+    private void run() {
+        while (isRunning) {
+            I item = input.peek();
+
+            if (item == null) {
+                // A wake-up from the producer after the check above is not lost, as
+                // park returns at once for a pending unpark
+                LockSupport.park(this);
+                continue;
+            }
+
+            int depth = input.size();
+
+            if (depth > maxQueueDepth)
+                maxQueueDepth = depth;
+
+            O slot = null;
+
+            if (output != null) {
+                slot = output.claim();
+
+                // Next stage falls behind, drop the item rather than block this stage
+                if (slot == null && scratch == null) {
+                    input.release();
+                    droppedCount.incrementAndGet();
+                    continue;
+                }
+
+                if (slot == null)
+                    slot = scratch;
+            }
+
+            long startTime = System.nanoTime();
+            boolean isPassed = false;
+
+            try {
+                isPassed = processor.process(item, slot);
+            } catch (Exception e) {
+                Log.e(TAG, name + " failed to process item: " + e.getMessage());
+            }
+
+            long latency = System.nanoTime() - startTime;
+
+            input.release();
+
+            // Claim a slot for an output item completed in the scratch item, drop it if
+            // the next stage is still behind
+            if (isPassed && output != null && slot == scratch) {
+                O target = output.claim();
+
+                if (target != null)
+                    copier.copy(scratch, target);
+                else
+                    droppedCount.incrementAndGet();
+
+                isPassed = target != null;
+            }
+
+            if (isPassed && output != null) {
+                output.publish();
+
+                if (next != null)
+                    next.wake();
+            }
+
+            averageLatency = processedCount.getAndIncrement() == 0 ? latency :
+                    averageLatency + LATENCY_WEIGHT * (latency - averageLatency);
+
+            if (latency > maxLatency)
+                maxLatency = latency;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.ultrasoundprobe.probeview.navigation.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded ring buffer between exactly one producer thread and one consumer thread,
+// slots are allocated once and filled in place so passing items is garbage free
+public class SpscRingBuffer<T> {
+    public interface SlotFactory<T> {
+        T create();
+    }
+
+    private final Object[] slots;
+    private final int mask;
+
+    // Next slot to read, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+
+    // Last values seen from the other side, so that the shared counters are read only
+    // when the buffer looks full or empty
+    private long cachedHead = 0;
+    private long cachedTail = 0;
+
+    // Capacity is rounded up to a power of two
+    public SpscRingBuffer(int capacity, SlotFactory<T> factory) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+
+        slots = new Object[size];
+        mask = size - 1;
+
+        for (int i = 0; i < size; i++)
+            slots[i] = factory.create();
+    }
+
+    // Producer side: the next slot to fill, null if the buffer is full
+    @SuppressWarnings("unchecked")
+    public T claim() {
+        long t = tail.get();
+
+        if (t - cachedHead >= slots.length) {
+            cachedHead = head.get();
+
+            if (t - cachedHead >= slots.length)
+                return null;
+        }
+
+        return (T)slots[(int)(t & mask)];
+    }
+
+    // Producer side: hand the claimed slot over to the consumer
+    public void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    // Consumer side: the oldest filled slot, null if the buffer is empty
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        long h = head.get();
+
+        if (h >= cachedTail) {
+            cachedTail = tail.get();
+
+            if (h >= cachedTail)
+                return null;
+        }
+
+        return (T)slots[(int)(h & mask)];
+    }
+
+    // Consumer side: give the slot taken by peek() back to the producer
+    public void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    // Number of filled slots, exact only on either side of the buffer
+    public int size() {
+        return (int)(tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,84 @@
+package com.ultrasoundprobe.probeview.callback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Callbacks of a listener on a thread of its own, bounded by dropping the oldest
+ * droppable callbacks and by replacing pending callbacks of the same key.
+ */
+public class CallbackExecutorTest {
+    private static final int CAPACITY = 4;
+
+    @Test
+    public void slowListener_dropsOldestCallbacksOnly() throws InterruptedException {
+        CallbackExecutor executor = new CallbackExecutor("Test", CAPACITY);
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+
+        executor.start();
+
+        // Hold the listener in its first callback while the service keeps posting
+        executor.execute(() -> {
+            running.countDown();
+            await(blocked);
+        });
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+
+        executor.executeReliably(() -> calls.add("connected"));
+
+        for (int i = 0; i < 10; i++) {
+            final int index = i;
+
+            assertTrue(executor.execute(() -> calls.add("data " + index)));
+            executor.execute("timer", () -> calls.add("timer " + index));
+        }
+
+        assertEquals(CAPACITY, executor.getQueueDepth());
+
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.executeReliably(done::countDown);
+        blocked.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("connected", "data 8", "data 9", "timer 9"), calls);
+        assertEquals(11, executor.getDroppedCount());
+        assertEquals(6, executor.getCoalescedCount());
+
+        executor.quit();
+        assertFalse(executor.execute(() -> calls.add("late")));
+    }
+
+    @Test
+    public void failingCallback_doesNotStopListener() throws InterruptedException {
+        CallbackExecutor executor = new CallbackExecutor("Test", CAPACITY);
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.start();
+        executor.execute(() -> {
+            throw new IllegalStateException();
+        });
+        executor.execute(done::countDown);
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        executor.quit();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
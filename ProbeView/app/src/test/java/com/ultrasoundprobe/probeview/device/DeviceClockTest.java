@@ -0,0 +1,66 @@
+package com.ultrasoundprobe.probeview.device;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Device times of frames delayed on the link by varying latency, mapped to local time
+ * across a wraparound of the 32-bit device time.
+ */
+public class DeviceClockTest {
+    private static final long MILLISECOND = 1000000L;
+
+    // Local time of device time zero, and device time of the first frame close to its
+    // wraparound
+    private static final long CLOCK_OFFSET = 5000 * MILLISECOND;
+    private static final long START_TIME = 0xffffffffL - 50000;
+
+    // Least latency of the link, frames are later by up to the jitter
+    private static final long LINK_LATENCY = 6 * MILLISECOND;
+    private static final long LINK_JITTER = 9 * MILLISECOND;
+
+    @Test
+    public void delayedFrames_mapToTimeOfLeastDelay() {
+        DeviceClock clock = new DeviceClock();
+
+        for (int i = 0; i < 20; i++) {
+            // Times of frames are 10ms apart, the third is delayed least
+            long deviceTime = START_TIME + i * 10000;
+            long time = CLOCK_OFFSET + deviceTime * 1000;
+            long delay = LINK_LATENCY + (i == 2 ? 0 : LINK_JITTER * (i % 3 + 1) / 3);
+            long localTime = clock.getLocalTime(deviceTime & 0xffffffffL, time + delay);
+
+            assertTrue(localTime <= time + delay);
+
+            // Frames are placed by the least latency so far, within the drift allowed
+            // between the clocks since then
+            if (i >= 2)
+                assertEquals(time + LINK_LATENCY, localTime, 0.05 * MILLISECOND);
+        }
+    }
+
+    @Test
+    public void roundTrip_takesLatencyOfLink() {
+        DeviceClock clock = new DeviceClock();
+
+        clock.updateRoundTrip(3 * LINK_LATENCY);
+        clock.updateRoundTrip(2 * LINK_LATENCY);
+        clock.updateRoundTrip(-1);
+
+        for (int i = 0; i < 20; i++) {
+            long deviceTime = START_TIME + i * 10000;
+            long time = CLOCK_OFFSET + deviceTime * 1000;
+            long delay = LINK_LATENCY + LINK_JITTER * (i % 2);
+
+            assertEquals(time, clock.getLocalTime(deviceTime & 0xffffffffL, time + delay),
+                    0.01 * MILLISECOND);
+        }
+
+        // Another connection starts over without a round trip yet
+        clock.reset();
+
+        assertEquals(CLOCK_OFFSET + LINK_LATENCY,
+                clock.getLocalTime(0, CLOCK_OFFSET + LINK_LATENCY));
+    }
+}
@@ -0,0 +1,102 @@
+package com.ultrasoundprobe.probeview.device;
+
+import com.ultrasoundprobe.probeview.format.InputOutputFormatter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes to a device serialized one at a time, with pending writes of a command
+ * superseded by later writes of the same command.
+ */
+public class DeviceWriteQueueTest {
+    private static final long MILLISECOND = 1000000L;
+
+    @Test
+    public void writes_areSentOneAtATimeInOrder() {
+        DeviceWriteQueue queue = new DeviceWriteQueue();
+
+        offer(queue, "coil_sequence:100,1,100,000", 0);
+        offer(queue, "gpio_control:1,0,0", 0);
+
+        DeviceWriteQueue.Command command = queue.next();
+
+        assertEquals("coil_sequence:100,1,100,000", new String(command.data));
+        assertNull(queue.next());
+
+        assertEquals(8 * MILLISECOND, queue.complete(8 * MILLISECOND));
+        assertEquals("gpio_control:1,0,0", new String(queue.next().data));
+        assertEquals(15 * MILLISECOND, queue.complete(15 * MILLISECOND));
+
+        assertNull(queue.next());
+        assertEquals(-1, queue.complete(20 * MILLISECOND));
+    }
+
+    @Test
+    public void pendingWrites_areSupersededByLaterWritesOfSameCommand() {
+        DeviceWriteQueue queue = new DeviceWriteQueue();
+
+        assertFalse(queue.signalReport(0));
+
+        offer(queue, "gpio_control:1,0,0", 0);
+        assertEquals("gpio_control:1,0,0", new String(queue.next().data));
+
+        offer(queue, "gpio_control:0,0,0", MILLISECOND);
+        offer(queue, "coil_sequence:100,1,100,000", 2 * MILLISECOND);
+        offer(queue, "gpio_control:0,1,0", 3 * MILLISECOND);
+        offer(queue, "gpio_control:0,0,0", 4 * MILLISECOND);
+
+        // The write in flight is never superseded, and the latest coil switch keeps its
+        // order after the coil sequence
+        assertEquals(3, queue.size());
+        queue.complete(5 * MILLISECOND);
+        assertEquals("coil_sequence:100,1,100,000", new String(queue.next().data));
+        queue.complete(6 * MILLISECOND);
+        assertEquals("gpio_control:0,0,0", new String(queue.next().data));
+        assertEquals(3 * MILLISECOND, queue.complete(7 * MILLISECOND));
+        assertEquals(0, queue.size());
+
+        assertTrue(queue.signalReport(1000 * MILLISECOND));
+        assertEquals(3, queue.getWriteCount());
+        assertEquals(2, queue.getCoalescedCount());
+        assertEquals(5f, queue.getMaximumLatency(), 1e-6f);
+    }
+
+    @Test
+    public void failedWrites_areSentAgainUnlessSuperseded() {
+        DeviceWriteQueue queue = new DeviceWriteQueue();
+
+        offer(queue, "gpio_control:1,0,0", 0);
+        offer(queue, "frame_format:1", 0);
+
+        DeviceWriteQueue.Command command = queue.next();
+
+        queue.retry(command);
+        assertSame(command, queue.next());
+        assertEquals(2, command.attempts);
+
+        offer(queue, "gpio_control:0,1,0", 0);
+        queue.retry(command);
+
+        assertEquals("frame_format:1", new String(queue.next().data));
+        queue.complete(0);
+        assertEquals("gpio_control:0,1,0", new String(queue.next().data));
+    }
+
+    @Test
+    public void commandName_isTakenFromTextCommands() {
+        assertEquals("gpio_control", InputOutputFormatter.extractCommandName(
+                InputOutputFormatter.insertGpioControlData(true, false, true).getBytes()));
+        assertEquals("frame_format", InputOutputFormatter.extractCommandName(
+                InputOutputFormatter.insertFrameFormatData(1).getBytes()));
+        assertNull(InputOutputFormatter.extractCommandName(":1".getBytes()));
+        assertNull(InputOutputFormatter.extractCommandName(new byte[] { 1, 2, ':' }));
+        assertNull(InputOutputFormatter.extractCommandName(new byte[0]));
+    }
+
+    private static void offer(DeviceWriteQueue queue, String message, long time) {
+        queue.offer(message.getBytes(), InputOutputFormatter.extractCommandName(
+                message.getBytes()), time);
+    }
+}
@@ -0,0 +1,190 @@
+package com.ultrasoundprobe.probeview.device.coil;
+
+import com.ultrasoundprobe.probeview.format.InputOutputFormatter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in for the coil device on a simulated clock. It switches coils on gpio_control
+ * requests after the latency of the link, or cycles through an uploaded coil sequence
+ * by itself and reports each coil state as coil_state messages, which arrive after the
+ * latency of the link with the device time of the switch.
+ */
+class CoilDeviceSimulator implements CoilScheduler.CoilDevice {
+    // Device time in microseconds of simulated time zero, so that the 32-bit device
+    // time wraps around half a second after the start of tests
+    private static final long DEVICE_TIME_OFFSET = 0x100000000L - 1500000L;
+
+    interface MessageListener {
+        void onMessage(String message, long deviceTime, long arrivalTime);
+    }
+
+    private static class Message {
+        final String text;
+        final long deviceTime;
+        final long arrivalTime;
+
+        Message(String text, long deviceTime, long arrivalTime) {
+            this.text = text;
+            this.deviceTime = deviceTime;
+            this.arrivalTime = arrivalTime;
+        }
+    }
+
+    private final boolean firmwareSequence;
+    private final List<String> requests = new ArrayList<>();
+    private final boolean[] gpio = new boolean[3];
+
+    private boolean[][] states;
+    private int offInterval;
+    private long dwellTime;
+
+    private boolean cycling = false;
+    private long now = 0;
+    private long nextSwitchTime;
+    private long switchTime;
+    private long sequence;
+    private int step;
+    private int cycle;
+    private int dropInterval = 0;
+
+    // Coil switch requested but not yet arrived over the link
+    private final boolean[] pendingGpio = new boolean[3];
+    private long pendingTime = -1;
+    private long linkLatency = 0;
+    private long linkJitter = 0;
+
+    // Messages sent but not yet arrived over the link
+    private final List<Message> messages = new ArrayList<>();
+
+    CoilDeviceSimulator(boolean firmwareSequence) {
+        this.firmwareSequence = firmwareSequence;
+    }
+
+    // Drop every this number of coil_state messages or gpio_control requests as if lost
+    // on the link
+    void setDropInterval(int interval) {
+        dropInterval = interval;
+    }
+
+    // Time for requests to arrive at the coil device and for messages to arrive from
+    // it, every other message is later by the jitter
+    void setLinkLatency(long latency, long jitter) {
+        linkLatency = latency;
+        linkJitter = jitter;
+    }
+
+    long getLinkLatency() {
+        return linkLatency;
+    }
+
+    @Override
+    public synchronized boolean write(byte[] data) {
+        String message = new String(data);
+
+        requests.add(message);
+
+        if (message.startsWith("coil_sequence:")) {
+            if (firmwareSequence)
+                startSequence(message.substring("coil_sequence:".length()).split(","));
+        } else {
+            List<String> args = InputOutputFormatter.extractGpioControlData(message);
+
+            cycling = false;
+
+            if (dropInterval > 0 && requests.size() % dropInterval == 0)
+                return true;
+
+            for (int i = 0; i < gpio.length; i++)
+                pendingGpio[i] = args.get(i).equals("1");
+
+            pendingTime = now + linkLatency;
+
+            if (linkLatency == 0)
+                applyPendingSwitch();
+        }
+
+        return true;
+    }
+
+    synchronized List<String> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    synchronized boolean[] getGpio() {
+        return gpio.clone();
+    }
+
+    // Time since the last coil switch
+    synchronized long getSwitchAge() {
+        return now - switchTime;
+    }
+
+    // Move the clock on, reporting coil states which arrive on the way
+    synchronized void advanceTo(long time, MessageListener listener) {
+        if (pendingTime >= 0 && pendingTime <= time)
+            applyPendingSwitch();
+
+        while (cycling && nextSwitchTime <= time) {
+            now = nextSwitchTime;
+
+            do {
+                if (++step == states.length) {
+                    step = 0;
+                    cycle++;
+                }
+            } while (isOffState(states[step]) && cycle % offInterval != 0);
+
+            System.arraycopy(states[step], 0, gpio, 0, gpio.length);
+            switchTime = now;
+            nextSwitchTime += dwellTime;
+            sequence++;
+
+            if (dropInterval > 0 && sequence % dropInterval == 0)
+                continue;
+
+            messages.add(new Message("coil_state:" + sequence + "," + step + "," + cycle +
+                    "," + (gpio[0] ? "1" : "0") +
+                    "," + (gpio[1] ? "1" : "0") +
+                    "," + (gpio[2] ? "1" : "0"),
+                    (now / 1000 + DEVICE_TIME_OFFSET) & 0xffffffffL,
+                    now + linkLatency + (sequence % 2 == 0 ? linkJitter : 0)));
+        }
+
+        while (!messages.isEmpty() && messages.get(0).arrivalTime <= time) {
+            Message message = messages.remove(0);
+
+            listener.onMessage(message.text, message.deviceTime, message.arrivalTime);
+        }
+
+        now = time;
+    }
+
+    private void applyPendingSwitch() {
+        System.arraycopy(pendingGpio, 0, gpio, 0, gpio.length);
+        switchTime = pendingTime;
+        pendingTime = -1;
+    }
+
+    private void startSequence(String[] args) {
+        dwellTime = Long.parseLong(args[0]) * 1000000L;
+        offInterval = Integer.parseInt(args[1]);
+        states = new boolean[args.length - 2][3];
+
+        for (int i = 0; i < states.length; i++) {
+            for (int k = 0; k < 3; k++)
+                states[i][k] = args[i + 2].charAt(k) == '1';
+        }
+
+        cycling = true;
+        nextSwitchTime = now + linkLatency;
+        sequence = 0;
+        step = -1;
+        cycle = 0;
+    }
+
+    private static boolean isOffState(boolean[] state) {
+        return !state[0] && !state[1] && !state[2];
+    }
+}
@@ -0,0 +1,297 @@
+package com.ultrasoundprobe.probeview.device.coil;
+
+import com.ultrasoundprobe.probeview.device.DeviceClock;
+import com.ultrasoundprobe.probeview.device.DeviceService;
+import com.ultrasoundprobe.probeview.format.InputOutputFormatter;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Coil cycling by the coil device through an uploaded sequence, with samples of IMU
+ * data tagged by the coil states it reports.
+ */
+public class CoilSchedulerTest {
+    private static final int STEP_PERIOD = 20;
+    private static final int SETTLE_GUARD = 13;
+
+    // Sample period of the probe and time for the field to settle after a switch
+    private static final long SAMPLE_PERIOD = 2000000L;
+    private static final long SETTLE_TIME = 3000000L;
+
+    private static final long START_TIME = 1000000000L;
+
+    // Time for a coil switch request to arrive at the coil device, so that the field is
+    // not settled yet by the settle guard after the request, and for a coil state to
+    // arrive from it, up to the jitter later, so that samples of the next coil arrive
+    // before its coil state
+    private static final long LINK_LATENCY = 12000000L;
+    private static final long LINK_JITTER = 4000000L;
+
+    // Time after a coil switch request when the scheduler thread requests it again if
+    // not confirmed, the first sample after half the settle guard
+    private static final long RETRY_TIME = 8000000L;
+
+    @Test
+    public void coilSequence_isUploadedInOneMessage() {
+        CoilSequence sequence = CoilSequence.parse(CoilSequence.DEFAULT_SEQUENCE, 1);
+
+        assertEquals("coil_sequence:20,1,100,000,010,000,001,000",
+                InputOutputFormatter.insertCoilSequenceData(sequence, STEP_PERIOD));
+    }
+
+    @Test
+    public void firmwareSequence_tagsSamplesWithoutCoilSwitchRequests() {
+        CoilDeviceSimulator device = new CoilDeviceSimulator(true);
+        CoilSwitch coilSwitch = newCoilSwitch();
+        CoilScheduler scheduler = newCoilScheduler(coilSwitch, device);
+
+        int updates = run(scheduler, coilSwitch, device, 100);
+
+        List<String> requests = device.getRequests();
+
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0).startsWith("coil_sequence:"));
+        // One update for each active coil of each cycle after the first
+        assertTrue("Updates: " + updates, updates >= 3 * (100 / 6 - 1));
+
+        scheduler.stop();
+
+        assertEquals(InputOutputFormatter.insertGpioControlData(false, false, false),
+                device.getRequests().get(1));
+    }
+
+    @Test
+    public void firmwareSequence_dropsSamplesOfMissingCoilStates() {
+        CoilDeviceSimulator device = new CoilDeviceSimulator(true);
+        CoilSwitch coilSwitch = newCoilSwitch();
+        CoilScheduler scheduler = newCoilScheduler(coilSwitch, device);
+
+        device.setDropInterval(5);
+
+        // Values of all updates are checked against their coils
+        assertTrue(run(scheduler, coilSwitch, device, 100) > 0);
+
+        scheduler.stop();
+    }
+
+    @Test
+    public void firmwareSequence_tagsSamplesOfDelayedCoilStates() {
+        CoilDeviceSimulator device = new CoilDeviceSimulator(true);
+        CoilSwitch coilSwitch = newCoilSwitch();
+
+        // Coil switches fall between samples, as those right at a switch are tagged by
+        // a coil state estimated within the drift allowed between the clocks
+        device.setLinkLatency(LINK_LATENCY + SAMPLE_PERIOD / 2, LINK_JITTER);
+
+        CoilScheduler scheduler = newCoilScheduler(coilSwitch, device);
+
+        // Values of all updates are checked against their coils, those of samples of
+        // the next coil taken for a step starting at the arrival of its coil state are
+        // off
+        int updates = run(scheduler, coilSwitch, device, 100);
+
+        assertTrue("Updates: " + updates, updates >= 3 * (100 / 6 - 1));
+
+        scheduler.stop();
+    }
+
+    @Test
+    public void firmwareSequence_fallsBackToTimerWithoutCoilStates() throws Exception {
+        CoilDeviceSimulator device = new CoilDeviceSimulator(false);
+        CoilScheduler scheduler = newCoilScheduler(newCoilSwitch(), device);
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (device.getRequests().size() < 3 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        scheduler.stop();
+
+        List<String> requests = device.getRequests();
+
+        assertTrue(requests.get(0).startsWith("coil_sequence:"));
+        assertTrue(requests.size() >= 3);
+        assertEquals(InputOutputFormatter.insertGpioControlData(true, false, false),
+                requests.get(1));
+    }
+
+    @Test
+    public void timerSequence_takesSamplesAfterConfirmedSwitch() {
+        CoilDeviceSimulator device = new CoilDeviceSimulator(false);
+        CoilSwitch coilSwitch = newCoilSwitch();
+        CoilScheduler scheduler = newTimerScheduler(coilSwitch, device, 2 * STEP_PERIOD);
+
+        device.setLinkLatency(LINK_LATENCY, 0);
+
+        // Values of all updates are checked against their coils, those of samples before
+        // the switch arrives and settles are off
+        int updates = runTimer(scheduler, coilSwitch, device, 2 * STEP_PERIOD, 60, false);
+
+        assertTrue("Updates: " + updates, updates >= 3 * (60 / 6 - 1));
+
+        scheduler.stop();
+    }
+
+    @Test
+    public void timerSequence_retriesLostCoilSwitchRequests() {
+        int[] updates = new int[2];
+        int[] requests = new int[2];
+
+        for (int k = 0; k < 2; k++) {
+            CoilDeviceSimulator device = new CoilDeviceSimulator(false);
+            CoilSwitch coilSwitch = newCoilSwitch();
+            CoilScheduler scheduler = newTimerScheduler(coilSwitch, device, STEP_PERIOD);
+
+            device.setDropInterval(4);
+
+            updates[k] = runTimer(scheduler, coilSwitch, device, STEP_PERIOD, 100, k == 1);
+            requests[k] = device.getRequests().size();
+
+            scheduler.stop();
+        }
+
+        assertEquals(100, requests[0]);
+        assertTrue("Requests: " + requests[1], requests[1] > 100);
+        assertTrue("Updates: " + updates[0] + ", " + updates[1], updates[1] > updates[0]);
+    }
+
+    private static CoilSwitch newCoilSwitch() {
+        CoilSwitch coilSwitch = new CoilSwitch(
+                CoilSequence.parse(CoilSequence.DEFAULT_SEQUENCE, 1));
+
+        coilSwitch.setRollingUpdate(true);
+
+        return coilSwitch;
+    }
+
+    private static CoilScheduler newCoilScheduler(CoilSwitch coilSwitch,
+                                                  CoilDeviceSimulator device) {
+        CoilScheduler scheduler = new CoilScheduler(coilSwitch, STEP_PERIOD, SETTLE_GUARD);
+
+        scheduler.setFirmwareSequence(true);
+        scheduler.start(device);
+
+        return scheduler;
+    }
+
+    // Scheduler switching coils on calls from the test instead of its timer
+    private static CoilScheduler newTimerScheduler(CoilSwitch coilSwitch,
+                                                   CoilDeviceSimulator device,
+                                                   int stepPeriod) {
+        CoilScheduler scheduler = new CoilScheduler(coilSwitch, stepPeriod, SETTLE_GUARD);
+
+        scheduler.setTimerEnabled(false);
+        scheduler.start(device);
+
+        return scheduler;
+    }
+
+    // Run the simulated clock over a number of steps with a sample of the probe every
+    // sample period, return the number of updates of IMU data of all coils
+    private static int run(CoilScheduler scheduler, CoilSwitch coilSwitch,
+                           CoilDeviceSimulator device, int steps) {
+        DeviceService.GpioData coilControl = new DeviceService.GpioData();
+        DeviceClock deviceClock = new DeviceClock();
+        int updates = 0;
+
+        // Upload of the coil sequence is written with response, acknowledged by the
+        // coil device
+        deviceClock.updateRoundTrip(2 * device.getLinkLatency());
+
+        for (long time = START_TIME; time < START_TIME + steps * STEP_PERIOD * 1000000L;
+             time += SAMPLE_PERIOD) {
+            device.advanceTo(time, (message, deviceTime, arrivalTime) -> {
+                List<String> args = InputOutputFormatter.extractCoilStateData(message);
+                DeviceService.CoilStateData state = new DeviceService.CoilStateData(
+                        Long.parseLong(args.get(0)),
+                        Integer.parseInt(args.get(1)),
+                        Integer.parseInt(args.get(2)),
+                        args.get(3).equals("1"),
+                        args.get(4).equals("1"),
+                        args.get(5).equals("1"));
+
+                coilControl.gpio1 = state.gpio1;
+                coilControl.gpio2 = state.gpio2;
+                coilControl.gpio3 = state.gpio3;
+
+                scheduler.onCoilStateReceived(state,
+                        deviceClock.getLocalTime(deviceTime, arrivalTime));
+            });
+
+            if (checkImuData(coilSwitch, scheduler.getImuDataFromCoilSwitch(
+                    coilControl, getImuData(device), time)))
+                updates++;
+        }
+
+        return updates;
+    }
+
+    // Same as above with coil switches requested by the scheduler every step period, and
+    // requested again at the retry time if enabled, as its timer does
+    private static int runTimer(CoilScheduler scheduler, CoilSwitch coilSwitch,
+                                CoilDeviceSimulator device, int stepPeriod, int steps,
+                                boolean retry) {
+        DeviceService.GpioData coilControl = new DeviceService.GpioData();
+        long period = stepPeriod * 1000000L;
+        int updates = 0;
+
+        for (long time = START_TIME; time < START_TIME + steps * period;
+             time += SAMPLE_PERIOD) {
+            long elapsedTime = time - START_TIME;
+
+            device.advanceTo(time, null);
+
+            if (elapsedTime % period == 0)
+                scheduler.switchCoil(time);
+            else if (retry && elapsedTime % period == RETRY_TIME)
+                scheduler.retrySwitch(elapsedTime / period);
+
+            // GPIO states reported by the coil device
+            boolean[] gpio = device.getGpio();
+
+            coilControl.gpio1 = gpio[0];
+            coilControl.gpio2 = gpio[1];
+            coilControl.gpio3 = gpio[2];
+
+            if (checkImuData(coilSwitch, scheduler.getImuDataFromCoilSwitch(
+                    coilControl, getImuData(device), time)))
+                updates++;
+        }
+
+        return updates;
+    }
+
+    // Check IMU data of all coils against the field of their coils, return false if
+    // there is none
+    private static boolean checkImuData(CoilSwitch coilSwitch,
+                                        DeviceService.ImuData[] values) {
+        if (values == null)
+            return false;
+
+        DeviceService.ImuData[] active = coilSwitch.getImuDataFromActiveCoils(values);
+        DeviceService.ImuData[] inactive = coilSwitch.getImuDataFromInactiveCoils(values);
+
+        for (int i = 0; i < CoilSequence.COIL_COUNT; i++) {
+            assertEquals(100f * (i + 1), active[i].mx, 0);
+            assertEquals(10f, inactive[i].mx, 0);
+        }
+
+        return true;
+    }
+
+    // Field of the active coil over the background, off its settled value right after
+    // a switch
+    private static DeviceService.ImuData getImuData(CoilDeviceSimulator device) {
+        boolean[] gpio = device.getGpio();
+        float value = gpio[0] ? 100 : gpio[1] ? 200 : gpio[2] ? 300 : 10;
+
+        if (device.getSwitchAge() < SETTLE_TIME)
+            value += 50;
+
+        return new DeviceService.ImuData(value, 0, 0, 0, 0, 9.8f);
+    }
+}
@@ -0,0 +1,84 @@
+package com.ultrasoundprobe.probeview.device.coil;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Coil sequences parsed into coil states of each step, slots of active and inactive
+ * coils, and all-off states skipped between intervals of cycles.
+ */
+public class CoilSequenceTest {
+    @Test
+    public void defaultSequence_takesAllOffStateAfterEachCoil() {
+        CoilSequence sequence = CoilSequence.parse(CoilSequence.DEFAULT_SEQUENCE, 1);
+
+        assertEquals(6, sequence.getLength());
+        assertArrayEquals(new boolean[] { true, false, false }, sequence.getState(0));
+        assertArrayEquals(new boolean[] { false, true, false }, sequence.getState(2));
+        assertArrayEquals(new boolean[] { false, false, true }, sequence.getState(4));
+        assertTrue(sequence.isOffState(1));
+        assertFalse(sequence.isOffState(2));
+
+        assertArrayEquals(new int[] { 0, 2, 4 }, sequence.getActiveSlots());
+        assertArrayEquals(new int[] { 1, 3, 5 }, sequence.getInactiveSlots());
+    }
+
+    @Test
+    public void sharedAllOffState_isBackgroundOfAllCoils() {
+        // Coils out of order, with lower case and spaces, and the all-off state first
+        CoilSequence sequence = CoilSequence.parse("OFF, c3, C1,C2", 1);
+
+        assertArrayEquals(new int[] { 2, 3, 1 }, sequence.getActiveSlots());
+        assertArrayEquals(new int[] { 0, 0, 0 }, sequence.getInactiveSlots());
+    }
+
+    @Test
+    public void sequenceWithoutAllOffState_hasNoInactiveSlots() {
+        CoilSequence sequence = CoilSequence.parse("C1,C2,C3", 1);
+
+        assertArrayEquals(new int[] { 0, 1, 2 }, sequence.getActiveSlots());
+        assertEquals(0, sequence.getInactiveSlots().length);
+        assertTrue(sequence.isLastStep(2, 0));
+    }
+
+    @Test
+    public void allOffStates_areSkippedBetweenIntervals() {
+        CoilSequence sequence = CoilSequence.parse(CoilSequence.DEFAULT_SEQUENCE, 3);
+
+        for (int cycle = 0; cycle < 6; cycle++) {
+            boolean isTaken = cycle % 3 == 0;
+
+            for (int step = 0; step < sequence.getLength(); step++)
+                assertEquals(sequence.isOffState(step) && !isTaken,
+                        sequence.isSkipped(step, cycle));
+
+            // The last all-off state is skipped, so that C3 ends the cycle
+            assertEquals(!isTaken, sequence.isLastStep(4, cycle));
+            assertTrue(sequence.isLastStep(5, cycle));
+        }
+    }
+
+    @Test
+    public void invalidSequences_areRejected() {
+        String[] sequences = {
+                "C1,OFF,C2,OFF", "C1,C1,C2,C3", "C1,C2,C4", "C1,C2,CX", "C1,C2,C3,ON", ""
+        };
+
+        for (String value : sequences) {
+            try {
+                CoilSequence.parse(value, 1);
+                fail("Sequence " + value + " is not rejected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+
+        try {
+            CoilSequence.parse(CoilSequence.DEFAULT_SEQUENCE, 0);
+            fail("Interval 0 is not rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.ultrasoundprobe.probeview.device.coil;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Statistics and variance of the mean of samples of a coil state, with the sensor noise
+ * as the least variance of samples.
+ */
+public class SampleAccumulatorTest {
+    private static final double NOISE = SampleAccumulator.MAGNETIC_NOISE_VARIANCE;
+
+    @Test
+    public void variance_isVarianceOfMean() {
+        SampleAccumulator accumulator = new SampleAccumulator(4,
+                SampleAccumulator.Statistic.Mean);
+        double[] variance = new double[3];
+
+        // Samples of mx spread well beyond the sensor noise, my and mz are flat
+        for (int i = 0; i < 4; i++)
+            accumulator.add(100 + 2 * i, 50, -20, 0, 0, 9.8);
+
+        accumulator.getMagneticVariance(variance);
+
+        // Sample variance of 0, 2, 4, 6 is 20/3, over 4 samples
+        assertEquals(20.0 / 3 / 4, variance[0], 1e-12);
+        assertEquals(NOISE / 4, variance[1], 1e-12);
+        assertEquals(NOISE / 4, variance[2], 1e-12);
+        assertEquals(103, accumulator.getImuData().mx, 1e-4);
+    }
+
+    @Test
+    public void variance_ofFewSamplesIsSensorNoise() {
+        SampleAccumulator accumulator = new SampleAccumulator(4,
+                SampleAccumulator.Statistic.Median);
+        double[] variance = new double[3];
+
+        accumulator.getMagneticVariance(variance);
+        assertArrayEquals(new double[] { NOISE, NOISE, NOISE }, variance, 0);
+
+        accumulator.add(100, 50, -20, 0, 0, 9.8);
+        accumulator.getMagneticVariance(variance);
+        assertArrayEquals(new double[] { NOISE, NOISE, NOISE }, variance, 0);
+
+        // Two samples which happen to agree are as good as the sensor noise allows
+        accumulator.add(100, 50, -20, 0, 0, 9.8);
+        accumulator.getMagneticVariance(variance);
+        assertArrayEquals(new double[] { NOISE / 2, NOISE / 2, NOISE / 2 }, variance, 0);
+
+        accumulator.reset();
+        accumulator.getMagneticVariance(variance);
+        assertArrayEquals(new double[] { NOISE, NOISE, NOISE }, variance, 0);
+    }
+
+    @Test
+    public void statistics_rejectOutliers() {
+        double[] values = { 100, 101, 99, 100, 140 };
+
+        SampleAccumulator mean = new SampleAccumulator(5, SampleAccumulator.Statistic.Mean);
+        SampleAccumulator trimmed = new SampleAccumulator(5,
+                SampleAccumulator.Statistic.TrimmedMean);
+        SampleAccumulator median = new SampleAccumulator(5,
+                SampleAccumulator.Statistic.Median);
+
+        for (double value : values) {
+            mean.add(value, 0, 0, 0, 0, 0);
+            trimmed.add(value, 0, 0, 0, 0, 0);
+            median.add(value, 0, 0, 0, 0, 0);
+        }
+
+        assertEquals(108, mean.getImuData().mx, 1e-4);
+        assertEquals(100.333, trimmed.getImuData().mx, 1e-3);
+        assertEquals(100, median.getImuData().mx, 1e-4);
+    }
+}
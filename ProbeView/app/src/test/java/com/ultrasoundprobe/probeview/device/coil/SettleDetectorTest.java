@@ -0,0 +1,80 @@
+package com.ultrasoundprobe.probeview.device.coil;
+
+import com.ultrasoundprobe.probeview.device.DeviceService;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Magnetic data settled after a coil switch once a full window of samples is flat, and
+ * not while it still ramps.
+ */
+public class SettleDetectorTest {
+    private static final int WINDOW = 4;
+    private static final double THRESHOLD = 4.0;
+
+    @Test
+    public void flatWindow_isSettledOnceFull() {
+        SettleDetector detector = new SettleDetector(WINDOW, THRESHOLD);
+
+        for (int i = 0; i < WINDOW; i++) {
+            // Noise of +/-0.5 on each axis is well within the threshold
+            double noise = i % 2 == 0 ? 0.5 : -0.5;
+
+            assertEquals(i == WINDOW - 1, detector.update(newSample(100 + noise)));
+        }
+
+        assertTrue(detector.getVariance() < THRESHOLD);
+    }
+
+    @Test
+    public void rampingWindow_isNotSettled() {
+        SettleDetector detector = new SettleDetector(WINDOW, THRESHOLD);
+
+        // The field still rises by 2 a sample after a switch
+        for (int i = 0; i < 3 * WINDOW; i++)
+            assertFalse(detector.update(newSample(100 + 2 * i)));
+
+        // Then levels off, settled once the ramp is out of the window
+        int count = 0;
+
+        while (count < 2 * WINDOW && !detector.update(newSample(200)))
+            count++;
+
+        assertEquals(WINDOW - 1, count);
+    }
+
+    @Test
+    public void reset_startsWindowOver() {
+        SettleDetector detector = new SettleDetector(WINDOW, THRESHOLD);
+
+        for (int i = 0; i < WINDOW; i++)
+            detector.update(newSample(100));
+
+        detector.reset();
+
+        assertTrue(Double.isNaN(detector.getVariance()));
+        assertFalse(detector.update(newSample(100)));
+    }
+
+    @Test
+    public void settledWindow_isAddedToAccumulatorOldestFirst() {
+        SettleDetector detector = new SettleDetector(WINDOW, THRESHOLD);
+        SampleAccumulator accumulator = new SampleAccumulator(3,
+                SampleAccumulator.Statistic.Mean);
+
+        for (int i = 0; i < WINDOW + 2; i++)
+            detector.update(newSample(100 + 0.1 * i));
+
+        // The accumulator takes the latest samples it has room for
+        detector.addTo(accumulator);
+
+        assertEquals(3, accumulator.getCount());
+        assertEquals(100 + 0.1 * (WINDOW), accumulator.getImuData().mx, 1e-4);
+    }
+
+    private static DeviceService.ImuData newSample(double value) {
+        return new DeviceService.ImuData((float)value, (float)value, (float)value, 0, 0, 9.8f);
+    }
+}
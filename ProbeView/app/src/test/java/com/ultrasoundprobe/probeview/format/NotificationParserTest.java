@@ -0,0 +1,262 @@
+package com.ultrasoundprobe.probeview.format;
+
+import com.ultrasoundprobe.probeview.device.DeviceService;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cross-check of the byte-level notification parser against the string-based
+ * extraction and Float.parseFloat() of the same text frames, and against the encoders
+ * of binary frames.
+ */
+public class NotificationParserTest {
+    private static final int SAMPLE_COUNT = 20000;
+
+    private final NotificationParser parser = new NotificationParser();
+
+    @Test
+    public void sensorData_matchesStringParsing() {
+        Random random = new Random(1234);
+
+        for (int n = 0; n < SAMPLE_COUNT; n++) {
+            StringBuilder message = new StringBuilder("sen_data:");
+
+            for (int k = 0; k < 6; k++)
+                message.append(formatFloat(random)).append(',');
+
+            message.append(random.nextBoolean() ? "1" : "0");
+
+            checkSensorData(message.toString());
+        }
+    }
+
+    @Test
+    public void sensorData_rejectsMalformedFrames() {
+        String[] messages = {
+                "", "sen_data:", "sen_data:1,2,3,4,5,6", "sen_data:1,2,3,4,5,,6",
+                "sen_data:1,2,3,4,5,x,1", "sen_data:1,2,3,4,5,6e,1", "sen_data:1,2,.,4,5,6,1",
+                "sen_data:1,2,-,4,5,6,1", "sen_data:1,2,3 4,4,5,6,1", "sen_data:0x1,2,3,4,5,6,1",
+                "sen_data:1,2,3,4,5,NaN,1", "gpio_control:1,0,1", "sen_dat:1,2,3,4,5,6,1"
+        };
+
+        for (String message : messages) {
+            DeviceService.ImuData value = new DeviceService.ImuData(7, 7, 7, 7, 7, 7);
+            DeviceService.ExtraData extra = new DeviceService.ExtraData(true);
+
+            assertFalse(message, parser.parseSensorData(message.getBytes(), value, extra));
+            assertEquals(7f, value.gz, 0);
+            assertTrue(extra.powerDown);
+        }
+
+        assertFalse(parser.parseSensorData(null, new DeviceService.ImuData(0, 0, 0, 0, 0, 0),
+                new DeviceService.ExtraData()));
+    }
+
+    @Test
+    public void sensorData_takesRestOfFrameAsPowerDownState() {
+        checkSensorData("sen_data: 1.5 ,-2,+3.,.25,1e3,-4.5E-2,1");
+        checkSensorData("sen_data:1,2,3,4,5,6,1\r\n");
+        checkSensorData("sen_data:1,2,3,4,5,6,1,0");
+        checkSensorData("noise sen_data:1,2,3,4,5,6,");
+    }
+
+    @Test
+    public void gpioControlData_matchesStringParsing() {
+        String[] messages = { "gpio_control:1,0,1", "gpio_control:0,1,0", "gpio_control:1,1,10" };
+
+        for (String message : messages) {
+            DeviceService.GpioData value = new DeviceService.GpioData();
+            List<String> args = InputOutputFormatter.extractGpioControlData(message);
+
+            assertTrue(parser.parseGpioControlData(message.getBytes(), value));
+            assertEquals(args.get(0).equals("1"), value.gpio1);
+            assertEquals(args.get(1).equals("1"), value.gpio2);
+            assertEquals(args.get(2).equals("1"), value.gpio3);
+        }
+
+        assertFalse(parser.parseGpioControlData("gpio_control:1,0".getBytes(),
+                new DeviceService.GpioData()));
+    }
+
+    @Test
+    public void coilStateData_matchesStringParsing() {
+        DeviceService.CoilStateData value = new DeviceService.CoilStateData(
+                0, 0, 0, false, false, false);
+
+        assertTrue(parser.parseCoilStateData("coil_state:12345678901,4,-2,0,0,1".getBytes(),
+                value));
+        assertEquals(12345678901L, value.sequence);
+        assertEquals(4, value.step);
+        assertEquals(-2, value.cycle);
+        assertFalse(value.gpio1);
+        assertFalse(value.gpio2);
+        assertTrue(value.gpio3);
+
+        assertFalse(parser.parseCoilStateData("coil_state:1,99999999999,0,0,0,1".getBytes(),
+                value));
+        assertFalse(parser.parseCoilStateData("coil_state:1, 2,0,0,0,1".getBytes(), value));
+        assertFalse(parser.parseCoilStateData("coil_state:1,2,0,0".getBytes(), value));
+        assertEquals(4, value.step);
+    }
+
+    @Test
+    public void sensorFrame_matchesEncodedValues() {
+        Random random = new Random(1234);
+
+        for (int n = 0; n < SAMPLE_COUNT; n++) {
+            DeviceService.ImuData expected = new DeviceService.ImuData(
+                    random.nextFloat(), -random.nextFloat(), random.nextFloat() * 1e3f,
+                    random.nextFloat(), random.nextFloat(), Float.MIN_VALUE);
+            boolean powerDown = random.nextBoolean();
+            int sequence = random.nextInt(0x10000);
+            long deviceTime = random.nextInt() & 0xffffffffL;
+
+            byte[] frame = InputOutputFormatter.insertSensorFrame(sequence, deviceTime,
+                    expected, powerDown);
+            DeviceService.ImuData value = new DeviceService.ImuData(0, 0, 0, 0, 0, 0);
+            DeviceService.ExtraData extra = new DeviceService.ExtraData(!powerDown);
+
+            assertTrue(parser.parseSensorData(frame, value, extra));
+            assertEquals(expected.mx, value.mx, 0);
+            assertEquals(expected.my, value.my, 0);
+            assertEquals(expected.mz, value.mz, 0);
+            assertEquals(expected.gx, value.gx, 0);
+            assertEquals(expected.gy, value.gy, 0);
+            assertEquals(expected.gz, value.gz, 0);
+            assertEquals(powerDown, extra.powerDown);
+            assertEquals(sequence, extra.sequence);
+            assertEquals(deviceTime, extra.deviceTime);
+        }
+    }
+
+    @Test
+    public void sensorFrame_rejectsCorruptedFrames() {
+        byte[] frame = InputOutputFormatter.insertSensorFrame(1, 2,
+                new DeviceService.ImuData(1, 2, 3, 4, 5, 6), true);
+
+        // Every single bit error is caught by the frame version, type or CRC
+        for (int i = 0; i < frame.length * 8; i++) {
+            byte[] corrupted = frame.clone();
+
+            corrupted[i / 8] ^= 1 << (i % 8);
+
+            DeviceService.ImuData value = new DeviceService.ImuData(7, 7, 7, 7, 7, 7);
+
+            assertFalse(parser.parseSensorData(corrupted, value,
+                    new DeviceService.ExtraData()));
+            assertEquals(7f, value.mx, 0);
+        }
+
+        assertFalse(parser.parseSensorData(Arrays.copyOf(frame, frame.length - 1),
+                new DeviceService.ImuData(0, 0, 0, 0, 0, 0), new DeviceService.ExtraData()));
+        assertFalse(parser.parseGpioControlData(frame, new DeviceService.GpioData()));
+        assertTrue(frame.length < "sen_data:-123.45,67.8,-9.01,0.12,-0.98,9.81,0".length());
+    }
+
+    @Test
+    public void sensorFrame_isParsedFromBatch() {
+        int count = 14;
+        byte[] batch = new byte[count * InputOutputFormatter.SENSOR_FRAME_SIZE];
+
+        for (int i = 0; i < count; i++) {
+            byte[] frame = InputOutputFormatter.insertSensorFrame(0xfff8 + i, 1000L * i,
+                    new DeviceService.ImuData(i, -i, 0, 0, 0, 9.81f), false);
+
+            System.arraycopy(frame, 0, batch, i * frame.length, frame.length);
+        }
+
+        assertEquals(count, parser.getSensorDataCount(batch));
+        assertFalse(parser.parseSensorData(batch, new DeviceService.ImuData(0, 0, 0, 0, 0, 0),
+                new DeviceService.ExtraData()));
+
+        for (int i = 0; i < count; i++) {
+            DeviceService.ImuData value = new DeviceService.ImuData(0, 0, 0, 0, 0, 0);
+            DeviceService.ExtraData extra = new DeviceService.ExtraData();
+
+            assertTrue(parser.parseSensorData(batch, i, value, extra));
+            assertEquals(i, value.mx, 0);
+            assertEquals(-i, value.my, 0);
+            assertEquals((0xfff8 + i) & 0xffff, extra.sequence & 0xffff);
+            assertEquals(1000L * i, extra.deviceTime);
+        }
+
+        assertFalse(parser.parseSensorData(batch, count,
+                new DeviceService.ImuData(0, 0, 0, 0, 0, 0), new DeviceService.ExtraData()));
+        assertEquals(0, parser.getSensorDataCount(Arrays.copyOf(batch, batch.length - 1)));
+        assertEquals(1, parser.getSensorDataCount("sen_data:1,2,3,4,5,6,0".getBytes()));
+        assertEquals(0, parser.getSensorDataCount(new byte[0]));
+    }
+
+    @Test
+    public void coilStateFrame_extendsSequenceNumber() {
+        DeviceService.CoilStateData expected = new DeviceService.CoilStateData(
+                0, 5, 123456, true, false, true);
+        DeviceService.CoilStateData value = new DeviceService.CoilStateData(
+                0, 0, 0, false, false, false);
+
+        for (long sequence = 0xfffe; sequence < 0x10003; sequence++) {
+            assertTrue(parser.parseCoilStateData(InputOutputFormatter.insertCoilStateFrame(
+                    (int)sequence, 0, expected), value));
+            assertEquals(sequence, value.sequence);
+        }
+
+        assertEquals(5, value.step);
+        assertEquals(123456, value.cycle);
+        assertTrue(value.gpio1);
+        assertFalse(value.gpio2);
+        assertTrue(value.gpio3);
+
+        DeviceService.GpioData gpio = new DeviceService.GpioData();
+
+        assertTrue(parser.parseGpioControlData(InputOutputFormatter.insertGpioFrame(0, 0,
+                new DeviceService.GpioData(false, true, false)), gpio));
+        assertTrue(gpio.gpio2);
+    }
+
+    @Test
+    public void frameFormat_isParsedFromReply() {
+        assertEquals(InputOutputFormatter.FRAME_VERSION, parser.parseFrameFormatData(
+                InputOutputFormatter.insertFrameFormatData(
+                        InputOutputFormatter.FRAME_VERSION).getBytes()));
+        assertEquals(0, parser.parseFrameFormatData("frame_format:0".getBytes()));
+        assertEquals(-1, parser.parseFrameFormatData("frame_format:".getBytes()));
+        assertEquals(-1, parser.parseFrameFormatData("gpio_control:1,0,0".getBytes()));
+    }
+
+    private void checkSensorData(String message) {
+        List<String> args = InputOutputFormatter.extractSensorData(message);
+        DeviceService.ImuData value = new DeviceService.ImuData(0, 0, 0, 0, 0, 0);
+        DeviceService.ExtraData extra = new DeviceService.ExtraData();
+
+        assertTrue(message, parser.parseSensorData(message.getBytes(), value, extra));
+
+        float[] values = { value.mx, value.my, value.mz, value.gx, value.gy, value.gz };
+
+        for (int k = 0; k < 6; k++)
+            assertEquals(message, Float.parseFloat(args.get(k)), values[k], 0);
+
+        assertEquals(message, args.get(6).equals("1"), extra.powerDown);
+    }
+
+    private static String formatFloat(Random random) {
+        float value = (float)((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 6));
+
+        switch (random.nextInt(4)) {
+            case 0:
+                return Float.toString(value);
+            case 1:
+                return String.format(Locale.US, "%." + random.nextInt(6) + "f", value);
+            case 2:
+                return String.format(Locale.US, "%e", value);
+            default:
+                return Integer.toString((int)(value * 1000));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.ultrasoundprobe.probeview.navigation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Worker thread with a single-slot mailbox, frames posted during a slow frame are
+ * replaced by the latest one, and the thread ends once it quits.
+ */
+public class SolverWorkerTest {
+    @Test
+    public void framesPostedWhileBusy_areReplacedByLatestFrame() throws InterruptedException {
+        List<Integer> frames = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+
+        SolverWorker<Integer> worker = new SolverWorker<>("Test", frame -> {
+            thread.set(Thread.currentThread());
+
+            // Hold the worker in the first frame as a slow solve does
+            if (frame == 1) {
+                running.countDown();
+                await(blocked);
+            }
+
+            frames.add(frame);
+        });
+
+        assertTrue(worker.post(1));
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+
+        for (int frame = 2; frame <= 5; frame++)
+            assertTrue(worker.post(frame));
+
+        assertFalse(worker.isIdle());
+        blocked.countDown();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+
+        while (!worker.isIdle() && System.nanoTime() < deadline)
+            Thread.sleep(1);
+
+        assertTrue(worker.isIdle());
+        assertEquals(Arrays.asList(1, 5), frames);
+        assertEquals(5, worker.getPostedFrameCount());
+        assertEquals(3, worker.getDroppedFrameCount());
+        assertEquals(2, worker.getHandledFrameCount());
+
+        worker.quit();
+
+        thread.get().join(1000);
+        assertFalse(thread.get().isAlive());
+        assertFalse(worker.post(6));
+        assertEquals(Arrays.asList(1, 5), frames);
+    }
+
+    @Test
+    public void quit_endsIdleThread() throws InterruptedException {
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        CountDownLatch handled = new CountDownLatch(1);
+
+        SolverWorker<Integer> worker = new SolverWorker<>("Test", frame -> {
+            thread.set(Thread.currentThread());
+            handled.countDown();
+        });
+
+        assertTrue(worker.post(1));
+        assertTrue(handled.await(1, TimeUnit.SECONDS));
+
+        // The worker parks without frames until it quits
+        Thread.sleep(10);
+        assertTrue(thread.get().isAlive());
+
+        worker.quit();
+
+        thread.get().join(1000);
+        assertFalse(thread.get().isAlive());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.ultrasoundprobe.probeview.navigation.location;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Background estimate from noisy samples of inactive coils, with single outliers
+ * gated out, a restart once the background does change, and samples of the same time
+ * taken once.
+ */
+public class BackgroundEstimatorTest {
+    private static final double[] BACKGROUND = { 20, -5, 40 };
+    // Background once the probe turned in the earth field
+    private static final double[] TURNED_BACKGROUND = { -30, 25, 10 };
+
+    // Noise of samples, and offset of an outlier from the background
+    private static final double NOISE = 2.0;
+    private static final double OUTLIER_OFFSET = 50.0;
+
+    // Number of samples for the estimate to settle, and consecutive outliers to restart
+    private static final int SETTLE_COUNT = 50;
+    private static final int MAX_OUTLIERS = 3;
+
+    @Test
+    public void singleOutliers_areRejected() {
+        BackgroundEstimator estimator = new BackgroundEstimator();
+        Random random = new Random(1234);
+        double[] background = new double[3];
+
+        settle(estimator, random);
+
+        // Outliers between samples of the background never add up to a restart
+        for (int i = 0; i < 10; i++) {
+            assertFalse(estimator.update(BACKGROUND[0] + OUTLIER_OFFSET,
+                    BACKGROUND[1], BACKGROUND[2]));
+            assertFalse(estimator.update(BACKGROUND[0], BACKGROUND[1] - OUTLIER_OFFSET,
+                    BACKGROUND[2]));
+            assertTrue(update(estimator, BACKGROUND, random));
+        }
+
+        assertTrue(estimator.getBackground(background));
+        assertArrayEquals(BACKGROUND, background, NOISE);
+        assertTrue(estimator.getCount() > SETTLE_COUNT);
+    }
+
+    @Test
+    public void consecutiveOutliers_restartAtNewBackground() {
+        BackgroundEstimator estimator = new BackgroundEstimator();
+        Random random = new Random(1234);
+        double[] background = new double[3];
+
+        settle(estimator, random);
+
+        for (int i = 1; i < MAX_OUTLIERS; i++)
+            assertFalse(estimator.update(TURNED_BACKGROUND[0], TURNED_BACKGROUND[1],
+                    TURNED_BACKGROUND[2]));
+
+        // The estimate starts over from the latest sample
+        assertTrue(estimator.update(TURNED_BACKGROUND[0], TURNED_BACKGROUND[1],
+                TURNED_BACKGROUND[2]));
+        assertEquals(1, estimator.getCount());
+        assertTrue(estimator.getBackground(background));
+        assertArrayEquals(TURNED_BACKGROUND, background, 1e-9);
+
+        for (int i = 0; i < SETTLE_COUNT; i++)
+            assertTrue(update(estimator, TURNED_BACKGROUND, random));
+
+        assertTrue(estimator.getBackground(background));
+        assertArrayEquals(TURNED_BACKGROUND, background, NOISE);
+    }
+
+    @Test
+    public void samplesOfSameTime_areTakenOnce() {
+        BackgroundEstimator estimator = new BackgroundEstimator();
+        double[] background = new double[3];
+
+        // The first two coils share a sample
+        assertEquals(2, estimator.update(
+                new double[] { 1, 1, 1, 1, 1, 1, 4, 4, 4 }, new long[] { 10, 10, 20 }));
+        assertEquals(2, estimator.getCount());
+
+        // Samples passed again along with newer ones are skipped
+        assertEquals(1, estimator.update(
+                new double[] { 4, 4, 4, 7, 7, 7, 7, 7, 7 }, new long[] { 20, 30, 30 }));
+        assertEquals(0, estimator.update(
+                new double[] { 9, 9, 9, 9, 9, 9 }, new long[] { 5, 30 }));
+        assertEquals(3, estimator.getCount());
+
+        // Mean of samples 1, 4 and 7 taken once each
+        assertTrue(estimator.getBackground(background));
+        assertArrayEquals(new double[] { 4, 4, 4 }, background, 1e-9);
+
+        // Another connection starts over with times of its own
+        estimator.reset();
+
+        assertFalse(estimator.getBackground(background));
+        assertEquals(1, estimator.update(new double[] { 2, 2, 2 }, new long[] { 5 }));
+        assertEquals(1, estimator.getCount());
+    }
+
+    private static void settle(BackgroundEstimator estimator, Random random) {
+        for (int i = 0; i < SETTLE_COUNT; i++)
+            assertTrue(update(estimator, BACKGROUND, random));
+    }
+
+    private static boolean update(BackgroundEstimator estimator, double[] background,
+                                  Random random) {
+        return estimator.update(background[0] + random.nextGaussian() * NOISE,
+                background[1] + random.nextGaussian() * NOISE,
+                background[2] + random.nextGaussian() * NOISE);
+    }
+}
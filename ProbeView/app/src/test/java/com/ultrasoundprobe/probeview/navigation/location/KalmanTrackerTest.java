@@ -0,0 +1,163 @@
+package com.ultrasoundprobe.probeview.navigation.location;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Kalman tracker of locations on a constant velocity track with noise and outliers,
+ * with angle Z wrapping around from pi to -pi along the way.
+ */
+public class KalmanTrackerTest {
+    private static final int LENGTH = 6;
+
+    // Period of locations in nanoseconds and number of them
+    private static final long PERIOD = 10000000L;
+    private static final int COUNT = 300;
+
+    // Noise of locations, one location out of every OUTLIER_INTERVAL is an outlier
+    private static final double POSITION_NOISE = 2e-3;
+    private static final double ANGLE_NOISE = 2e-2;
+    private static final int OUTLIER_INTERVAL = 37;
+    private static final double OUTLIER_OFFSET = 0.1;
+
+    // Number of locations taken by the track to settle before it is compared
+    private static final int SETTLE_COUNT = 20;
+
+    private static final double[] START = { 0.1, -0.05, 0.15, 0.3, -0.2, 2.8 };
+    private static final double[] VELOCITY = { 0.05, 0.02, -0.03, 0.1, -0.1, 0.5 };
+
+    @Test
+    public void track_hasLowerErrorThanLocations() {
+        KalmanTracker tracker = new KalmanTracker();
+        Random random = new Random(1234);
+        double[] truth = new double[LENGTH];
+        double[] location = new double[LENGTH];
+        double[] tracked = new double[LENGTH];
+        double locationError = 0, trackedError = 0;
+        int count = 0;
+
+        for (int n = 0; n < COUNT; n++) {
+            long timestamp = n * PERIOD;
+
+            getLocation(timestamp, truth);
+
+            for (int i = 0; i < LENGTH; i++) {
+                location[i] = truth[i] + random.nextGaussian() *
+                        (i < 3 ? POSITION_NOISE : ANGLE_NOISE);
+            }
+
+            boolean outlier = n % OUTLIER_INTERVAL == OUTLIER_INTERVAL - 1;
+
+            if (outlier)
+                location[0] += OUTLIER_OFFSET;
+
+            assertEquals(!outlier, tracker.update(location, Double.NaN, timestamp));
+            assertTrue(tracker.getLocation(tracked));
+
+            // Angles are kept within [-pi, pi)
+            for (int i = 3; i < LENGTH; i++)
+                assertTrue(tracked[i] >= -Math.PI && tracked[i] < Math.PI);
+
+            if (n < SETTLE_COUNT || outlier)
+                continue;
+
+            locationError += getSquaredError(location, truth);
+            trackedError += getSquaredError(tracked, truth);
+            count++;
+        }
+
+        // Angle Z went around from pi to -pi
+        assertTrue(START[5] + VELOCITY[5] * COUNT * PERIOD * 1e-9 > Math.PI);
+
+        assertTrue(Math.sqrt(trackedError / count) < 0.7 * Math.sqrt(locationError / count));
+    }
+
+    @Test
+    public void consecutiveOutliers_restartTrack() {
+        KalmanTracker tracker = new KalmanTracker();
+        double[] location = new double[LENGTH];
+        double[] tracked = new double[LENGTH];
+        int n = 0;
+
+        for (; n < SETTLE_COUNT; n++) {
+            getLocation(n * PERIOD, location);
+            assertTrue(tracker.update(location, Double.NaN, n * PERIOD));
+        }
+
+        // The probe is somewhere else, which is rejected until it is there for
+        // MAX_OUTLIERS locations in a row
+        for (int k = 0; k < 3; k++, n++) {
+            getLocation(n * PERIOD, location);
+            location[1] += OUTLIER_OFFSET;
+
+            assertEquals(k == 2, tracker.update(location, Double.NaN, n * PERIOD));
+            assertTrue(tracker.getLocation(tracked));
+
+            if (k < 2)
+                assertEquals(location[1] - OUTLIER_OFFSET, tracked[1], 1e-3);
+        }
+
+        assertArrayEquals(location, tracked, 0.0);
+
+        // The new track has no velocity yet
+        assertTrue(tracker.predict(n * PERIOD, tracked));
+        assertArrayEquals(location, tracked, 0.0);
+    }
+
+    @Test
+    public void spreadOfSamples_widensGateAlongVelocity() {
+        double[] velocity = { 0.5, 0, 0, 0, 0, 0 };
+        double[] location = new double[LENGTH];
+
+        // Samples of each coil taken at the same time or periods apart
+        for (long spread : new long[] { 0, 2 * PERIOD }) {
+            KalmanTracker tracker = new KalmanTracker();
+            int n = 0;
+
+            for (; n < SETTLE_COUNT; n++) {
+                for (int i = 0; i < LENGTH; i++)
+                    location[i] = START[i] + velocity[i] * n * PERIOD * 1e-9;
+
+                tracker.update(location, Double.NaN, n * PERIOD);
+            }
+
+            // Samples of a moving probe taken apart in time blur its location
+            location[0] = START[0] + velocity[0] * n * PERIOD * 1e-9 + 0.03;
+
+            long[] sampleTimes = { n * PERIOD - spread, n * PERIOD, n * PERIOD + spread };
+
+            assertEquals(spread > 0, tracker.update(location, Double.NaN, n * PERIOD,
+                    sampleTimes));
+        }
+    }
+
+    // Location on the track at a timestamp in nanoseconds
+    private static void getLocation(long timestamp, double[] location) {
+        for (int i = 0; i < LENGTH; i++) {
+            location[i] = START[i] + VELOCITY[i] * timestamp * 1e-9;
+
+            if (i >= 3)
+                location[i] = location[i] - 2 * Math.PI *
+                        Math.floor((location[i] + Math.PI) / (2 * Math.PI));
+        }
+    }
+
+    private static double getSquaredError(double[] location, double[] truth) {
+        double error = 0;
+
+        for (int i = 0; i < LENGTH; i++) {
+            double difference = location[i] - truth[i];
+
+            // Angles are compared the short way round
+            if (i >= 3)
+                difference = Math.IEEEremainder(difference, 2 * Math.PI);
+
+            error += difference * difference;
+        }
+
+        return error;
+    }
+}
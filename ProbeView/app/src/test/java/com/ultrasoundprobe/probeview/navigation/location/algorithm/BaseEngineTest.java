@@ -0,0 +1,88 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import com.ultrasoundprobe.probeview.device.coil.SampleAccumulator;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Weights of magnetic values by the variance of the mean of their samples, where coil
+ * states with a single sample or agreeing samples do not outweigh the others.
+ */
+public class BaseEngineTest {
+    @Test
+    public void weights_followVarianceOfSamplesOfEachCoil() {
+        double[] variance = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[] slot = new double[3];
+
+        // One sample of coil 1, four agreeing samples of coil 2, and four samples of
+        // coil 3 with a variance of 4 times the sensor noise on each axis
+        double spread = Math.sqrt(3 * SampleAccumulator.MAGNETIC_NOISE_VARIANCE);
+        double[][][] samples = {
+                { { 100, 50, -20 } },
+                { { 100, 50, -20 }, { 100, 50, -20 }, { 100, 50, -20 }, { 100, 50, -20 } },
+                { { 100 - spread, 50 - spread, -20 - spread },
+                        { 100 + spread, 50 + spread, -20 + spread },
+                        { 100 - spread, 50 - spread, -20 - spread },
+                        { 100 + spread, 50 + spread, -20 + spread } }
+        };
+
+        for (int coil = 0; coil < samples.length; coil++) {
+            SampleAccumulator accumulator = new SampleAccumulator(4,
+                    SampleAccumulator.Statistic.Mean);
+
+            for (double[] sample : samples[coil])
+                accumulator.add(sample[0], sample[1], sample[2], 0, 0, 9.8);
+
+            accumulator.getMagneticVariance(slot);
+            System.arraycopy(slot, 0, variance, coil * 3, 3);
+        }
+
+        BaseEngine engine = new NativeLeastSquareLM();
+
+        engine.setMagneticVariance(variance);
+
+        double[] weights = engine.weights;
+        double sum = 0;
+
+        assertNotNull(weights);
+
+        for (int i = 0; i < 3; i++) {
+            // Variance of the mean of 4 samples at the sensor noise is a quarter of that
+            // of a single sample, and that of 4 samples at 4 times the noise is the same
+            // as a single sample
+            assertEquals(2 * weights[i], weights[3 + i], 1e-9);
+            assertEquals(weights[i], weights[6 + i], 1e-9);
+        }
+
+        // Weights are normalized to a mean square of 1
+        for (double weight : weights)
+            sum += weight * weight;
+
+        assertEquals(weights.length, sum, 1e-9);
+    }
+
+    @Test
+    public void unknownVariance_takesEqualWeights() {
+        BaseEngine engine = new NativeLeastSquareLM();
+        double[] variance = new double[CoilFieldModel.MAGNETIC_LENGTH];
+
+        Arrays.fill(variance, 1.0);
+        engine.setMagneticVariance(variance);
+        assertNotNull(engine.weights);
+
+        variance[4] = 0;
+        engine.setMagneticVariance(variance);
+        assertNull(engine.weights);
+
+        variance[4] = Double.NaN;
+        engine.setMagneticVariance(variance);
+        assertNull(engine.weights);
+
+        engine.setMagneticVariance(null);
+        assertNull(engine.weights);
+    }
+}
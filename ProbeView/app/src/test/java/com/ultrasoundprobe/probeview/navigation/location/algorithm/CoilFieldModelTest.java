@@ -0,0 +1,90 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cross-check of the closed-form Jacobian of the coil field model against central
+ * finite differences.
+ */
+public class CoilFieldModelTest {
+    private static final int SAMPLE_COUNT = 200;
+    private static final double STEP = 1e-6;
+
+    @Test
+    public void jacobian_matchesFiniteDifferences() {
+        checkJacobian(new CoilFieldModel(true));
+    }
+
+    @Test
+    public void jacobianOfTaylorExpansion_matchesFiniteDifferences() {
+        checkJacobian(new CoilFieldModel(false));
+    }
+
+    private static void checkJacobian(CoilFieldModel model) {
+        Random random = new Random(1234);
+
+        double[] values = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[] plus = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[] minus = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[][] jacobian = new double[CoilFieldModel.MAGNETIC_LENGTH][
+                CoilFieldModel.LOCATION_LENGTH];
+
+        for (int n = 0; n < SAMPLE_COUNT; n++) {
+            double[] location = randomLocation(random);
+
+            model.getMagneticData(location, values, jacobian);
+
+            for (int j = 0; j < CoilFieldModel.LOCATION_LENGTH; j++) {
+                double[] x = location.clone();
+
+                x[j] = location[j] + STEP;
+                model.getMagneticData(x, plus);
+                x[j] = location[j] - STEP;
+                model.getMagneticData(x, minus);
+
+                for (int i = 0; i < CoilFieldModel.MAGNETIC_LENGTH; i++) {
+                    double expected = (plus[i] - minus[i]) / (2.0 * STEP);
+                    double tolerance = 1e-5 * Math.max(1.0, Math.abs(expected)) +
+                            1e-6 * Math.abs(values[i]);
+
+                    assertEquals("d[" + i + "]/d[" + j + "] at sample " + n,
+                            expected, jacobian[i][j], tolerance);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void jacobian_doesNotChangeMagneticData() {
+        CoilFieldModel model = new CoilFieldModel();
+        double[] location = { 0.12, 0.08, 0.15, 0.3, 0.2, 0.25 };
+        double[] expected = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[] actual = new double[CoilFieldModel.MAGNETIC_LENGTH];
+
+        model.getMagneticData(location, expected);
+        model.getMagneticData(location, actual, new double[CoilFieldModel.MAGNETIC_LENGTH][
+                CoilFieldModel.LOCATION_LENGTH]);
+
+        assertArrayEquals(expected, actual, 0.0);
+    }
+
+    private static double[] randomLocation(Random random) {
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+
+        // Keep away from coil axes where the cylindrical coordinates are singular
+        for (int i = 0; i < 3; i++) {
+            double value = 0.03 + 0.3 * random.nextDouble();
+
+            location[i] = random.nextBoolean() ? value : -value;
+        }
+
+        for (int i = 3; i < CoilFieldModel.LOCATION_LENGTH; i++)
+            location[i] = (random.nextDouble() * 2.0 - 1.0) * Math.PI;
+
+        return location;
+    }
+}
@@ -0,0 +1,181 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Accuracy of the elliptic integrals against numerical integration and against the
+ * Taylor expansion, and a benchmark of the coil field model with both of them.
+ */
+public class EllipticIntegralTest {
+    private static final int INTEGRATION_STEPS = 20000;
+    private static final int LOCATION_COUNT = 1000;
+    private static final int BENCHMARK_COUNT = 200000;
+
+    @Test
+    public void values_matchNumericalIntegration() {
+        double[] results = new double[2];
+
+        for (double m = 0; m < 0.9995; m += 0.001) {
+            EllipticIntegral.getValues(m, results, 0);
+
+            assertEquals("K(" + m + ")", integrateK(m), results[0], 1e-12 * results[0]);
+            assertEquals("E(" + m + ")", integrateE(m), results[1], 1e-12 * results[1]);
+        }
+    }
+
+    @Test
+    public void derivatives_matchFiniteDifferences() {
+        double[] plus = new double[2];
+        double[] minus = new double[2];
+        double[] values = new double[2];
+        double[] derivatives = new double[2];
+        double step = 1e-7;
+
+        for (double m = 1e-6; m < 0.99; m = m < 1e-3 ? m * 2 : m + 0.01) {
+            EllipticIntegral.getValues(m, values, 0);
+            EllipticIntegral.getDerivatives(m, values[0], values[1], derivatives, 0);
+            EllipticIntegral.getValues(m + step, plus, 0);
+            EllipticIntegral.getValues(Math.max(0, m - step), minus, 0);
+
+            double h = m + step - Math.max(0, m - step);
+
+            assertEquals("dK/dm(" + m + ")", (plus[0] - minus[0]) / h, derivatives[0],
+                    1e-6 * Math.abs(derivatives[0]));
+            assertEquals("dE/dm(" + m + ")", (plus[1] - minus[1]) / h, derivatives[1],
+                    1e-6 * Math.abs(derivatives[1]));
+        }
+    }
+
+    @Test
+    public void taylorExpansion_isWithinRemainderOfSeries() {
+        double[] values = new double[2];
+
+        // Terms of both series from m^3 on have coefficients of at most 25/256 and
+        // 25/256/5 of pi/2, so that the remainder is bounded by a geometric series
+        for (double m = 0.001; m < 0.99; m += 0.001) {
+            EllipticIntegral.getValues(m, values, 0);
+
+            double k = Math.PI / 2 + Math.PI / 8 * m + 9 * Math.PI / 128 * m * m;
+            double e = Math.PI / 2 - Math.PI / 8 * m - 3 * Math.PI / 128 * m * m;
+            double bound = Math.PI / 2 * 25 / 256 * m * m * m / (1 - m);
+
+            assertTrue("K(" + m + ")", values[0] - k >= 0);
+            assertTrue("K(" + m + ")", values[0] - k <= bound);
+            assertTrue("E(" + m + ")", e - values[1] >= 0);
+            assertTrue("E(" + m + ")", e - values[1] <= bound / 5);
+        }
+    }
+
+    @Test
+    public void taylorExpansion_errorOfMagneticDataInWorkingVolume() {
+        CoilFieldModel exact = new CoilFieldModel(true);
+        CoilFieldModel taylor = new CoilFieldModel(false);
+        Random random = new Random(42);
+
+        double[] expected = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[] actual = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double maxError = 0, sumError = 0;
+
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            double[] location = randomLocation(random);
+
+            exact.getMagneticData(location, expected);
+            taylor.getMagneticData(location, actual);
+
+            double error = 0, norm = 0;
+
+            for (int k = 0; k < expected.length; k++) {
+                error += (actual[k] - expected[k]) * (actual[k] - expected[k]);
+                norm += expected[k] * expected[k];
+            }
+
+            maxError = Math.max(maxError, Math.sqrt(error / norm));
+            sumError += Math.sqrt(error / norm);
+        }
+
+        // Magnetic data is a difference of K and E terms which cancel each other to
+        // the order of m^2, so that the truncation of the Taylor expansion is an error
+        // of the same order as magnetic data all over the working volume, not only
+        // close to the coil
+        assertTrue(maxError < 0.8);
+        assertTrue(sumError / LOCATION_COUNT > 0.3);
+        assertTrue(sumError / LOCATION_COUNT < 0.5);
+    }
+
+    // Cost of the coil field model with exact elliptic integrals against the Taylor
+    // expansion, run by hand as timing depends on the machine
+    @Ignore("Benchmark")
+    @Test
+    public void benchmark_exactAgainstTaylorExpansion() {
+        CoilFieldModel exact = new CoilFieldModel(true);
+        CoilFieldModel taylor = new CoilFieldModel(false);
+        Random random = new Random(42);
+
+        double[][] locations = new double[LOCATION_COUNT][];
+        double[] values = new double[CoilFieldModel.MAGNETIC_LENGTH];
+
+        for (int i = 0; i < locations.length; i++)
+            locations[i] = randomLocation(random);
+
+        long exactTime = time(exact, locations, values);
+        long taylorTime = time(taylor, locations, values);
+
+        System.out.println("Model cost per location: exact " +
+                exactTime / BENCHMARK_COUNT + "ns, Taylor expansion " +
+                taylorTime / BENCHMARK_COUNT + "ns");
+    }
+
+    // Location in the working volume of the engine within 0.5m of the coil center
+    private static double[] randomLocation(Random random) {
+        return new double[] {
+                random.nextDouble() - 0.5, random.nextDouble() - 0.5,
+                random.nextDouble() - 0.5,
+                (random.nextDouble() * 2 - 1) * Math.PI,
+                (random.nextDouble() * 2 - 1) * Math.PI,
+                (random.nextDouble() * 2 - 1) * Math.PI };
+    }
+
+    private static long time(CoilFieldModel model, double[][] locations, double[] values) {
+        // Warm up before timing
+        for (int i = 0; i < BENCHMARK_COUNT; i++)
+            model.getMagneticData(locations[i % locations.length], values);
+
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < BENCHMARK_COUNT; i++)
+            model.getMagneticData(locations[i % locations.length], values);
+
+        return System.nanoTime() - startTime;
+    }
+
+    // Midpoint rule over the angle, which is spectrally accurate for the periodic
+    // integrands of the complete elliptic integrals
+    private static double integrateK(double m) {
+        double sum = 0;
+
+        for (int i = 0; i < INTEGRATION_STEPS; i++) {
+            double s = Math.sin((i + 0.5) * Math.PI / 2 / INTEGRATION_STEPS);
+
+            sum += 1.0 / Math.sqrt(1.0 - m * s * s);
+        }
+
+        return sum * Math.PI / 2 / INTEGRATION_STEPS;
+    }
+
+    private static double integrateE(double m) {
+        double sum = 0;
+
+        for (int i = 0; i < INTEGRATION_STEPS; i++) {
+            double s = Math.sin((i + 0.5) * Math.PI / 2 / INTEGRATION_STEPS);
+
+            sum += Math.sqrt(1.0 - m * s * s);
+        }
+
+        return sum * Math.PI / 2 / INTEGRATION_STEPS;
+    }
+}
@@ -0,0 +1,178 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import com.ultrasoundprobe.probeview.navigation.location.LocationData;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Nearest location from an index of precomputed magnetic data, for locations the
+ * magnetic data was generated from.
+ */
+public class FingerprintIndexTest {
+    private static final int POSITION_STEPS = 3;
+    private static final int ANGLE_STEPS = 4;
+
+    private static final LocationData MAX_LOCATION = new LocationData(
+            0.1, 0.1, 0.1, 0, 0, 0, 0, 0, 0);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findNearest_returnsLocationOfGeneratedMagneticData() throws IOException {
+        FingerprintIndex index = buildIndex();
+        CoilFieldModel model = new CoilFieldModel();
+
+        assertEquals(POSITION_STEPS * POSITION_STEPS * POSITION_STEPS *
+                ANGLE_STEPS * ANGLE_STEPS * ANGLE_STEPS, index.getCount());
+
+        // Locations on the grid of the index: positions from minimum to maximum and
+        // angles from -pi in steps of 2 * pi / ANGLE_STEPS
+        double[][] expected = {
+                { -0.1, 0, 0.1, -Math.PI, -Math.PI / 2, 0 },
+                { 0.1, 0.1, -0.1, Math.PI / 2, 0, -Math.PI / 2 },
+                { 0, -0.1, 0, 0, Math.PI / 2, Math.PI / 2 }
+        };
+
+        double[] magnetic = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+
+        for (double[] value : expected) {
+            model.getMagneticData(value, magnetic);
+
+            double distance = index.findNearest(magnetic, location);
+
+            // Records are stored in float
+            assertTrue(distance < 1e-12 * getSquaredNorm(magnetic));
+
+            // Magnetic data of dipoles is the same for the position mirrored through the
+            // origin, which is also on the grid
+            double sign = Math.signum(location[0] * value[0] + location[1] * value[1] +
+                    location[2] * value[2]);
+
+            for (int k = 0; k < 3; k++)
+                assertEquals(sign * value[k], location[k], 1e-6);
+
+            // Angles on the grid are ambiguous at multiples of pi / 2, such as a gimbal
+            // lock at angle Y of -pi / 2, so that their rotation is compared instead
+            assertArrayEquals(getRotation(value), getRotation(location), 1e-6);
+        }
+    }
+
+    @Test
+    public void findNearest_matchesExhaustiveSearch() throws IOException {
+        FingerprintIndex index = buildIndex();
+        CoilFieldModel model = new CoilFieldModel();
+        Random random = new Random(1234);
+
+        double[] target = new double[CoilFieldModel.LOCATION_LENGTH];
+        double[] magnetic = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+
+        for (int n = 0; n < 50; n++) {
+            for (int k = 0; k < 3; k++) {
+                target[k] = (random.nextDouble() * 2 - 1) * 0.1;
+                target[3 + k] = (random.nextDouble() * 2 - 1) * Math.PI;
+            }
+
+            model.getMagneticData(target, magnetic);
+
+            double distance = index.findNearest(magnetic, location);
+            double nearest = findNearestExhaustively(model, magnetic);
+
+            // Records are stored in float
+            assertEquals(nearest, distance, 1e-5 * (nearest + getSquaredNorm(magnetic)));
+        }
+    }
+
+    @Test
+    public void findNearest_returnsNaNForMagneticDataOfNaN() throws IOException {
+        FingerprintIndex index = buildIndex();
+        double[] magnetic = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[] location = { 1, 2, 3, 4, 5, 6 };
+
+        magnetic[0] = Double.NaN;
+
+        // No record is nearest, the location is left as it is
+        assertTrue(Double.isNaN(index.findNearest(magnetic, location)));
+        assertArrayEquals(new double[] { 1, 2, 3, 4, 5, 6 }, location, 0.0);
+    }
+
+    @Test
+    public void open_rejectsIndexOfAnotherGrid() throws IOException {
+        File file = new File(folder.getRoot(), "index.bin");
+
+        assertTrue(FingerprintIndex.build(file, MAX_LOCATION, POSITION_STEPS, ANGLE_STEPS));
+        assertNotNull(FingerprintIndex.open(file, POSITION_STEPS, ANGLE_STEPS));
+        assertNull(FingerprintIndex.open(file, POSITION_STEPS + 1, ANGLE_STEPS));
+    }
+
+    // Rotation matrix Rz * Ry * Rx of angles of a location in row-major order
+    private static double[] getRotation(double[] location) {
+        double ca = Math.cos(location[3]), sa = Math.sin(location[3]);
+        double cb = Math.cos(location[4]), sb = Math.sin(location[4]);
+        double cg = Math.cos(location[5]), sg = Math.sin(location[5]);
+
+        return new double[] {
+                cb * cg, sa * sb * cg - ca * sg, ca * sb * cg + sa * sg,
+                cb * sg, sa * sb * sg + ca * cg, ca * sb * sg - sa * cg,
+                -sb, sa * cb, ca * cb
+        };
+    }
+
+    // Squared distance from magnetic data to the nearest one over all locations of the
+    // grid, taken the same way as the index is built
+    private static double findNearestExhaustively(CoilFieldModel model, double[] magnetic) {
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+        double[] values = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double nearest = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < POSITION_STEPS * POSITION_STEPS * POSITION_STEPS; i++) {
+            for (int k = 0, step = i; k < 3; k++, step /= POSITION_STEPS)
+                location[k] = 0.1 * (2.0 * (step % POSITION_STEPS) / (POSITION_STEPS - 1) - 1.0);
+
+            for (int j = 0; j < ANGLE_STEPS * ANGLE_STEPS * ANGLE_STEPS; j++) {
+                for (int k = 0, step = j; k < 3; k++, step /= ANGLE_STEPS)
+                    location[3 + k] = Math.PI * (2.0 * (step % ANGLE_STEPS) / ANGLE_STEPS - 1.0);
+
+                model.getMagneticData(location, values);
+
+                double distance = 0;
+
+                for (int k = 0; k < values.length; k++)
+                    distance += (values[k] - magnetic[k]) * (values[k] - magnetic[k]);
+
+                nearest = Math.min(nearest, distance);
+            }
+        }
+
+        return nearest;
+    }
+
+    private static double getSquaredNorm(double[] values) {
+        double sum = 0;
+
+        for (double value : values)
+            sum += value * value;
+
+        return sum;
+    }
+
+    private FingerprintIndex buildIndex() throws IOException {
+        FingerprintIndex index = FingerprintIndex.openOrBuild(
+                new File(folder.getRoot(), "index.bin"), MAX_LOCATION,
+                POSITION_STEPS, ANGLE_STEPS);
+
+        assertNotNull(index);
+
+        return index;
+    }
+}
@@ -0,0 +1,124 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Levenberg-Marquardt solver of location from magnetic data generated by the coil field
+ * model, with parameters clamped into bounds, fixed parameters and a deadline.
+ */
+public class LevenbergMarquardtSolverTest {
+    private static final double[] LOWER_BOUNDS = {
+            -0.5, -0.5, -0.5, -Math.PI, -Math.PI, -Math.PI
+    };
+    private static final double[] UPPER_BOUNDS = {
+            0.5, 0.5, 0.5, Math.PI, Math.PI, Math.PI
+    };
+
+    private static final double[] LOCATION = { 0.12, 0.08, 0.15, 0.3, 0.2, 0.25 };
+    private static final double[] START = { 0.1, 0.1, 0.12, 0.25, 0.25, 0.2 };
+
+    @Test
+    public void solve_convergesToKnownLocation() {
+        LevenbergMarquardtSolver solver = new LevenbergMarquardtSolver(LOWER_BOUNDS,
+                UPPER_BOUNDS);
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+        SolverReport report = new SolverReport();
+
+        assertTrue(solver.solve(getMagneticData(LOCATION), START, location, report, null));
+
+        assertArrayEquals(LOCATION, location, 1e-6);
+        assertFalse(report.partial);
+        assertTrue(report.iterations > 0);
+        assertTrue(report.residual < 1e-6);
+    }
+
+    @Test
+    public void solve_clampsLocationIntoBounds() {
+        double[] upperBounds = UPPER_BOUNDS.clone();
+
+        // Position X of the magnetic data is out of bounds, and so is the initial guess
+        upperBounds[0] = 0.1;
+
+        LevenbergMarquardtSolver solver = new LevenbergMarquardtSolver(LOWER_BOUNDS,
+                upperBounds);
+        double[] start = START.clone();
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+        SolverReport report = new SolverReport();
+
+        start[0] = 1.0;
+
+        assertTrue(solver.solve(getMagneticData(LOCATION), start, location, report, null));
+
+        for (int i = 0; i < CoilFieldModel.LOCATION_LENGTH; i++) {
+            assertTrue(location[i] >= LOWER_BOUNDS[i]);
+            assertTrue(location[i] <= upperBounds[i]);
+        }
+
+        assertEquals(0.1, location[0], 1e-9);
+        assertTrue(report.residual > 0);
+    }
+
+    @Test
+    public void solve_keepsFixedTiltAtInitialGuess() {
+        LevenbergMarquardtSolver solver = new LevenbergMarquardtSolver(LOWER_BOUNDS,
+                UPPER_BOUNDS);
+        boolean[] fixed = { false, false, false, true, true, false };
+        double[] start = START.clone();
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+        SolverReport report = new SolverReport();
+
+        // Angle X and Y are known from elsewhere and kept fixed
+        start[3] = LOCATION[3];
+        start[4] = LOCATION[4];
+
+        assertTrue(solver.solve(getMagneticData(LOCATION), start, location, report, null,
+                fixed));
+
+        assertEquals(start[3], location[3], 0.0);
+        assertEquals(start[4], location[4], 0.0);
+        assertArrayEquals(LOCATION, location, 1e-6);
+
+        // Off the true tilt, the fixed angles still stay while the others fit what
+        // they can
+        start[4] = LOCATION[4] + 0.1;
+
+        assertTrue(solver.solve(getMagneticData(LOCATION), start, location, report, null,
+                fixed));
+
+        assertEquals(start[3], location[3], 0.0);
+        assertEquals(start[4], location[4], 0.0);
+    }
+
+    @Test
+    public void solve_returnsPartialLocationOncePastDeadline() {
+        LevenbergMarquardtSolver solver = new LevenbergMarquardtSolver(LOWER_BOUNDS,
+                UPPER_BOUNDS);
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+        SolverReport report = new SolverReport();
+
+        solver.setDeadline(System.nanoTime() - 1);
+
+        assertTrue(solver.solve(getMagneticData(LOCATION), START, location, report, null));
+
+        assertTrue(report.partial);
+        assertEquals(0, report.iterations);
+        assertArrayEquals(START, location, 0.0);
+        assertFalse(Double.isNaN(report.residual));
+
+        // No deadline again
+        solver.setDeadline(0);
+
+        assertTrue(solver.solve(getMagneticData(LOCATION), START, location, report, null));
+        assertFalse(report.partial);
+    }
+
+    private static double[] getMagneticData(double[] location) {
+        double[] magnetic = new double[CoilFieldModel.MAGNETIC_LENGTH];
+
+        new CoilFieldModel().getMagneticData(location, magnetic);
+
+        return magnetic;
+    }
+}
@@ -0,0 +1,78 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Seeds of the multi-start engine against a cold start of a single engine, for a location
+ * out of the basin of the default initial guess.
+ */
+public class MultiStartLMTest {
+    // Location which a cold start from the default initial guess does not reach
+    private static final double[] LOCATION = { 0.12, 0.03, -0.11, -2.8, 0.9, 0.9 };
+
+    // Residual norm relative to norm of magnetic data of a solved location, the same
+    // as that of the multi-start engine to stop early
+    private static final double RESIDUAL_RATIO = 0.01;
+
+    @Test
+    public void locationOutOfDefaultBasin_isSolvedFromOtherSeeds() {
+        double[] magnetic = getMagneticData();
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+        SolverReport report = new SolverReport();
+
+        assertTrue(new NativeLeastSquareLM().getLocationData(magnetic, null, location,
+                report));
+        assertTrue(report.residual > RESIDUAL_RATIO * norm(magnetic));
+
+        assertTrue(new MultiStartLM().getLocationData(magnetic, null, location, report));
+        assertTrue(report.residual < 1e-9 * norm(magnetic));
+
+        // Magnetic data is the same for the position mirrored through the coil center
+        double sign = Math.signum(location[0] * LOCATION[0]);
+
+        for (int k = 0; k < 3; k++)
+            assertEquals(sign * LOCATION[k], location[k], 1e-6);
+    }
+
+    @Test
+    public void seedSolvingLocation_cancelsOtherSeeds() {
+        double[] magnetic = getMagneticData();
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+        SolverReport report = new SolverReport();
+
+        // Iterations of the default initial guess alone, which is one of the seeds
+        assertTrue(new NativeLeastSquareLM().getLocationData(magnetic, null, location,
+                report));
+
+        int coldStartIterations = report.iterations;
+
+        // The prior is the first seed and solves the location at once, remaining seeds
+        // stop then, so that all seeds take fewer iterations than the default one alone
+        assertTrue(new MultiStartLM().getLocationData(magnetic, LOCATION, location,
+                report));
+        assertTrue(report.residual < 1e-9 * norm(magnetic));
+        assertFalse(report.partial);
+        assertTrue(report.iterations + " of " + coldStartIterations,
+                report.iterations < coldStartIterations);
+        assertArrayEquals(LOCATION, location, 1e-6);
+    }
+
+    private static double[] getMagneticData() {
+        double[] magnetic = new double[CoilFieldModel.MAGNETIC_LENGTH];
+
+        new CoilFieldModel().getMagneticData(LOCATION, magnetic);
+
+        return magnetic;
+    }
+
+    private static double norm(double[] values) {
+        double sum = 0;
+
+        for (double value : values)
+            sum += value * value;
+
+        return Math.sqrt(sum);
+    }
+}
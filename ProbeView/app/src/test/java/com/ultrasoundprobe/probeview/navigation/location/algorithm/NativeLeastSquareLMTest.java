@@ -0,0 +1,99 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Batch of frames solved on several threads against the same frames solved in sequence
+ * by one engine.
+ */
+public class NativeLeastSquareLMTest {
+    private static final int FRAME_COUNT = 600;
+    private static final int THREADS = 2;
+
+    @Test
+    public void batch_matchesSequence() {
+        NativeLeastSquareLM engine = new NativeLeastSquareLM();
+        double[] magnetic = getTrack(new Random(1234));
+        double[] variance = new double[CoilFieldModel.MAGNETIC_LENGTH];
+
+        // Weights take effect on noisy frames, so that a thread solving without them
+        // comes to other locations
+        for (int i = 0; i < variance.length; i++)
+            variance[i] = (i % 3 + 1) * 0.5;
+
+        engine.setMagneticVariance(variance);
+        engine.setTimeBudget(1000000L);
+
+        double[] locations = new double[FRAME_COUNT * CoilFieldModel.LOCATION_LENGTH];
+        double[] residuals = new double[FRAME_COUNT];
+        double[] expectedLocations = new double[locations.length];
+        double[] expectedResiduals = new double[residuals.length];
+
+        assertEquals(FRAME_COUNT, BaseEngine.getLocationDataSequence(engine, magnetic,
+                0, FRAME_COUNT, expectedLocations, expectedResiduals));
+        assertEquals(FRAME_COUNT, engine.getLocationDataBatch(magnetic, FRAME_COUNT,
+                locations, residuals, THREADS));
+
+        assertArrayEquals(expectedLocations, locations, 1e-6);
+        assertArrayEquals(expectedResiduals, residuals, 1e-6);
+
+        // Time budget of the engine is kept after a batch
+        assertEquals(1000000L, engine.getTimeBudget());
+    }
+
+    @Test
+    public void batch_marksFramesOfFailedThreadUnsolved() {
+        NativeLeastSquareLM engine = new NativeLeastSquareLM();
+        double[] track = getTrack(new Random(1234));
+
+        // The last frame is missing, so that the last thread fails on it
+        double[] magnetic = new double[(FRAME_COUNT - 1) * CoilFieldModel.MAGNETIC_LENGTH];
+
+        System.arraycopy(track, 0, magnetic, 0, magnetic.length);
+
+        double[] locations = new double[FRAME_COUNT * CoilFieldModel.LOCATION_LENGTH];
+        double[] residuals = new double[FRAME_COUNT];
+
+        assertEquals(FRAME_COUNT / THREADS, engine.getLocationDataBatch(magnetic,
+                FRAME_COUNT, locations, residuals, THREADS));
+
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            boolean solved = i < FRAME_COUNT / THREADS;
+
+            assertEquals(solved, !Double.isNaN(residuals[i]));
+            assertEquals(solved, !Double.isNaN(locations[i * CoilFieldModel.LOCATION_LENGTH]));
+        }
+    }
+
+    // Magnetic data with noise along a smooth track of the probe
+    private static double[] getTrack(Random random) {
+        CoilFieldModel model = new CoilFieldModel();
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+        double[] values = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[] magnetic = new double[FRAME_COUNT * CoilFieldModel.MAGNETIC_LENGTH];
+
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            double t = 2.0 * Math.PI * i / FRAME_COUNT;
+
+            location[0] = 0.12 + 0.03 * Math.sin(t);
+            location[1] = 0.08 + 0.03 * Math.cos(t);
+            location[2] = 0.15;
+            location[3] = 0.3;
+            location[4] = 0.2;
+            location[5] = 0.25 + 0.2 * Math.sin(t);
+
+            model.getMagneticData(location, values);
+
+            for (int k = 0; k < values.length; k++) {
+                magnetic[i * values.length + k] = values[k] *
+                        (1.0 + 0.01 * random.nextGaussian());
+            }
+        }
+
+        return magnetic;
+    }
+}
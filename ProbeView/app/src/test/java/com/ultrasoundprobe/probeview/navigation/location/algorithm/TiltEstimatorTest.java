@@ -0,0 +1,82 @@
+package com.ultrasoundprobe.probeview.navigation.location.algorithm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Gravity direction from accelerometer data built by the rotation of the coil field
+ * model, and a solve fitting angles to both gravity and magnetic data.
+ */
+public class TiltEstimatorTest {
+    private static final double GRAVITY = 9.8;
+
+    // Angle Z is applied last, so that gravity does not give angle X and Y alone
+    private static final double[] LOCATION = {
+            0.12, 0.08, 0.15, 0.0, Math.toRadians(30), Math.toRadians(90)
+    };
+
+    @Test
+    public void gravity_matchesRotationOfModel() {
+        TiltEstimator estimator = new TiltEstimator();
+        double[] direction = new double[CoilFieldModel.GRAVITY_LENGTH];
+
+        assertTrue(estimator.getGravity(getAccelerometerData(LOCATION, 0), direction));
+
+        assertArrayEquals(new double[] { 0, 0.5, Math.sqrt(3) / 2 }, direction, 1e-9);
+    }
+
+    @Test
+    public void motion_isRejected() {
+        TiltEstimator estimator = new TiltEstimator();
+        double[] direction = new double[CoilFieldModel.GRAVITY_LENGTH];
+        double[] values = getAccelerometerData(LOCATION, 0);
+
+        assertTrue(estimator.getGravity(values, direction));
+
+        // Samples of a frame disagree with each other
+        values[3] += 0.1 * GRAVITY;
+
+        assertFalse(estimator.getGravity(values, direction));
+
+        // Magnitude is off gravity under constant acceleration
+        assertFalse(estimator.getGravity(getAccelerometerData(LOCATION, 0.1 * GRAVITY),
+                direction));
+    }
+
+    @Test
+    public void tiltConstraint_solvesLocationOfModel() {
+        NativeLeastSquareLM engine = new NativeLeastSquareLM();
+        double[] magnetic = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        double[] prior = LOCATION.clone();
+        double[] location = new double[CoilFieldModel.LOCATION_LENGTH];
+        SolverReport report = new SolverReport();
+
+        new CoilFieldModel().getMagneticData(LOCATION, magnetic);
+
+        for (int i = 0; i < prior.length; i++)
+            prior[i] += i < 3 ? 0.01 : 0.1;
+
+        engine.setTiltConstraint(true);
+
+        assertTrue(engine.getLocationData(magnetic, getAccelerometerData(LOCATION, 0),
+                prior, location, report));
+
+        assertArrayEquals(LOCATION, location, 1e-6);
+        assertTrue(report.residual < 1e-6);
+    }
+
+    // Accelerometer data of all coils at a location, the vertical axis rotated by the
+    // coil field model with an extra acceleration along it
+    private static double[] getAccelerometerData(double[] location, double acceleration) {
+        double[] direction = new double[CoilFieldModel.GRAVITY_LENGTH];
+        double[] values = new double[CoilFieldModel.MAGNETIC_LENGTH];
+
+        new CoilFieldModel().getGravityData(location, direction, 0, null);
+
+        for (int i = 0; i < values.length; i++)
+            values[i] = direction[i % 3] * (GRAVITY + acceleration);
+
+        return values;
+    }
+}
@@ -0,0 +1,116 @@
+package com.ultrasoundprobe.probeview.navigation.pipeline;
+
+import com.ultrasoundprobe.probeview.device.DeviceService;
+import com.ultrasoundprobe.probeview.navigation.location.DataConvert;
+import com.ultrasoundprobe.probeview.navigation.location.LocationData;
+import com.ultrasoundprobe.probeview.navigation.location.algorithm.CoilFieldModel;
+import com.ultrasoundprobe.probeview.navigation.location.algorithm.NativeLeastSquareLM;
+
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Samples passed through all stages of the navigation pipeline into locations, each
+ * sample makes a coil cycle of magnetic data of a known location.
+ */
+public class NavigationPipelineTest {
+    private static final int FRAME_COUNT = 5;
+    private static final int SAMPLE_CAPACITY = 64;
+
+    private static final LocationData VIEW_INFO = new LocationData(
+            100, 100, 100, 0, 0, 0, 0, 0, 0);
+
+    @Test
+    public void samples_passThroughAllStagesIntoLocations() throws InterruptedException {
+        DataConvert dataConvert = new DataConvert(new NativeLeastSquareLM(), VIEW_INFO);
+        BlockingQueue<LocationData> locations = new LinkedBlockingQueue<>();
+        NavigationPipeline pipeline = newPipeline(dataConvert, locations);
+
+        pipeline.start();
+
+        for (int n = 0; n < FRAME_COUNT; n++) {
+            assertTrue(pipeline.postSample(newSample(n), new DeviceService.GpioData(),
+                    System.nanoTime()));
+
+            LocationData location = locations.poll(5, TimeUnit.SECONDS);
+            LocationData expected = new LocationData();
+
+            assertNotNull(location);
+
+            dataConvert.toViewData(getLocation(n), expected);
+            assertArrayEquals(expected.getValues(), location.getValues(), 1e-2);
+        }
+
+        // A stage counts an item once it is done with it, after passing it on
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        for (PipelineStage<?, ?> stage : pipeline.getStages()) {
+            while (stage.getProcessedCount() < FRAME_COUNT && System.nanoTime() < deadline)
+                Thread.sleep(1);
+        }
+
+        pipeline.quit();
+
+        assertEquals(0, pipeline.getDroppedSampleCount());
+
+        for (PipelineStage<?, ?> stage : pipeline.getStages()) {
+            assertEquals(stage.getName(), FRAME_COUNT, stage.getProcessedCount());
+            assertEquals(stage.getName(), 0, stage.getDroppedCount());
+        }
+    }
+
+    @Test
+    public void samplesBeyondCapacity_areDropped() throws InterruptedException {
+        DataConvert dataConvert = new DataConvert(new NativeLeastSquareLM(), VIEW_INFO);
+        BlockingQueue<LocationData> locations = new LinkedBlockingQueue<>();
+        NavigationPipeline pipeline = newPipeline(dataConvert, locations);
+
+        // No stage takes samples before the pipeline starts
+        for (int n = 0; n < SAMPLE_CAPACITY + 6; n++) {
+            assertEquals(n < SAMPLE_CAPACITY, pipeline.postSample(newSample(n % FRAME_COUNT),
+                    new DeviceService.GpioData(), System.nanoTime()));
+        }
+
+        assertEquals(6, pipeline.getDroppedSampleCount());
+
+        pipeline.start();
+
+        assertNotNull(locations.poll(5, TimeUnit.SECONDS));
+
+        pipeline.quit();
+    }
+
+    // Each sample is a coil cycle of magnetic data of the location of its index in mx
+    private static NavigationPipeline newPipeline(DataConvert dataConvert,
+                                                  BlockingQueue<LocationData> locations) {
+        final CoilFieldModel model = new CoilFieldModel();
+        final double[] magnetic = new double[CoilFieldModel.MAGNETIC_LENGTH];
+        final DeviceService.ImuData[] values = new DeviceService.ImuData[3];
+
+        return new NavigationPipeline(dataConvert, (value, gpioData, timestamp, frame) -> {
+            model.getMagneticData(getLocation((int)value.mx), magnetic);
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new DeviceService.ImuData((float)magnetic[i * 3],
+                        (float)magnetic[i * 3 + 1], (float)magnetic[i * 3 + 2], 0, 0, 0);
+            }
+
+            frame.setImuData(values, null);
+
+            return true;
+        }, value -> locations.add(new LocationData(value.getValues())));
+    }
+
+    private static DeviceService.ImuData newSample(int index) {
+        return new DeviceService.ImuData(index, 0, 0, 0, 0, 0);
+    }
+
+    private static double[] getLocation(int index) {
+        return new double[] { 0.12 + 0.01 * index, 0.08, 0.15, 0.3, 0.2, 0.25 };
+    }
+}
@@ -0,0 +1,98 @@
+package com.ultrasoundprobe.probeview.navigation.pipeline;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * A stage which completes an output item every few input items, such as assembly of
+ * coil cycles from samples, while nothing takes its output items.
+ */
+public class PipelineStageTest {
+    private static final int ITEM_COUNT = 30;
+    private static final int ITEMS_PER_OUTPUT = 3;
+    private static final int OUTPUT_CAPACITY = 2;
+
+    @Test
+    public void fullOutput_dropsInputItemsOfStatelessStage() throws InterruptedException {
+        SpscRingBuffer<long[]> output = newBuffer(OUTPUT_CAPACITY);
+        long[] taken = new long[1];
+        PipelineStage<long[], long[]> stage = newStage(output, taken);
+
+        runStage(stage, ITEMS_PER_OUTPUT * OUTPUT_CAPACITY);
+
+        // Once the output ring buffer is full, input items are dropped unseen
+        assertEquals(ITEMS_PER_OUTPUT * OUTPUT_CAPACITY, taken[0]);
+        assertEquals(ITEM_COUNT - taken[0], stage.getDroppedCount());
+        assertEquals(OUTPUT_CAPACITY, output.size());
+    }
+
+    @Test
+    public void fullOutput_dropsOnlyCompletedItemsOfStageWithScratch()
+            throws InterruptedException {
+        SpscRingBuffer<long[]> output = newBuffer(OUTPUT_CAPACITY);
+        long[] taken = new long[1];
+        PipelineStage<long[], long[]> stage = newStage(output, taken);
+
+        stage.setScratch(new long[1], (source, target) -> target[0] = source[0]);
+        runStage(stage, ITEM_COUNT);
+
+        // Every input item is taken, only output items beyond capacity are dropped
+        assertEquals(ITEM_COUNT, taken[0]);
+        assertEquals(ITEM_COUNT / ITEMS_PER_OUTPUT - OUTPUT_CAPACITY,
+                stage.getDroppedCount());
+        assertEquals(OUTPUT_CAPACITY, output.size());
+
+        for (int i = 0; i < OUTPUT_CAPACITY; i++) {
+            assertEquals((i + 1) * ITEMS_PER_OUTPUT, output.peek()[0]);
+            output.release();
+        }
+    }
+
+    private static PipelineStage<long[], long[]> newStage(SpscRingBuffer<long[]> output,
+                                                          final long[] taken) {
+        SpscRingBuffer<long[]> input = newBuffer(ITEM_COUNT);
+
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            input.claim()[0] = i + 1;
+            input.publish();
+        }
+
+        return newStage(input, output, taken);
+    }
+
+    private static PipelineStage<long[], long[]> newStage(SpscRingBuffer<long[]> input,
+                                                          SpscRingBuffer<long[]> output,
+                                                          final long[] taken) {
+        return new PipelineStage<>("Test", input, output, (item, slot) -> {
+            taken[0]++;
+
+            if (item[0] % ITEMS_PER_OUTPUT != 0)
+                return false;
+
+            slot[0] = item[0];
+            return true;
+        });
+    }
+
+    // Run the stage until it has processed the given number of items and dropped the
+    // rest of input items
+    private static void runStage(PipelineStage<long[], long[]> stage, int processedCount)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        stage.start();
+
+        while ((stage.getProcessedCount() < processedCount || stage.getQueueDepth() > 0) &&
+                System.nanoTime() < deadline)
+            Thread.sleep(1);
+
+        stage.quit();
+    }
+
+    private static SpscRingBuffer<long[]> newBuffer(int capacity) {
+        return new SpscRingBuffer<>(capacity, () -> new long[1]);
+    }
+}
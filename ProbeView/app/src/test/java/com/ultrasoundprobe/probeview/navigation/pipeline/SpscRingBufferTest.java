@@ -0,0 +1,122 @@
+package com.ultrasoundprobe.probeview.navigation.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ring buffer between one producer and one consumer, which wraps around its slots and
+ * refuses items once full.
+ */
+public class SpscRingBufferTest {
+    private static final int ITEM_COUNT = 200000;
+
+    private static class Item {
+        int value;
+    }
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() {
+        assertEquals(2, new SpscRingBuffer<>(2, Item::new).capacity());
+        assertEquals(4, new SpscRingBuffer<>(3, Item::new).capacity());
+        assertEquals(4, new SpscRingBuffer<>(4, Item::new).capacity());
+        assertEquals(8, new SpscRingBuffer<>(5, Item::new).capacity());
+    }
+
+    @Test
+    public void items_wrapAroundSlotsInOrder() {
+        SpscRingBuffer<Item> buffer = new SpscRingBuffer<>(4, Item::new);
+        Item[] slots = new Item[buffer.capacity()];
+        int written = 0, read = 0;
+
+        // Three items at a time so that each round starts at another slot
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3; i++) {
+                Item item = buffer.claim();
+
+                // Slots are reused in place once around
+                if (slots[written % slots.length] == null)
+                    slots[written % slots.length] = item;
+
+                assertSame(slots[written % slots.length], item);
+
+                item.value = written++;
+                buffer.publish();
+            }
+
+            assertEquals(3, buffer.size());
+
+            for (int i = 0; i < 3; i++) {
+                assertEquals(read++, buffer.peek().value);
+                buffer.release();
+            }
+
+            assertNull(buffer.peek());
+        }
+    }
+
+    @Test
+    public void fullBuffer_refusesItemsUntilReleased() {
+        SpscRingBuffer<Item> buffer = new SpscRingBuffer<>(4, Item::new);
+
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.claim().value = i;
+            buffer.publish();
+        }
+
+        assertNull(buffer.claim());
+        assertEquals(buffer.capacity(), buffer.size());
+
+        assertEquals(0, buffer.peek().value);
+        buffer.release();
+
+        buffer.claim().value = 4;
+        buffer.publish();
+
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, buffer.peek().value);
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void itemsBetweenThreads_areInOrderOrCountedAsDropped()
+            throws InterruptedException {
+        final SpscRingBuffer<Item> buffer = new SpscRingBuffer<>(8, Item::new);
+        final int[] dropped = new int[1];
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < ITEM_COUNT; i++) {
+                Item item = buffer.claim();
+
+                if (item == null) {
+                    dropped[0]++;
+                    continue;
+                }
+
+                item.value = i;
+                buffer.publish();
+            }
+        });
+
+        producer.start();
+
+        int received = 0, last = -1;
+
+        while (producer.isAlive() || buffer.peek() != null) {
+            Item item = buffer.peek();
+
+            if (item == null)
+                continue;
+
+            assertTrue(item.value > last);
+            last = item.value;
+            received++;
+            buffer.release();
+        }
+
+        producer.join();
+
+        assertEquals(ITEM_COUNT, received + dropped[0]);
+    }
+}